@@ -16,6 +16,7 @@ import io.fairspace.saturn.services.views.*;
 import static io.fairspace.saturn.config.ConfigLoader.CONFIG;
 import static io.fairspace.saturn.config.ConfigLoader.VIEWS_CONFIG;
 import static io.fairspace.saturn.config.SparkFilterFactory.createSparkFilter;
+import static io.fairspace.saturn.config.VirtualThreads.useVirtualThreads;
 
 @Log4j2
 public class App {
@@ -53,6 +54,10 @@ public class App {
 
         var server = serverBuilder.build();
         server.getJettyServer().insertHandler(new SessionHandler());
+        server.getJettyServer().insertHandler(new RequestContextHandler());
+        if (CONFIG.virtualThreads) {
+            useVirtualThreads(server.getJettyServer());
+        }
         server.start();
         log.info("Saturn has started");
         return server;
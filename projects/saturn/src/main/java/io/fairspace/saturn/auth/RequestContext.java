@@ -40,6 +40,14 @@ public class RequestContext {
         currentUserUri.set(uri);
     }
 
+    /**
+     * Forgets the request and user of the current thread
+     */
+    public static void clear() {
+        currentRequest.remove();
+        currentUserUri.remove();
+    }
+
     private static Optional<UserIdentity> getUserIdentity() {
         return Optional.ofNullable(getCurrentRequest())
                 .map(Request::getAuthentication)
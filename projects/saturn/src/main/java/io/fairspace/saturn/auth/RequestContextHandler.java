@@ -0,0 +1,25 @@
+package io.fairspace.saturn.auth;
+
+import java.io.IOException;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+/**
+ * Clears the request state kept in RequestContext after each request, so that it doesn't leak
+ * to the next request handled by the same thread.
+ */
+public class RequestContextHandler extends HandlerWrapper {
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException {
+        try {
+            super.handle(target, baseRequest, request, response);
+        } finally {
+            RequestContext.clear();
+        }
+    }
+}
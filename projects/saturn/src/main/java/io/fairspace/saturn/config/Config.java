@@ -37,6 +37,9 @@ public class Config {
 
     public int livenessPort = 8091;
 
+    // Handle requests in virtual threads instead of Jetty's thread pool
+    public boolean virtualThreads = false;
+
     public String publicUrl = "http://localhost:8080";
 
     public Jena jena = new Jena();
@@ -68,7 +71,74 @@ public class Config {
 
         public File transactionLogPath = new File("data/log");
 
+        /** Format of new transaction log records. Records in other formats can still be read. */
+        public TransactionLogFormat transactionLogFormat = TransactionLogFormat.Sparql;
+
+        /** Append transactions to large segment files instead of writing a file per transaction. */
+        public boolean segmentedTransactionLog = false;
+
+        public long transactionLogSegmentSize = 64L * 1024 * 1024;
+
+        /** Compress completed chapters of a transaction log with one file per transaction. */
+        public boolean transactionLogCompression = false;
+
+        /**
+         * Don't report a write transaction as committed before its log record is forced to disk.
+         * Transactions committing at the same time share a single flush.
+         */
+        public boolean transactionLogSync = false;
+
+        /** The longest time in milliseconds a commit waits for other commits to join its flush. */
+        public long groupCommitMaxDelay = 2;
+
+        /** A flush starts without further waiting as soon as this number of commits are waiting for it. */
+        public int groupCommitMaxBatch = 64;
+
         public boolean bulkTransactions = true;
+
+        /** Maximum number of write requests combined in one transaction. */
+        public int bulkTransactionsMaxBatchSize = 1000;
+
+        /** No further write requests are added to a transaction running for this number of milliseconds. */
+        public long bulkTransactionsMaxBatchMillis = 1000;
+
+        /** Maximum number of waiting write requests, further ones are rejected with 503 Service Unavailable. */
+        public int bulkTransactionsQueueCapacity = 10_000;
+
+        /** Number of threads reading and decoding the transaction log during a restore. */
+        public int restoreThreads = Runtime.getRuntime().availableProcessors();
+
+        /** Number of restored transactions committed at once. An interrupted restore resumes after the last commit. */
+        public int restoreCommitInterval = 10_000;
+
+        /** Directory for snapshots of the dataset. A restore replays only the transactions after the newest one. */
+        public File snapshotPath = new File("data/snapshots");
+
+        /** Interval between scheduled snapshots in hours, 0 disables scheduled snapshots. */
+        public long snapshotIntervalHours = 0;
+
+        /** Number of snapshots to keep. */
+        public int snapshotRetention = 2;
+
+        /** Interval between scheduled verifications of the transaction log in hours, 0 disables them. */
+        public long transactionLogVerificationIntervalHours = 0;
+
+        /** Number of threads checking the transaction log during a verification. */
+        public int transactionLogVerificationThreads = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * Run as a read-only follower: the dataset is kept up to date with the transaction log in transactionLogPath,
+         * written by another Saturn instance, and write requests are rejected.
+         */
+        public boolean follower = false;
+
+        /** Interval between checks for new transactions in follower mode, in milliseconds. */
+        public long followerPollInterval = 1000;
+    }
+
+    public enum TransactionLogFormat {
+        Sparql,
+        Binary
     }
 
     public static class Auth {
@@ -116,6 +186,15 @@ public class Config {
         public long connectionTimeout = 1000;
         public boolean autoCommit = false;
         public boolean mvRefreshOnStartRequired = true;
+        // The maximum number of term labels kept in memory, see LabelCache
+        public long labelCacheSize = 100_000;
+        // The number of tables loaded in parallel when recreating the view index, each using a connection of the pool
+        public int reindexParallelism = 4;
+        // Update the views in the background instead of in the write transaction (see AsyncViewIndexer)
+        public boolean asyncIndexing = false;
+        public int asyncIndexingBatchSize = 1000;
+        // How long metadata requests wait for their changes to be applied to the views
+        public long asyncIndexingWaitMillis = 10_000;
     }
 
     public static class ExtraStorage {
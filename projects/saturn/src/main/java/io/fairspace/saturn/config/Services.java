@@ -13,9 +13,14 @@ import org.apache.jena.sparql.core.DatasetImpl;
 import org.apache.jena.sparql.util.Symbol;
 
 import io.fairspace.saturn.rdf.search.FilteredDatasetGraph;
+import io.fairspace.saturn.rdf.transactions.AsyncViewIndexer;
 import io.fairspace.saturn.rdf.transactions.BulkTransactions;
+import io.fairspace.saturn.rdf.transactions.Follower;
 import io.fairspace.saturn.rdf.transactions.SimpleTransactions;
+import io.fairspace.saturn.rdf.transactions.TailableTransactionLog;
+import io.fairspace.saturn.rdf.transactions.TransactionLogVerifier;
 import io.fairspace.saturn.rdf.transactions.Transactions;
+import io.fairspace.saturn.services.changes.ChangeFeedService;
 import io.fairspace.saturn.services.health.HealthService;
 import io.fairspace.saturn.services.maintenance.MaintenanceService;
 import io.fairspace.saturn.services.metadata.MetadataPermissions;
@@ -63,6 +68,7 @@ public class Services {
     private final DatasetGraph filteredDatasetGraph;
     private final HealthService healthService;
     private final MaintenanceService maintenanceService;
+    private final ChangeFeedService changeFeedService;
 
     public Services(
             @NonNull Config config,
@@ -70,8 +76,13 @@ public class Services {
             @NonNull Dataset dataset,
             ViewStoreClientFactory viewStoreClientFactory) {
         this.config = config;
-        this.transactions =
-                config.jena.bulkTransactions ? new BulkTransactions(dataset) : new SimpleTransactions(dataset);
+        this.transactions = config.jena.bulkTransactions
+                ? new BulkTransactions(
+                        dataset,
+                        config.jena.bulkTransactionsMaxBatchSize,
+                        config.jena.bulkTransactionsMaxBatchMillis,
+                        config.jena.bulkTransactionsQueueCapacity)
+                : new SimpleTransactions(dataset);
 
         userService = new UserService(config.auth, transactions);
 
@@ -91,7 +102,9 @@ public class Services {
                     userService,
                     dataset.getContext());
             extraDavServlet = new WebDAVServlet(extraDavFactory, transactions, extraBlobStore);
-            initExtraStorageRootDirectories();
+            if (!config.jena.follower) {
+                initExtraStorageRootDirectories();
+            }
         } else {
             extraBlobStore = null;
             extraDavFactory = null;
@@ -110,7 +123,12 @@ public class Services {
                 new UniqueLabelValidator(),
                 new ShaclValidator(VOCABULARY));
 
-        metadataService = new MetadataService(transactions, VOCABULARY, metadataValidator, metadataPermissions);
+        metadataService = new MetadataService(
+                transactions,
+                VOCABULARY,
+                metadataValidator,
+                metadataPermissions,
+                dataset.getContext().get(AsyncViewIndexer.VIEW_INDEXER));
         dataset.getContext().set(METADATA_SERVICE, metadataService);
 
         filteredDatasetGraph = new FilteredDatasetGraph(dataset.asDatasetGraph(), metadataPermissions);
@@ -139,7 +157,13 @@ public class Services {
 
         searchService = new SearchService(filteredDataset);
 
-        healthService = new HealthService(viewStoreClientFactory == null ? null : viewStoreClientFactory.dataSource);
+        changeFeedService = new ChangeFeedService(
+                userService, dataset.getContext().get(TailableTransactionLog.TRANSACTION_LOG));
+
+        healthService = new HealthService(
+                viewStoreClientFactory == null ? null : viewStoreClientFactory.dataSource,
+                dataset.getContext().get(Follower.FOLLOWER),
+                dataset.getContext().get(TransactionLogVerifier.VERIFIER));
     }
 
     private void initExtraStorageRootDirectories() {
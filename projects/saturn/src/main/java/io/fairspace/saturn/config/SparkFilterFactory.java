@@ -2,6 +2,7 @@ package io.fairspace.saturn.config;
 
 import javax.servlet.Filter;
 
+import io.fairspace.saturn.services.changes.ChangeFeedApp;
 import io.fairspace.saturn.services.features.FeaturesApp;
 import io.fairspace.saturn.services.health.HealthApp;
 import io.fairspace.saturn.services.maintenance.MaintenanceApp;
@@ -24,6 +25,7 @@ public class SparkFilterFactory {
                 new FeaturesApp(apiPathPrefix + "/features", config.features),
                 new HealthApp(apiPathPrefix + "/health", svc.getHealthService()),
                 new MaintenanceApp(apiPathPrefix + "/maintenance", svc.getMaintenanceService()),
+                new ChangeFeedApp(apiPathPrefix + "/changes", svc.getChangeFeedService()),
                 new LogoutApp("/logout", svc.getUserService(), config));
     }
 }
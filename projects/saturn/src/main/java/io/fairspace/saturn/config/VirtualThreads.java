@@ -0,0 +1,44 @@
+package io.fairspace.saturn.config;
+
+import java.util.concurrent.Executors;
+
+import lombok.extern.log4j.*;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+
+/**
+ * Lets Jetty handle requests in virtual threads.
+ * FusekiServer creates the Jetty server with a bounded pool of platform threads, so the number of requests blocked
+ * at the same time (on the view database, Keycloak, the write queue of BulkTransactions or blob storage) is limited
+ * by the pool size. Jetty 9.4 has no option to use virtual threads, so the server's connectors are replaced with
+ * connectors executing their tasks, and therefore the requests, in new virtual threads.
+ * <p>
+ * A request is still handled by a single thread, so request state kept in ThreadLocals (RequestContext,
+ * FilteredDatasetGraph) keeps working. A thread can handle several requests of the same connection, therefore
+ * RequestContextHandler clears that state after each request.
+ */
+@Log4j2
+public class VirtualThreads {
+    public static void useVirtualThreads(Server server) {
+        var executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("request-", 0).factory());
+        for (var connector : server.getConnectors()) {
+            if (connector instanceof ServerConnector c) {
+                var replacement = new ServerConnector(
+                        server,
+                        executor,
+                        null,
+                        null,
+                        -1,
+                        -1,
+                        c.getConnectionFactories().toArray(ConnectionFactory[]::new));
+                replacement.setHost(c.getHost());
+                replacement.setPort(c.getPort());
+                replacement.setIdleTimeout(c.getIdleTimeout());
+                server.removeConnector(c);
+                server.addConnector(replacement);
+                log.info("Requests to port {} are handled in virtual threads", c.getPort());
+            }
+        }
+    }
+}
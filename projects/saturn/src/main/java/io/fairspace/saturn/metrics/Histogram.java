@@ -0,0 +1,85 @@
+package io.fairspace.saturn.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import static io.fairspace.saturn.metrics.Metrics.format;
+
+/**
+ * Counts observations in buckets with the given upper bounds. Latencies are observed in seconds.
+ */
+public class Histogram implements Metrics.Metric {
+    private final String help;
+    private final double[] buckets;
+    // The last count is for observations exceeding all bucket bounds
+    private final LongAdder[] counts;
+    private final DoubleAdder sum = new DoubleAdder();
+
+    Histogram(String help, double[] buckets) {
+        this.help = help;
+        this.buckets = buckets.clone();
+        Arrays.sort(this.buckets);
+        this.counts = new LongAdder[buckets.length + 1];
+        Arrays.setAll(counts, i -> new LongAdder());
+    }
+
+    public void observe(double value) {
+        var i = 0;
+        while (i < buckets.length && value > buckets[i]) {
+            i++;
+        }
+        counts[i].increment();
+        sum.add(value);
+    }
+
+    public void observeNanos(long nanos) {
+        observe(nanos / 1e9);
+    }
+
+    /**
+     * @return The time elapsed since start, as returned by System.nanoTime()
+     */
+    public long observeSince(long start) {
+        var elapsed = System.nanoTime() - start;
+        observeNanos(elapsed);
+        return elapsed;
+    }
+
+    public long getCount() {
+        var count = 0L;
+        for (var c : counts) {
+            count += c.sum();
+        }
+        return count;
+    }
+
+    public double getSum() {
+        return sum.sum();
+    }
+
+    @Override
+    public String getType() {
+        return "histogram";
+    }
+
+    @Override
+    public String getHelp() {
+        return help;
+    }
+
+    @Override
+    public void write(String name, Writer out) throws IOException {
+        var cumulative = 0L;
+        for (var i = 0; i < buckets.length; i++) {
+            cumulative += counts[i].sum();
+            out.write(name + "_bucket{le=\"" + format(buckets[i]) + "\"} " + cumulative + "\n");
+        }
+        cumulative += counts[buckets.length].sum();
+        out.write(name + "_bucket{le=\"+Inf\"} " + cumulative + "\n");
+        out.write(name + "_sum " + format(sum.sum()) + "\n");
+        out.write(name + "_count " + cumulative + "\n");
+    }
+}
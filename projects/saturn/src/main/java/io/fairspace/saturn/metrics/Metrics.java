@@ -0,0 +1,95 @@
+package io.fairspace.saturn.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A minimal metrics registry rendering its metrics in the Prometheus text exposition format.
+ * The metrics are published on the liveness port at <code>/metrics</code> (see LivenessServer).
+ * Histograms are owned by the registry; counters and gauges read their value from a supplier, so that components
+ * can expose the statistics they already keep. Registering a supplier under an existing name replaces it.
+ */
+public class Metrics {
+    public static final Metrics METRICS = new Metrics();
+
+    public static final double[] LATENCY_BUCKETS = {
+        0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+    public static final double[] SIZE_BUCKETS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+    public static final double[] QUAD_BUCKETS = {1, 10, 100, 1000, 10_000, 100_000, 1_000_000};
+
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    public Histogram histogram(String name, String help, double... buckets) {
+        return (Histogram) metrics.computeIfAbsent(name, n -> new Histogram(help, buckets));
+    }
+
+    public void counter(String name, String help, DoubleSupplier value) {
+        metrics.put(name, new SuppliedMetric("counter", help, value));
+    }
+
+    public void gauge(String name, String help, DoubleSupplier value) {
+        metrics.put(name, new SuppliedMetric("gauge", help, value));
+    }
+
+    public void write(Writer out) throws IOException {
+        for (var entry : metrics.entrySet()) {
+            var name = entry.getKey();
+            var metric = entry.getValue();
+            out.write("# HELP " + name + " " + metric.getHelp() + "\n");
+            out.write("# TYPE " + name + " " + metric.getType() + "\n");
+            metric.write(name, out);
+        }
+    }
+
+    static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    interface Metric {
+        String getType();
+
+        String getHelp();
+
+        void write(String name, Writer out) throws IOException;
+    }
+
+    private static class SuppliedMetric implements Metric {
+        private final String type;
+        private final String help;
+        private final DoubleSupplier value;
+
+        SuppliedMetric(String type, String help, DoubleSupplier value) {
+            this.type = type;
+            this.help = help;
+            this.value = value;
+        }
+
+        @Override
+        public String getType() {
+            return type;
+        }
+
+        @Override
+        public String getHelp() {
+            return help;
+        }
+
+        @Override
+        public void write(String name, Writer out) throws IOException {
+            out.write(name + " " + format(value.getAsDouble()) + "\n");
+        }
+    }
+}
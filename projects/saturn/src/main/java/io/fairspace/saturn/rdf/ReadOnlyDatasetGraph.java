@@ -0,0 +1,38 @@
+package io.fairspace.saturn.rdf;
+
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.query.TxnType;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphWrapper;
+
+import io.fairspace.saturn.services.NotAvailableException;
+
+/**
+ * Rejects write transactions, e.g. on a follower instance, whose dataset is only changed by replaying
+ * the transaction log of another instance. Read transactions can't be promoted.
+ */
+public class ReadOnlyDatasetGraph extends DatasetGraphWrapper {
+    public static final String READ_ONLY_MESSAGE = "This Saturn instance is read-only";
+
+    public ReadOnlyDatasetGraph(DatasetGraph dsg) {
+        super(dsg);
+    }
+
+    @Override
+    public void begin(TxnType type) {
+        if (type == TxnType.WRITE) {
+            throw new NotAvailableException(READ_ONLY_MESSAGE);
+        }
+        super.begin(TxnType.READ);
+    }
+
+    @Override
+    public void begin(ReadWrite readWrite) {
+        begin(TxnType.convert(readWrite));
+    }
+
+    @Override
+    public boolean promote(Promote mode) {
+        return false;
+    }
+}
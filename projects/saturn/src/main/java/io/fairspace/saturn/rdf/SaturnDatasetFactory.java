@@ -2,6 +2,7 @@ package io.fairspace.saturn.rdf;
 
 import java.io.File;
 
+import lombok.SneakyThrows;
 import lombok.extern.log4j.*;
 import org.apache.jena.datatypes.TypeMapper;
 import org.apache.jena.dboe.base.file.Location;
@@ -12,7 +13,9 @@ import io.fairspace.saturn.config.*;
 import io.fairspace.saturn.rdf.transactions.*;
 import io.fairspace.saturn.services.views.*;
 
+import static io.fairspace.saturn.config.ConfigLoader.CONFIG;
 import static io.fairspace.saturn.rdf.MarkdownDataType.MARKDOWN_DATA_TYPE;
+import static io.fairspace.saturn.rdf.transactions.Restore.progressFile;
 import static io.fairspace.saturn.rdf.transactions.Restore.restore;
 
 import static org.apache.jena.tdb2.sys.DatabaseConnection.connectCreate;
@@ -29,32 +32,124 @@ public class SaturnDatasetFactory {
      * needed.
      */
     public static Dataset connect(Config.Jena config, ViewStoreClientFactory viewStoreClientFactory) {
+        if (config.follower) {
+            return connectFollower(config);
+        }
+
         var restoreNeeded = isRestoreNeeded(config.datasetPath);
 
         // Create a TDB2 dataset graph
         var dsg = connectCreate(Location.create(config.datasetPath.getAbsolutePath()), config.storeParams, null)
                 .getDatasetGraph();
 
-        var txnLog = new LocalTransactionLog(config.transactionLogPath, new SparqlTransactionCodec());
+        var txnLog = new TailableTransactionLog(transactionLog(config));
 
+        AsyncViewIndexer indexer = null;
         if (viewStoreClientFactory != null) {
-            dsg = new TxnIndexDatasetGraph(dsg, viewStoreClientFactory);
+            if (CONFIG.viewDatabase.asyncIndexing) {
+                indexer = new AsyncViewIndexer(
+                        dsg,
+                        viewStoreClientFactory,
+                        CONFIG.viewDatabase.asyncIndexingBatchSize,
+                        CONFIG.viewDatabase.asyncIndexingWaitMillis);
+            }
+            dsg = new TxnIndexDatasetGraph(dsg, viewStoreClientFactory, indexer);
         }
 
         if (restoreNeeded) {
             log.warn("Jena restore is needed, starting automatic restore.");
-            restore(dsg, txnLog);
+            restore(
+                    dsg,
+                    txnLog,
+                    progressFile(config.datasetPath),
+                    config.restoreThreads,
+                    config.restoreCommitInterval,
+                    config.snapshotPath);
         }
 
         // Add transaction log
-        dsg = new TxnLogDatasetGraph(dsg, txnLog);
+        var groupCommit = config.transactionLogSync
+                ? new GroupCommit(txnLog::force, config.groupCommitMaxDelay, config.groupCommitMaxBatch)
+                : null;
+        dsg = new TxnLogDatasetGraph(dsg, txnLog, groupCommit);
+
+        // Lets BulkTransactions revert a failed job without aborting its batch
+        dsg = new SavepointDatasetGraph(dsg);
+
+        var snapshots = new Snapshots(config.snapshotPath, config.snapshotRetention, dsg, txnLog);
+        dsg.getContext().set(Snapshots.SNAPSHOTS, snapshots);
+        dsg.getContext().set(TailableTransactionLog.TRANSACTION_LOG, txnLog);
+        if (config.snapshotIntervalHours > 0) {
+            snapshots.schedule(config.snapshotIntervalHours);
+        }
+
+        var verifier = new TransactionLogVerifier(txnLog, config.transactionLogVerificationThreads);
+        dsg.getContext().set(TransactionLogVerifier.VERIFIER, verifier);
+        if (config.transactionLogVerificationIntervalHours > 0) {
+            verifier.schedule(config.transactionLogVerificationIntervalHours);
+        }
+
+        if (indexer != null) {
+            dsg.getContext().set(AsyncViewIndexer.VIEW_INDEXER, indexer);
+            indexer.start();
+        }
 
         TypeMapper.getInstance().registerDatatype(MARKDOWN_DATA_TYPE);
 
         return DatasetFactory.wrap(dsg);
     }
 
+    /**
+     * Returns a read-only dataset which follows the transaction log written by another Saturn instance.
+     * The view database, if any, is maintained by that instance.
+     */
+    @SneakyThrows
+    private static Dataset connectFollower(Config.Jena config) {
+        if (config.segmentedTransactionLog) {
+            throw new IllegalStateException("Follower mode requires a transaction log with one file per transaction");
+        }
+        var dsg = connectCreate(Location.create(config.datasetPath.getAbsolutePath()), config.storeParams, null)
+                .getDatasetGraph();
+        var txnLog = LocalTransactionLog.openReadOnly(config.transactionLogPath, transactionCodec(config));
+        var follower = new Follower(
+                dsg,
+                txnLog,
+                Follower.positionFile(config.datasetPath),
+                config.restoreThreads,
+                config.restoreCommitInterval);
+
+        log.info("Starting as a follower of the transaction log in {}", config.transactionLogPath);
+        follower.poll();
+        follower.start(config.followerPollInterval);
+
+        var readOnly = new ReadOnlyDatasetGraph(dsg);
+        readOnly.getContext().set(Follower.FOLLOWER, follower);
+
+        TypeMapper.getInstance().registerDatatype(MARKDOWN_DATA_TYPE);
+
+        return DatasetFactory.wrap(readOnly);
+    }
+
+    @SneakyThrows
+    public static TransactionLog transactionLog(Config.Jena config) {
+        if (config.segmentedTransactionLog) {
+            return new SegmentedTransactionLog(
+                    config.transactionLogPath, transactionCodec(config), config.transactionLogSegmentSize);
+        }
+        return new LocalTransactionLog(
+                config.transactionLogPath, transactionCodec(config), config.transactionLogCompression);
+    }
+
+    public static TransactionCodec transactionCodec(Config.Jena config) {
+        return switch (config.transactionLogFormat) {
+            case Sparql -> new SparqlTransactionCodec();
+            case Binary -> new BinaryTransactionCodec();
+        };
+    }
+
     protected static boolean isRestoreNeeded(File datasetPath) {
-        return !datasetPath.exists() || datasetPath.list((dir, name) -> name.startsWith("Data-")).length == 0;
+        return !datasetPath.exists()
+                || datasetPath.list((dir, name) -> name.startsWith("Data-")).length == 0
+                || progressFile(datasetPath).exists(); // an interrupted restore
     }
 }
@@ -0,0 +1,251 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.SneakyThrows;
+import lombok.extern.log4j.*;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.util.Symbol;
+import org.apache.jena.system.Txn;
+
+import io.fairspace.saturn.services.views.ViewStoreClientFactory;
+import io.fairspace.saturn.services.views.ViewUpdater;
+import io.fairspace.saturn.vocabulary.FS;
+
+import static io.fairspace.saturn.metrics.Metrics.METRICS;
+
+import static java.lang.System.currentTimeMillis;
+import static org.apache.jena.graph.NodeFactory.createLiteral;
+import static org.apache.jena.graph.NodeFactory.createURI;
+
+/**
+ * Updates the view database in the background, so that a slow view database doesn't hold up write transactions.
+ * A transactional outbox: TxnIndexDatasetGraph records the subjects updated by a write transaction in the outbox
+ * graph of the underlying dataset, in the same transaction, so they are stored as durably as the changes themselves
+ * and survive a restart. A worker thread takes the pending subjects in batches, updates them in the view database
+ * and removes them from the outbox. A failed batch stays in the outbox and is retried.
+ * <p>
+ * Each entry carries a version, a timestamp made unique, so an entry recorded again while its subject is being
+ * indexed is kept for the next batch. Callers needing to read their own writes from the views can wait for
+ * the entries recorded so far with awaitIndexed.
+ */
+@Log4j2
+public class AsyncViewIndexer implements AutoCloseable {
+    public static final Symbol VIEW_INDEXER = Symbol.create("view_indexer");
+
+    static final Node OUTBOX = createURI(FS.NS + "viewOutbox");
+    static final Node PENDING = createURI(FS.NS + "pendingViewUpdate");
+
+    private static final long POLL_INTERVAL_MILLIS = 1000;
+    private static final long RETRY_DELAY_MILLIS = 5000;
+
+    private final DatasetGraph dsg;
+    private final ViewStoreClientFactory viewStoreClientFactory;
+    private final int batchSize;
+    private final long waitMillis;
+    private final AtomicLong lastVersion = new AtomicLong();
+    private final AtomicLong indexedSubjects = new AtomicLong();
+    // The number of outbox entries per version. Updated after the fact, so the count of a version
+    // can temporarily be negative when its entries are indexed before the recording transaction reports its commit.
+    private final ConcurrentSkipListMap<Long, Integer> pending = new ConcurrentSkipListMap<>();
+    private final AtomicLong pendingEntries = new AtomicLong();
+    private final Object lock = new Object();
+    // Guarded by lock
+    private boolean signalled;
+    private final Thread worker = new Thread(this::run, "View indexer");
+
+    /**
+     * @param dsg        The dataset graph holding the outbox, not monitored for changes
+     * @param waitMillis The timeout of awaitIndexed()
+     */
+    public AsyncViewIndexer(
+            DatasetGraph dsg, ViewStoreClientFactory viewStoreClientFactory, int batchSize, long waitMillis) {
+        this.dsg = dsg;
+        this.viewStoreClientFactory = viewStoreClientFactory;
+        this.batchSize = batchSize;
+        this.waitMillis = waitMillis;
+        worker.setDaemon(true);
+
+        Txn.executeRead(dsg, () -> dsg.find(OUTBOX, Node.ANY, PENDING, Node.ANY)
+                .forEachRemaining(q -> count(version(q), 1)));
+        if (!pending.isEmpty()) {
+            lastVersion.set(pending.lastKey());
+            log.info("{} subjects are waiting to be updated in the view database", pendingEntries.get());
+        }
+
+        METRICS.gauge(
+                "saturn_view_store_lag_seconds",
+                "Age of the oldest change not yet applied to the view database",
+                this::getLagSeconds);
+        METRICS.gauge(
+                "saturn_view_store_pending_subjects",
+                "Number of subjects waiting to be updated in the view database",
+                pendingEntries::get);
+        METRICS.counter(
+                "saturn_view_store_indexed_subjects_total",
+                "Subjects updated in the view database by the background indexer",
+                indexedSubjects::get);
+    }
+
+    public void start() {
+        worker.start();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        worker.interrupt();
+        worker.join();
+    }
+
+    /**
+     * Records the subjects in the outbox. Must be called in the write transaction changing them.
+     *
+     * @return The version of the recorded entries, to be passed to committed() after the transaction has committed
+     */
+    public long record(Set<Node> subjects) {
+        var version = lastVersion.updateAndGet(v -> Math.max(v + 1, currentTimeMillis()));
+        var versionNode = createLiteral(Long.toString(version), XSDDatatype.XSDlong);
+        subjects.forEach(subject -> dsg.add(OUTBOX, subject, PENDING, versionNode));
+        return version;
+    }
+
+    /**
+     * Reports the commit of a transaction which recorded subjects, and wakes up the worker.
+     */
+    public void committed(long version, int subjects) {
+        count(version, subjects);
+        signal();
+    }
+
+    /**
+     * @return The version of the last recorded entries
+     */
+    public long getLastVersion() {
+        return lastVersion.get();
+    }
+
+    /**
+     * Waits until all entries recorded so far are applied to the view database, at most waitMillis.
+     *
+     * @return false if the timeout expired first
+     */
+    public boolean awaitIndexed() throws InterruptedException {
+        return awaitIndexed(getLastVersion(), waitMillis);
+    }
+
+    /**
+     * Waits until all entries up to the given version are applied to the view database.
+     *
+     * @return false if the timeout expired first
+     */
+    public boolean awaitIndexed(long version, long timeoutMillis) throws InterruptedException {
+        var deadline = currentTimeMillis() + timeoutMillis;
+        synchronized (lock) {
+            while (!pending.headMap(version, true).isEmpty()) {
+                var remaining = deadline - currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                lock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    public double getLagSeconds() {
+        var oldest = pending.firstEntry();
+        return oldest == null ? 0 : Math.max(0, currentTimeMillis() - oldest.getKey()) / 1000.0;
+    }
+
+    public long getPendingSubjects() {
+        return pendingEntries.get();
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                var batch = Txn.calculateRead(dsg, this::nextBatch);
+                if (batch.isEmpty()) {
+                    awaitSignal();
+                    continue;
+                }
+
+                var subjects = new LinkedHashSet<Node>();
+                batch.forEach(q -> subjects.add(q.getSubject()));
+                Txn.executeRead(dsg, () -> updateViews(subjects));
+                Txn.executeWrite(dsg, () -> batch.forEach(dsg::delete));
+
+                indexedSubjects.addAndGet(subjects.size());
+                batch.forEach(q -> count(version(q), -1));
+                synchronized (lock) {
+                    lock.notifyAll(); // wakes up the callers waiting in awaitIndexed
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                log.error("Error updating the view database, retrying in {}ms", RETRY_DELAY_MILLIS, e);
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private List<Quad> nextBatch() {
+        var batch = new ArrayList<Quad>();
+        var it = dsg.find(OUTBOX, Node.ANY, PENDING, Node.ANY);
+        try {
+            while (it.hasNext() && batch.size() < batchSize) {
+                batch.add(it.next());
+            }
+        } finally {
+            it.close();
+        }
+        return batch;
+    }
+
+    @SneakyThrows(SQLException.class)
+    private void updateViews(Set<Node> subjects) {
+        try (var viewStoreClient = viewStoreClientFactory.build();
+                var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
+            viewUpdater.updateSubjects(subjects);
+            viewUpdater.commit();
+        }
+    }
+
+    private void signal() {
+        synchronized (lock) {
+            signalled = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void awaitSignal() throws InterruptedException {
+        synchronized (lock) {
+            if (!signalled) {
+                lock.wait(POLL_INTERVAL_MILLIS);
+            }
+            signalled = false;
+        }
+    }
+
+    private void count(long version, int entries) {
+        pendingEntries.addAndGet(entries);
+        pending.merge(version, entries, (a, b) -> a + b == 0 ? null : a + b);
+    }
+
+    private static long version(Quad quad) {
+        return Long.parseLong(quad.getObject().getLiteralLexicalForm());
+    }
+}
@@ -0,0 +1,290 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A compact binary transaction format.
+ * Every record starts with a header (MAGIC followed by a version byte) and is followed by a sequence of operations,
+ * each of them starting with a one byte operation code.
+ * Nodes are stored in a per-record dictionary: the first occurrence of a node is written in full and gets
+ * a sequential number, subsequent occurrences are written as a reference to that number.
+ * Namespaces of IRIs (everything up to and including the last '/' or '#') are stored in a separate dictionary,
+ * so that IRIs sharing a namespace only store their local part.
+ * To bound memory usage for very large records (e.g. snapshots), both dictionaries stop growing
+ * when they reach their maximal size; nodes and namespaces not in a dictionary are written in full.
+ */
+public class BinaryTransactionCodec implements TransactionCodec {
+    static final byte[] MAGIC = {'F', 'S', 'T', 'X'};
+    private static final int VERSION = 1;
+
+    private static final int OP_METADATA = 'M';
+    private static final int OP_ADD = 'A';
+    private static final int OP_DELETE = 'D';
+    private static final int OP_COMMIT = 'C';
+    private static final int OP_ABORT = 'X';
+
+    private static final int NODE_REFERENCE = 0;
+    private static final int NODE_URI = 1;
+    private static final int NODE_BLANK = 2;
+    private static final int NODE_LITERAL = 3;
+    private static final int NODE_LANG_LITERAL = 4;
+
+    private static final int MAX_NODES = 1 << 20;
+    private static final int MAX_NAMESPACES = 1 << 16;
+
+    private static final int HAS_USER_ID = 1;
+    private static final int HAS_USER_NAME = 2;
+
+    /**
+     * Checks if the stream contains a record in the binary format without consuming any bytes.
+     *
+     * @param in An input stream supporting mark/reset
+     * @return true if the stream starts with the binary header
+     * @throws IOException
+     */
+    public static boolean isBinary(InputStream in) throws IOException {
+        if (!in.markSupported()) {
+            throw new IllegalArgumentException("The input stream must support mark/reset");
+        }
+        in.mark(MAGIC.length);
+        try {
+            return Arrays.equals(in.readNBytes(MAGIC.length), MAGIC);
+        } finally {
+            in.reset();
+        }
+    }
+
+    @Override
+    public TransactionListener write(OutputStream out) throws IOException {
+        var output = new DataOutputStream(out);
+        output.write(MAGIC);
+        output.writeByte(VERSION);
+
+        return new TransactionListener() {
+            private final Map<Node, Integer> nodes = new HashMap<>();
+            private final Map<String, Integer> namespaces = new HashMap<>();
+
+            @Override
+            public void onMetadata(String userId, String userName, long timestamp) throws IOException {
+                output.writeByte(OP_METADATA);
+                output.writeByte((userId != null ? HAS_USER_ID : 0) | (userName != null ? HAS_USER_NAME : 0));
+                output.writeLong(timestamp);
+                if (userId != null) {
+                    writeString(output, userId);
+                }
+                if (userName != null) {
+                    writeString(output, userName);
+                }
+            }
+
+            @Override
+            public void onAdd(Node graph, Node subject, Node predicate, Node object) throws IOException {
+                writeQuad(OP_ADD, graph, subject, predicate, object);
+            }
+
+            @Override
+            public void onDelete(Node graph, Node subject, Node predicate, Node object) throws IOException {
+                writeQuad(OP_DELETE, graph, subject, predicate, object);
+            }
+
+            @Override
+            public void onCommit() throws IOException {
+                output.writeByte(OP_COMMIT);
+                output.flush();
+            }
+
+            @Override
+            public void onAbort() throws IOException {
+                output.writeByte(OP_ABORT);
+                output.flush();
+            }
+
+            private void writeQuad(int op, Node graph, Node subject, Node predicate, Node object) throws IOException {
+                output.writeByte(op);
+                writeNode(graph);
+                writeNode(subject);
+                writeNode(predicate);
+                writeNode(object);
+            }
+
+            private void writeNode(Node node) throws IOException {
+                var id = nodes.get(node);
+                if (id != null) {
+                    output.writeByte(NODE_REFERENCE);
+                    writeVarInt(output, id);
+                    return;
+                }
+
+                if (node.isURI()) {
+                    output.writeByte(NODE_URI);
+                    writeUri(node.getURI());
+                } else if (node.isBlank()) {
+                    output.writeByte(NODE_BLANK);
+                    writeString(output, node.getBlankNodeLabel());
+                } else if (node.isLiteral()) {
+                    var lang = node.getLiteralLanguage();
+                    if (lang != null && !lang.isEmpty()) {
+                        output.writeByte(NODE_LANG_LITERAL);
+                        writeString(output, node.getLiteralLexicalForm());
+                        writeString(output, lang);
+                    } else {
+                        output.writeByte(NODE_LITERAL);
+                        writeString(output, node.getLiteralLexicalForm());
+                        writeUri(node.getLiteralDatatypeURI());
+                    }
+                } else {
+                    throw new IllegalArgumentException("Unsupported node type: " + node);
+                }
+
+                if (nodes.size() < MAX_NODES) {
+                    nodes.put(node, nodes.size());
+                }
+            }
+
+            private void writeUri(String uri) throws IOException {
+                var split = namespaceEnd(uri);
+                var namespace = uri.substring(0, split);
+                var namespaceId = namespaces.get(namespace);
+                if (namespaceId == null) {
+                    writeVarInt(output, 0);
+                    writeString(output, namespace);
+                    if (namespaces.size() < MAX_NAMESPACES) {
+                        namespaces.put(namespace, namespaces.size());
+                    }
+                } else {
+                    writeVarInt(output, namespaceId + 1);
+                }
+                writeString(output, uri.substring(split));
+            }
+        };
+    }
+
+    @Override
+    public void read(InputStream in, TransactionListener listener) throws IOException {
+        var input = new DataInputStream(in);
+        if (!Arrays.equals(input.readNBytes(MAGIC.length), MAGIC)) {
+            throw new IOException("Not a binary transaction record");
+        }
+        var version = input.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary transaction record version: " + version);
+        }
+
+        listener.onBegin();
+
+        var nodes = new ArrayList<Node>();
+        var namespaces = new ArrayList<String>();
+
+        int op;
+        while ((op = input.read()) != -1) {
+            switch (op) {
+                case OP_METADATA -> {
+                    var flags = input.readUnsignedByte();
+                    var timestamp = input.readLong();
+                    var userId = (flags & HAS_USER_ID) != 0 ? readString(input) : null;
+                    var userName = (flags & HAS_USER_NAME) != 0 ? readString(input) : null;
+                    listener.onMetadata(userId, userName, timestamp);
+                }
+                case OP_ADD -> listener.onAdd(
+                        readNode(input, nodes, namespaces),
+                        readNode(input, nodes, namespaces),
+                        readNode(input, nodes, namespaces),
+                        readNode(input, nodes, namespaces));
+                case OP_DELETE -> listener.onDelete(
+                        readNode(input, nodes, namespaces),
+                        readNode(input, nodes, namespaces),
+                        readNode(input, nodes, namespaces),
+                        readNode(input, nodes, namespaces));
+                case OP_COMMIT -> listener.onCommit();
+                case OP_ABORT -> listener.onAbort();
+                default -> throw new IOException("Unknown operation code: " + op);
+            }
+        }
+    }
+
+    private static Node readNode(DataInputStream input, List<Node> nodes, List<String> namespaces)
+            throws IOException {
+        var type = input.readUnsignedByte();
+        if (type == NODE_REFERENCE) {
+            return nodes.get(readVarInt(input));
+        }
+        var node = readNewNode(type, input, namespaces);
+        if (nodes.size() < MAX_NODES) {
+            nodes.add(node);
+        }
+        return node;
+    }
+
+    private static Node readNewNode(int type, DataInputStream input, List<String> namespaces) throws IOException {
+        // Java evaluates arguments from left to right, so the fields are read in the order they were written
+        return switch (type) {
+            case NODE_URI -> NodeFactory.createURI(readUri(input, namespaces));
+            case NODE_BLANK -> NodeFactory.createBlankNode(readString(input));
+            case NODE_LANG_LITERAL -> NodeFactory.createLiteral(readString(input), readString(input));
+            case NODE_LITERAL -> NodeFactory.createLiteral(
+                    readString(input), TypeMapper.getInstance().getSafeTypeByName(readUri(input, namespaces)));
+            default -> throw new IOException("Unknown node type: " + type);
+        };
+    }
+
+    private static String readUri(DataInputStream input, List<String> namespaces) throws IOException {
+        var namespaceId = readVarInt(input);
+        String namespace;
+        if (namespaceId == 0) {
+            namespace = readString(input);
+            if (namespaces.size() < MAX_NAMESPACES) {
+                namespaces.add(namespace);
+            }
+        } else {
+            namespace = namespaces.get(namespaceId - 1);
+        }
+        return namespace + readString(input);
+    }
+
+    private static int namespaceEnd(String uri) {
+        return Math.max(uri.lastIndexOf('/'), uri.lastIndexOf('#')) + 1;
+    }
+
+    private static void writeString(DataOutputStream output, String s) throws IOException {
+        var bytes = s.getBytes(UTF_8);
+        writeVarInt(output, bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        var bytes = new byte[readVarInt(input)];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeVarInt(DataOutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream input) throws IOException {
+        var value = 0;
+        for (var shift = 0; shift < 32; shift += 7) {
+            var b = input.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+}
@@ -1,12 +1,14 @@
 package io.fairspace.saturn.rdf.transactions;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.pivovarit.function.ThrowingFunction;
+import lombok.extern.log4j.*;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.query.ReadWrite;
 import org.apache.jena.rdf.model.Model;
@@ -14,43 +16,137 @@ import org.apache.jena.sparql.JenaTransactionException;
 import org.apache.jena.system.Txn;
 import org.eclipse.jetty.server.Request;
 
+import io.fairspace.saturn.metrics.Histogram;
+import io.fairspace.saturn.services.ServiceBusyException;
+
 import static io.fairspace.saturn.auth.RequestContext.getCurrentRequest;
 import static io.fairspace.saturn.auth.RequestContext.getCurrentUserStringUri;
 import static io.fairspace.saturn.auth.RequestContext.setCurrentRequest;
 import static io.fairspace.saturn.auth.RequestContext.setCurrentUserStringUri;
+import static io.fairspace.saturn.metrics.Metrics.LATENCY_BUCKETS;
+import static io.fairspace.saturn.metrics.Metrics.METRICS;
+import static io.fairspace.saturn.metrics.Metrics.SIZE_BUCKETS;
 
+import static java.lang.System.nanoTime;
 import static java.lang.Thread.currentThread;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+/**
+ * Executes write jobs of concurrent requests in a single worker thread, combining the waiting jobs
+ * in one write transaction.
+ * A batch contains at most maxBatchSize jobs, and no further jobs are started once a batch has been running
+ * for maxBatchMillis; the remaining jobs are executed in the next batch.
+ * Jobs wait in two lanes: interactive writes and bulk writes (see calculateBulkWrite). Batches contain jobs
+ * of one lane only. Interactive batches take precedence, but when bulk jobs are waiting, every other batch is a bulk
+ * one, so interactive jobs wait for at most one bulk batch and bulk jobs are not starved.
+ * If more than queueCapacity jobs are waiting, new jobs are rejected with a ServiceBusyException.
+ * <p>
+ * If the dataset graph is a SavepointDatasetGraph, the changes of a failed job are reverted and the batch continues.
+ * Otherwise, or if a job aborts the transaction itself, the batch is aborted and its other jobs are executed again.
+ */
+@Log4j2
 public class BulkTransactions extends BaseTransactions {
-    private final LinkedBlockingQueue<Task<?, ?>> queue = new LinkedBlockingQueue<>();
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+    public static final long DEFAULT_MAX_BATCH_MILLIS = 1000;
+    public static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+
     private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private static final Histogram QUEUE_WAIT = METRICS.histogram(
+            "saturn_write_queue_wait_seconds", "Time write jobs wait before their execution starts", LATENCY_BUCKETS);
+    private static final Histogram JOB_EXECUTION =
+            METRICS.histogram("saturn_write_job_seconds", "Time executing write jobs", LATENCY_BUCKETS);
+    private static final Histogram BATCH_SIZE =
+            METRICS.histogram("saturn_write_batch_size", "Number of write jobs per batch transaction", SIZE_BUCKETS);
+
+    private final int maxBatchSize;
+    private final long maxBatchNanos;
+    private final int queueCapacity;
+    private final long retryAfterSeconds;
+    private final SavepointDatasetGraph savepoints;
+    private final LongAdder executedTasks = new LongAdder();
+    private final LongAdder failedTasks = new LongAdder();
+    private final LongAdder rolledBackTasks = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder reexecutedTasks = new LongAdder();
+    private final Object lock = new Object();
+    // Guarded by lock
+    private final ArrayDeque<Task<?, ?>> interactive = new ArrayDeque<>();
+    private final ArrayDeque<Task<?, ?>> bulk = new ArrayDeque<>();
+    private boolean lastBatchWasBulk;
     private final Thread worker = new Thread(
             () -> {
                 while (true) {
-                    var tasks = new ArrayList<Task<?, ?>>();
+                    List<Task<?, ?>> tasks;
                     try {
-                        tasks.add(queue.take());
+                        tasks = nextBatch();
                     } catch (InterruptedException e) {
                         return;
                     }
-                    queue.drainTo(tasks);
 
-                    while (!tryExecute(tasks))
-                        ;
+                    var deadline = nanoTime() + maxBatchNanos;
+                    var deferred = new ArrayList<Task<?, ?>>();
+                    try {
+                        while (!tryExecute(tasks, deadline, deferred))
+                            ;
+                    } catch (RuntimeException e) {
+                        // E.g. interrupted by close() while waiting for the batch to be stored durably
+                        log.error("Error executing a batch of {} write jobs", tasks.size(), e);
+                        tasks.forEach(task -> task.failed(e));
+                        if (currentThread().isInterrupted()) {
+                            deferred.forEach(task -> task.failed(e));
+                            failQueued(e);
+                            return;
+                        }
+                        requeue(deferred);
+                        continue;
+                    }
 
                     tasks.forEach(Task::completed); // mark all tasks as committed
+                    requeue(deferred);
                 }
             },
             "Batch transaction processor " + threadCounter.incrementAndGet());
 
     public BulkTransactions(Dataset ds) {
+        this(ds, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_MILLIS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public BulkTransactions(Dataset ds, int maxBatchSize, long maxBatchMillis, int queueCapacity) {
         super(ds);
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchNanos = MILLISECONDS.toNanos(maxBatchMillis);
+        this.queueCapacity = queueCapacity;
+        this.retryAfterSeconds = Math.max(1, (maxBatchMillis + 999) / 1000);
+        this.savepoints = ds.asDatasetGraph() instanceof SavepointDatasetGraph s ? s : null;
+
+        METRICS.gauge("saturn_write_queue_depth", "Number of write jobs waiting for execution", this::getQueueDepth);
+        METRICS.counter("saturn_write_jobs_executed_total", "Write job executions", this::getExecutedTasks);
+        METRICS.counter("saturn_write_jobs_failed_total", "Failed write job executions", this::getFailedTasks);
+        METRICS.counter(
+                "saturn_write_jobs_rolled_back_total",
+                "Failed write jobs reverted without aborting their batch",
+                this::getRolledBackTasks);
+        METRICS.counter("saturn_write_batch_retries_total", "Aborted and restarted batches", this::getRetries);
+        METRICS.counter(
+                "saturn_write_jobs_reexecuted_total",
+                "Successful write job executions discarded by aborting their batch",
+                this::getReexecutedTasks);
 
         worker.start();
     }
 
     @Override
     public <R, E extends Exception> R calculateWrite(ThrowingFunction<? super Model, R, E> job) throws E {
+        return write(job, false);
+    }
+
+    @Override
+    public <R, E extends Exception> R calculateBulkWrite(ThrowingFunction<? super Model, R, E> job) throws E {
+        return write(job, true);
+    }
+
+    private <R, E extends Exception> R write(ThrowingFunction<? super Model, R, E> job, boolean isBulk) throws E {
         try {
             if (ds.isInTransaction()) {
                 if (ds.transactionMode() == ReadWrite.WRITE) {
@@ -59,28 +155,98 @@ public class BulkTransactions extends BaseTransactions {
                 throw new JenaTransactionException("Can't promote to a write transaction");
             }
             var currentUser = getCurrentUserStringUri().orElse(null);
-            var task = new Task<>(getCurrentRequest(), currentUser, job);
+            var task = new Task<>(getCurrentRequest(), currentUser, job, isBulk);
 
-            queue.offer(task);
+            enqueue(task);
             return task.get();
         } catch (Throwable t) {
             return sneakyThrow(t);
         }
     }
 
-    private boolean tryExecute(List<Task<?, ?>> tasks) {
+    private void enqueue(Task<?, ?> task) {
+        synchronized (lock) {
+            if (interactive.size() + bulk.size() >= queueCapacity) {
+                throw new ServiceBusyException("Too many pending write requests", retryAfterSeconds);
+            }
+            (task.isBulk ? bulk : interactive).addLast(task);
+            lock.notifyAll();
+        }
+    }
+
+    private List<Task<?, ?>> nextBatch() throws InterruptedException {
+        synchronized (lock) {
+            while (interactive.isEmpty() && bulk.isEmpty()) {
+                lock.wait();
+            }
+            lastBatchWasBulk = !bulk.isEmpty() && (interactive.isEmpty() || !lastBatchWasBulk);
+            var lane = lastBatchWasBulk ? bulk : interactive;
+            var tasks = new ArrayList<Task<?, ?>>();
+            while (!lane.isEmpty() && tasks.size() < maxBatchSize) {
+                tasks.add(lane.pollFirst());
+            }
+            BATCH_SIZE.observe(tasks.size());
+            return tasks;
+        }
+    }
+
+    /**
+     * Returns tasks which were not started because the batch ran out of time to the front of their lane.
+     */
+    private void requeue(List<Task<?, ?>> deferred) {
+        synchronized (lock) {
+            for (var i = deferred.size() - 1; i >= 0; i--) {
+                var task = deferred.get(i);
+                (task.isBulk ? bulk : interactive).addFirst(task);
+            }
+        }
+    }
+
+    /**
+     * Fails the waiting tasks, when the worker stops.
+     */
+    private void failQueued(Throwable error) {
+        synchronized (lock) {
+            interactive.forEach(task -> task.failed(error));
+            bulk.forEach(task -> task.failed(error));
+            interactive.clear();
+            bulk.clear();
+        }
+    }
+
+    private boolean tryExecute(List<Task<?, ?>> tasks, long deadline, List<Task<?, ?>> deferred) {
         if (tasks.isEmpty()) {
             return true;
         }
 
         return Txn.calculateWrite(ds, () -> {
-            for (var it = tasks.iterator(); it.hasNext(); ) {
-                var task = it.next();
+            for (var i = 0; i < tasks.size(); i++) {
+                if (i > 0 && nanoTime() > deadline) {
+                    // The batch took too long already, the remaining tasks go to the next one
+                    var remaining = tasks.subList(i, tasks.size());
+                    deferred.addAll(remaining);
+                    remaining.clear();
+                    break;
+                }
+                var task = tasks.get(i);
+                if (savepoints != null) {
+                    savepoints.savepoint();
+                }
+                executedTasks.increment();
                 if (!task.perform(ds.getDefaultModel())) {
+                    failedTasks.increment();
+                    if (rollback()) {
+                        tasks.remove(i--);
+                        task.completed(); // task failed, no need to wait for other tasks
+                        continue;
+                    }
                     ds.abort();
                 }
                 if (!ds.isInTransaction()) {
-                    it.remove();
+                    // The successful tasks of the batch are executed again in a new transaction
+                    retries.increment();
+                    reexecutedTasks.add(i);
+                    tasks.remove(i);
                     task.completed(); // task failed, no need to wait for other tasks
                     return false;
                 }
@@ -89,6 +255,63 @@ public class BulkTransactions extends BaseTransactions {
         });
     }
 
+    /**
+     * Reverts the changes of a failed task, keeping the changes of the previous tasks of the batch.
+     *
+     * @return false if the transaction has to be aborted instead
+     */
+    private boolean rollback() {
+        if (savepoints == null || !ds.isInTransaction()) {
+            return false;
+        }
+        try {
+            savepoints.rollback();
+            rolledBackTasks.increment();
+            return true;
+        } catch (Exception e) {
+            log.error("Error reverting the changes of a failed task, aborting the batch", e);
+            return false;
+        }
+    }
+
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return interactive.size() + bulk.size();
+        }
+    }
+
+    /**
+     * @return The number of task executions, including repeated ones
+     */
+    public long getExecutedTasks() {
+        return executedTasks.sum();
+    }
+
+    public long getFailedTasks() {
+        return failedTasks.sum();
+    }
+
+    /**
+     * @return The number of failed tasks whose changes were reverted without affecting the rest of their batch
+     */
+    public long getRolledBackTasks() {
+        return rolledBackTasks.sum();
+    }
+
+    /**
+     * @return The number of times a batch was aborted because of a failed task and started again
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * @return The number of successful task executions discarded by aborting their batch, i.e. wasted work
+     */
+    public long getReexecutedTasks() {
+        return reexecutedTasks.sum();
+    }
+
     private static <T extends Throwable, R> R sneakyThrow(Throwable t) throws T {
         throw (T) t;
     }
@@ -108,16 +331,25 @@ public class BulkTransactions extends BaseTransactions {
         private final Request request;
         private final String userUri;
         private final ThrowingFunction<? super Model, R, E> job;
+        private final boolean isBulk;
+        private final long enqueued = nanoTime();
+        private boolean started;
         private R result;
         private Throwable error;
 
-        Task(Request request, String userUri, ThrowingFunction<? super Model, R, E> job) {
+        Task(Request request, String userUri, ThrowingFunction<? super Model, R, E> job, boolean isBulk) {
             this.request = request;
             this.userUri = userUri;
             this.job = job;
+            this.isBulk = isBulk;
         }
 
         boolean perform(Model model) {
+            var start = nanoTime();
+            if (!started) {
+                started = true;
+                QUEUE_WAIT.observeNanos(start - enqueued);
+            }
             try {
                 setCurrentRequest(request);
                 setCurrentUserStringUri(userUri); // setting for the worker's thread
@@ -131,6 +363,7 @@ public class BulkTransactions extends BaseTransactions {
                 return false;
             } finally {
                 setCurrentRequest(null);
+                JOB_EXECUTION.observeSince(start);
             }
         }
 
@@ -139,6 +372,13 @@ public class BulkTransactions extends BaseTransactions {
             canBeRead.countDown();
         }
 
+        // The batch of the task failed, or the task was not executed
+        void failed(Throwable e) {
+            result = null;
+            error = e;
+            completed();
+        }
+
         R get() throws Throwable {
             try {
                 canBeRead.await();
@@ -0,0 +1,132 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.log4j.*;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.util.Symbol;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Keeps a dataset up to date with a transaction log written by another Saturn instance, so that the dataset
+ * can serve read requests.
+ * The number of applied transactions is saved to a position file after each commit,
+ * so a restarted follower continues where it stopped.
+ */
+@Log4j2
+public class Follower implements AutoCloseable {
+    public static final Symbol FOLLOWER = Symbol.create("follower");
+    public static final String POSITION_FILE_NAME = "follower-position";
+
+    private final DatasetGraph dsg;
+    private final LocalTransactionLog txnLog;
+    private final File positionFile;
+    private final int threads;
+    private final int commitInterval;
+    private ScheduledExecutorService scheduler;
+    private volatile long applied;
+    private volatile long available;
+    private volatile long oldestPendingTimestamp = TimestampIndex.NO_TIMESTAMP;
+
+    /**
+     * @param dsg    The dataset to apply the transactions to. It must not be changed otherwise.
+     * @param txnLog A transaction log opened with LocalTransactionLog.openReadOnly
+     */
+    public Follower(
+            DatasetGraph dsg, LocalTransactionLog txnLog, File positionFile, int threads, int commitInterval) {
+        this.dsg = dsg;
+        this.txnLog = txnLog;
+        this.positionFile = positionFile;
+        this.threads = threads;
+        this.commitInterval = commitInterval;
+        this.applied = Restore.readProgress(positionFile);
+        this.available = txnLog.size();
+    }
+
+    public static File positionFile(File datasetPath) {
+        return new File(datasetPath, POSITION_FILE_NAME);
+    }
+
+    /**
+     * Applies the transactions committed since the previous call.
+     */
+    public synchronized void poll() throws IOException {
+        available = txnLog.refresh();
+        if (available < applied) {
+            throw new IllegalStateException("The dataset contains " + applied
+                    + " transactions, but the transaction log only " + available);
+        }
+        if (available == applied) {
+            oldestPendingTimestamp = TimestampIndex.NO_TIMESTAMP;
+            return;
+        }
+        oldestPendingTimestamp = TimestampIndex.timestamp(txnLog, applied);
+
+        var catchingUp = available - applied > commitInterval;
+        if (catchingUp) {
+            log.info("Applying transactions {} to {}", applied + 1, available);
+        }
+        Restore.replay(dsg, txnLog, applied, available, positionFile, threads, commitInterval, catchingUp);
+        applied = available;
+        oldestPendingTimestamp = TimestampIndex.NO_TIMESTAMP;
+    }
+
+    /**
+     * Calls poll every pollIntervalMillis milliseconds in a background thread.
+     */
+    public synchronized void start(long pollIntervalMillis) {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("Transaction log follower")
+                    .setDaemon(true)
+                    .build());
+            scheduler.scheduleWithFixedDelay(
+                    () -> {
+                        try {
+                            poll();
+                        } catch (Exception e) {
+                            log.error("Error applying transactions from the transaction log", e);
+                        }
+                    },
+                    pollIntervalMillis,
+                    pollIntervalMillis,
+                    MILLISECONDS);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    public long getAppliedTransactions() {
+        return applied;
+    }
+
+    public long getAvailableTransactions() {
+        return available;
+    }
+
+    /**
+     * @return The number of transactions in the log which are not applied yet, as of the last poll
+     */
+    public long getLag() {
+        return Math.max(0, available - applied);
+    }
+
+    /**
+     * @return The time since the oldest transaction which is not applied yet happened, or 0 if there is none
+     */
+    public long getLagMillis() {
+        var timestamp = oldestPendingTimestamp;
+        return timestamp == TimestampIndex.NO_TIMESTAMP ? 0 : Math.max(0, System.currentTimeMillis() - timestamp);
+    }
+}
@@ -0,0 +1,129 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pivovarit.function.ThrowingRunnable;
+import lombok.extern.log4j.*;
+
+import io.fairspace.saturn.metrics.Histogram;
+
+import static io.fairspace.saturn.metrics.Metrics.LATENCY_BUCKETS;
+import static io.fairspace.saturn.metrics.Metrics.METRICS;
+
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Lets transactions committing at the same time share a single flush of the transaction log to disk.
+ * A committed transaction calls await() and doesn't return before a flush started after its call has finished,
+ * so when await() returns, the transaction's log record is stored durably.
+ * The first waiting transaction becomes the leader: it waits up to maxDelay for other transactions to join
+ * (or until maxBatch transactions are waiting), performs a single flush for all of them and wakes them up.
+ * Transactions arriving while a flush is in progress are handled by the next flush.
+ */
+@Log4j2
+public class GroupCommit {
+    private static final Histogram FLUSH = METRICS.histogram(
+            "saturn_transaction_log_flush_seconds", "Time forcing the transaction log to disk", LATENCY_BUCKETS);
+
+    private final ThrowingRunnable<IOException> flush;
+    private final long maxDelayNanos;
+    private final int maxBatch;
+
+    private long arrived;
+    private long flushed;
+    private boolean flushing;
+
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong commitCount = new AtomicLong();
+    private final AtomicLong flushNanos = new AtomicLong();
+
+    public GroupCommit(ThrowingRunnable<IOException> flush, long maxDelayMillis, int maxBatch) {
+        this.flush = flush;
+        this.maxDelayNanos = MILLISECONDS.toNanos(maxDelayMillis);
+        this.maxBatch = maxBatch;
+
+        METRICS.counter("saturn_transaction_log_flushes_total", "Transaction log flushes", this::getFlushCount);
+        METRICS.counter(
+                "saturn_transaction_log_group_commits_total",
+                "Transactions made durable by transaction log flushes",
+                this::getCommitCount);
+    }
+
+    /**
+     * Blocks until everything written to the transaction log before this call is stored durably.
+     */
+    public void await() throws IOException, InterruptedException {
+        long ticket;
+        long upTo;
+        synchronized (this) {
+            ticket = ++arrived;
+            notifyAll(); // the leader might be waiting for a full batch
+
+            while (flushing && flushed < ticket) {
+                wait();
+            }
+            if (flushed >= ticket) {
+                return;
+            }
+
+            flushing = true;
+            var deadline = nanoTime() + maxDelayNanos;
+            long remaining;
+            try {
+                while (arrived - flushed < maxBatch && (remaining = deadline - nanoTime()) > 0) {
+                    NANOSECONDS.timedWait(this, remaining);
+                }
+            } catch (InterruptedException e) {
+                // Another waiting transaction takes over
+                flushing = false;
+                notifyAll();
+                throw e;
+            }
+            upTo = arrived;
+        }
+
+        var start = nanoTime();
+        var succeeded = false;
+        try {
+            flush.run();
+            succeeded = true;
+        } finally {
+            var elapsed = nanoTime() - start;
+            synchronized (this) {
+                if (succeeded) {
+                    commitCount.addAndGet(upTo - flushed);
+                    flushed = upTo;
+                }
+                flushing = false;
+                notifyAll();
+            }
+            if (succeeded) {
+                flushCount.incrementAndGet();
+                flushNanos.addAndGet(elapsed);
+                FLUSH.observeNanos(elapsed);
+                log.debug("Flushed the transaction log in {}ms", NANOSECONDS.toMillis(elapsed));
+            }
+        }
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    public double getCommitsPerFlush() {
+        var flushes = flushCount.get();
+        return flushes == 0 ? 0 : (double) commitCount.get() / flushes;
+    }
+
+    public double getAverageFlushMillis() {
+        var flushes = flushCount.get();
+        return flushes == 0 ? 0 : (double) NANOSECONDS.toMicros(flushNanos.get()) / flushes / 1000;
+    }
+}
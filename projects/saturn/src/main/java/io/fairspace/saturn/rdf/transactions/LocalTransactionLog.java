@@ -1,11 +1,29 @@
 package io.fairspace.saturn.rdf.transactions;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.log4j.*;
 import org.apache.jena.graph.Node;
 
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
 import static java.nio.file.Files.move;
 import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
 
 /**
  * Stores transactions in the following directory structure:
@@ -27,37 +45,185 @@ import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
  *   chapter-1001
  *     tx-1000001
  *     ...
+ * If compression is enabled, completed chapters are replaced with zip archives containing the same files,
+ * e.g. volume-1/chapter-1.zip. Chapters are compressed in a background thread, so the write path
+ * of the current chapter is not affected. Records are read from an archive as soon as their chapter is compressed.
+ * <p>
+ * Each record ends with a trailer containing its length and checksum (see RecordChecksum), verified on every read.
+ * <p>
+ * A manifest file, replaced atomically every MANIFEST_INTERVAL commits and at startup, contains the number
+ * of transactions and the checksum of the last record it counts, so startup doesn't need to list the directories.
+ * Records committed after the last update of the manifest are found by probing for the following records.
+ * If the manifest is missing or doesn't match its record, the directories are listed instead. Trailing records
+ * which can't be read completely (e.g. after a crash on a file system not preserving the order of writes) are moved
+ * to the "damaged" directory. Once the log is first written to, a background thread reconciles the manifest with
+ * the directory tree: it reports records missing in the chapters written before startup and updates the manifest.
+ * <p>
+ * A log written by another process can be opened with openReadOnly and followed by calling refresh().
  */
+@Log4j2
 public class LocalTransactionLog implements TransactionLog {
     private static final int CHAPTERS_PER_VOLUME = 1000;
     private static final int RECORDS_PER_CHAPTER = 1000;
     private static final String VOLUME_PREFIX = "volume-";
     private static final String CHAPTER_PREFIX = "chapter-";
     private static final String RECORD_PREFIX = "tx-";
+    private static final String ARCHIVE_SUFFIX = ".zip";
+    private static final Pattern CHAPTER_NAME = Pattern.compile("chapter-(\\d+)(\\.zip)?");
+    private static final int OPEN_ARCHIVES = 8;
+    static final int MANIFEST_INTERVAL = 100;
     private static final String CURRENT_TRANSACTION_FILE_NAME = "current";
+    private static final String MANIFEST_FILE_NAME = "manifest";
+    private static final String DAMAGED_DIRECTORY_NAME = "damaged";
+    private static final String COUNT_PROPERTY = "count";
+    private static final String CHECKSUM_PROPERTY = "checksum";
+    private static final TransactionCodec SPARQL_CODEC = new SparqlTransactionCodec();
+    private static final TransactionCodec BINARY_CODEC = new BinaryTransactionCodec();
 
     private final File directory;
     private final TransactionCodec codec;
     private final File currentTransactionFile;
-    private long count;
+    private final File manifestFile;
+    private final boolean readOnly;
+    private volatile long count;
+    private CRC32 checksum;
+    private CountingOutputStream recordStream;
     private OutputStream outputStream;
     private TransactionListener writingListener;
+    // The number of records forced, guarded by this
+    private long forcedCount;
+    // The number of records in the manifest, guarded by this
+    private long manifestCount = -1;
+    private boolean reconciliationStarted;
+    private final ExecutorService compressor;
+    // Restore, the verifier and the followers read records of the same chapters in parallel, so the archives are
+    // kept open. An evicted archive is closed once the records being read from it are closed.
+    // Guarded by archives
+    private final Map<File, OpenArchive> archives = new LinkedHashMap<>(OPEN_ARCHIVES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, OpenArchive> eldest) {
+            if (size() > OPEN_ARCHIVES) {
+                eldest.getValue().evicted = true;
+                eldest.getValue().closeIfUnused();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * An archive kept open, with the number of its records being read. Guarded by archives.
+     */
+    private static class OpenArchive {
+        final File file;
+        final ZipFile zip;
+        int readers;
+        boolean evicted;
+
+        OpenArchive(File file) throws IOException {
+            this.file = file;
+            this.zip = new ZipFile(file);
+        }
+
+        void closeIfUnused() {
+            if (evicted && readers == 0) {
+                try {
+                    zip.close();
+                } catch (IOException e) {
+                    log.warn("Error closing {}", file, e);
+                }
+            }
+        }
+    }
 
     public LocalTransactionLog(File directory, TransactionCodec codec) {
+        this(directory, codec, false);
+    }
+
+    /**
+     * @param compressChapters Whether completed chapters should be compressed
+     */
+    public LocalTransactionLog(File directory, TransactionCodec codec, boolean compressChapters) {
+        this(directory, codec, compressChapters, false);
+    }
+
+    private LocalTransactionLog(File directory, TransactionCodec codec, boolean compressChapters, boolean readOnly) {
         this.directory = directory;
         this.codec = codec;
         this.currentTransactionFile = new File(directory, CURRENT_TRANSACTION_FILE_NAME);
+        this.manifestFile = new File(directory, MANIFEST_FILE_NAME);
+        this.readOnly = readOnly;
+
+        if (readOnly) {
+            compressor = null;
+            refresh();
+            return;
+        }
 
         directory.mkdirs();
 
-        count = numberOfFiles();
+        count = recoverCount();
+        forcedCount = count;
+
+        if (compressChapters) {
+            compressor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("Transaction log compressor")
+                    .setDaemon(true)
+                    .build());
+            // Chapters completed before compression was enabled or before a restart
+            for (var chapter = 1L; chapter <= count / RECORDS_PER_CHAPTER; chapter++) {
+                if (chapterDirectory(chapter).exists()) {
+                    scheduleCompression(chapter);
+                }
+            }
+        } else {
+            compressor = null;
+        }
+    }
+
+    /**
+     * Opens a transaction log written by another process. Neither the log nor its manifest are modified.
+     */
+    public static LocalTransactionLog openReadOnly(File directory, TransactionCodec codec) {
+        return new LocalTransactionLog(directory, codec, false, true);
+    }
+
+    /**
+     * Finds the transactions committed by another process since the previous call.
+     * Only needed for a log opened with openReadOnly.
+     *
+     * @return The number of transactions
+     */
+    public synchronized long refresh() {
+        var found = count;
+        var manifest = readManifest();
+        if (manifest != null) {
+            // The manifest is updated after the record is stored, so it never counts a missing record
+            found = Math.max(found, Long.parseLong(manifest.getProperty(COUNT_PROPERTY)));
+        } else if (found == 0 && directory.exists()) {
+            found = numberOfFiles();
+        }
+        while (exists(found)) {
+            found++;
+        }
+        count = found;
+        return found;
     }
 
     @Override
     public void onBegin() throws IOException {
+        if (readOnly) {
+            throw new IllegalStateException("Transaction log " + directory + " is opened read-only");
+        }
+        if (!reconciliationStarted) {
+            reconciliationStarted = true;
+            startReconciliation(count);
+        }
         currentTransactionFile.delete();
 
-        outputStream = new BufferedOutputStream(new FileOutputStream(currentTransactionFile));
+        checksum = new CRC32();
+        recordStream = new CountingOutputStream(new FileOutputStream(currentTransactionFile));
+        outputStream = new BufferedOutputStream(new CheckedOutputStream(recordStream, checksum));
         writingListener = codec.write(outputStream);
     }
 
@@ -79,11 +245,25 @@ public class LocalTransactionLog implements TransactionLog {
     @Override
     public void onCommit() throws IOException {
         writingListener.onCommit();
+        outputStream.flush();
+        // Written past the checked stream, so the trailer isn't part of the checksum
+        RecordChecksum.writeTrailer(recordStream, recordStream.getCount(), checksum.getValue());
         outputStream.close();
-        move(currentTransactionFile.toPath(), file(count).toPath(), ATOMIC_MOVE);
+        var file = file(count);
+        file.getParentFile().mkdirs();
+        move(currentTransactionFile.toPath(), file.toPath(), ATOMIC_MOVE);
         count++;
+        // Only a hint, startup probes for the records committed after it
+        if (count % MANIFEST_INTERVAL == 0) {
+            writeManifest(count, checksum.getValue());
+        }
         writingListener = null;
+        recordStream = null;
         outputStream = null;
+
+        if (compressor != null && count % RECORDS_PER_CHAPTER == 0) {
+            scheduleCompression(count / RECORDS_PER_CHAPTER);
+        }
     }
 
     @Override
@@ -92,6 +272,7 @@ public class LocalTransactionLog implements TransactionLog {
         outputStream.close();
         currentTransactionFile.delete();
         writingListener = null;
+        recordStream = null;
         outputStream = null;
     }
 
@@ -102,28 +283,403 @@ public class LocalTransactionLog implements TransactionLog {
 
     @Override
     public void read(long index, TransactionListener listener) throws IOException {
-        try (var in = new BufferedInputStream(new FileInputStream(file(index)))) {
-            codec.read(in, listener);
+        try (var in = new BufferedInputStream(open(index))) {
+            readingCodec(codec, in).read(in, listener);
+            // The checksum is verified at the end of the record, which a codec might not reach
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    /**
+     * Compares a memory-mapped record with its checksum. Records without a checksum and archived records are read.
+     */
+    @Override
+    public void checkRecord(long index) throws IOException {
+        var file = file(index);
+        try (var channel = FileChannel.open(file.toPath(), READ)) {
+            if (RecordChecksum.check(channel.map(READ_ONLY, 0, channel.size()), recordName(index))) {
+                return;
+            }
+        } catch (NoSuchFileException e) {
+            // The chapter might have been compressed
+        }
+        TransactionLog.super.checkRecord(index);
+    }
+
+    private InputStream open(long index) throws IOException {
+        return RecordChecksum.verifying(openFile(index), recordName(index));
+    }
+
+    private InputStream openFile(long index) throws IOException {
+        var file = file(index);
+        try {
+            return new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            // The chapter might have been compressed
+            var archive = archive(file.getParentFile());
+            if (!archive.exists()) {
+                throw e;
+            }
+            OpenArchive open;
+            synchronized (archives) {
+                open = archives.get(archive);
+                if (open == null) {
+                    open = new OpenArchive(archive);
+                    archives.put(archive, open);
+                }
+                open.readers++;
+            }
+            try {
+                var entry = open.zip.getEntry(file.getName());
+                if (entry == null) {
+                    throw new FileNotFoundException(file.getName() + " is missing in " + archive);
+                }
+                var reader = open;
+                return new FilterInputStream(open.zip.getInputStream(entry)) {
+                    private boolean closed;
+
+                    @Override
+                    public void close() throws IOException {
+                        if (!closed) {
+                            closed = true;
+                            try {
+                                super.close();
+                            } finally {
+                                release(reader);
+                            }
+                        }
+                    }
+                };
+            } catch (IOException | RuntimeException e) {
+                release(open);
+                throw e;
+            }
+        }
+    }
+
+    private void release(OpenArchive archive) {
+        synchronized (archives) {
+            archive.readers--;
+            archive.closeIfUnused();
+        }
+    }
+
+    /**
+     * Records written before switching the log format stay in their original format,
+     * so the codec is chosen per record.
+     */
+    static TransactionCodec readingCodec(TransactionCodec codec, InputStream in) throws IOException {
+        if (BinaryTransactionCodec.isBinary(in)) {
+            return codec instanceof BinaryTransactionCodec ? codec : BINARY_CODEC;
+        }
+        return codec instanceof BinaryTransactionCodec ? SPARQL_CODEC : codec;
+    }
+
+    /**
+     * Forces the transaction files written since the previous call and their directories,
+     * so that both the content and the names of the files are durable.
+     */
+    @Override
+    public void force() throws IOException {
+        long from;
+        long to;
+        synchronized (this) {
+            from = forcedCount;
+            to = count;
+            forcedCount = to;
+        }
+        var directories = new LinkedHashSet<File>();
+        for (var i = from; i < to; i++) {
+            var file = file(i);
+            var chapter = file.getParentFile();
+            directories.add(chapter.getParentFile());
+            try {
+                forceFile(file);
+                directories.add(chapter);
+            } catch (NoSuchFileException e) {
+                // The chapter has been compressed meanwhile, the compressor forces the archive before deleting it
+            }
+        }
+        directories.add(directory);
+        for (var dir : directories) {
+            try {
+                forceFile(dir);
+            } catch (NoSuchFileException e) {
+                // A chapter directory deleted by the compressor
+            }
+        }
+    }
+
+    private void scheduleCompression(long chapter) {
+        compressor.submit(() -> {
+            try {
+                compress(chapter);
+            } catch (Exception e) {
+                log.error("Error compressing chapter {} of the transaction log", chapter, e);
+            }
+        });
+    }
+
+    /**
+     * Replaces a completed chapter with an archive. The archive is forced before the original files are deleted,
+     * so after a failure either the chapter or the archive is complete.
+     */
+    private void compress(long chapter) throws IOException {
+        var chapterDirectory = chapterDirectory(chapter);
+        var files = chapterDirectory.listFiles((dir, name) -> name.startsWith(RECORD_PREFIX));
+        if (files == null || files.length == 0) {
+            return;
+        }
+        var archive = archive(chapterDirectory);
+        if (!archive.exists()) {
+            if (files.length != RECORDS_PER_CHAPTER) {
+                log.warn("Chapter {} of the transaction log is incomplete, not compressing it", chapter);
+                return;
+            }
+            var start = System.currentTimeMillis();
+            var tmp = new File(archive.getParentFile(), archive.getName() + ".tmp");
+            try (var out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                for (var file : files) {
+                    out.putNextEntry(new ZipEntry(file.getName()));
+                    Files.copy(file.toPath(), out);
+                    out.closeEntry();
+                }
+            }
+            forceFile(tmp);
+            move(tmp.toPath(), archive.toPath(), ATOMIC_MOVE);
+            forceFile(archive.getParentFile());
+            log.debug(
+                    "Compressed chapter {} of the transaction log in {}ms",
+                    chapter,
+                    System.currentTimeMillis() - start);
+        }
+        for (var file : files) {
+            file.delete();
         }
+        chapterDirectory.delete();
     }
 
-    private int numberOfFiles() {
+    private static void forceFile(File file) throws IOException {
+        try (var channel = FileChannel.open(file.toPath(), READ)) {
+            channel.force(true);
+        }
+    }
+
+    private long recoverCount() {
+        var manifestCount = -1L;
+        var manifest = readManifest();
+        if (manifest != null) {
+            manifestCount = Long.parseLong(manifest.getProperty(COUNT_PROPERTY));
+            var expectedChecksum = Long.parseLong(manifest.getProperty(CHECKSUM_PROPERTY));
+            if (manifestCount > 0 && checksum(manifestCount - 1) != expectedChecksum) {
+                log.warn("The last record of the transaction log doesn't match the manifest");
+                manifestCount = -1;
+            }
+        }
+        if (manifestCount < 0) {
+            log.info("Counting records of the transaction log in {}", directory);
+        }
+
+        var found = manifestCount >= 0 ? manifestCount : numberOfFiles();
+        // Records not covered by the manifest have no known checksum and are checked by reading them
+        var unverified = manifestCount >= 0 ? manifestCount : Math.max(0, found - 1);
+        while (exists(found)) {
+            found++;
+        }
+        for (var i = unverified; i < found; i++) {
+            if (!isComplete(i)) {
+                moveToDamaged(i, found);
+                found = i;
+                break;
+            }
+        }
+
+        if (manifest == null || found != manifestCount) {
+            writeManifest(found, found > 0 ? checksum(found - 1) : 0);
+        }
+        return found;
+    }
+
+    private Properties readManifest() {
+        if (!manifestFile.exists()) {
+            return null;
+        }
+        var manifest = new Properties();
+        try (var in = new FileInputStream(manifestFile)) {
+            manifest.load(in);
+            Long.parseLong(manifest.getProperty(COUNT_PROPERTY));
+            Long.parseLong(manifest.getProperty(CHECKSUM_PROPERTY));
+            return manifest;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot read the transaction log manifest {}", manifestFile, e);
+            return null;
+        }
+    }
+
+    private synchronized void writeManifest(long count, long lastChecksum) {
+        if (count < manifestCount) {
+            // Written by the reconciliation after a newer commit
+            return;
+        }
+        var manifest = new Properties();
+        manifest.setProperty(COUNT_PROPERTY, Long.toString(count));
+        manifest.setProperty(CHECKSUM_PROPERTY, Long.toString(lastChecksum));
+        var tmp = new File(directory, MANIFEST_FILE_NAME + ".tmp");
+        try {
+            try (var out = new FileOutputStream(tmp)) {
+                manifest.store(out, null);
+            }
+            move(tmp.toPath(), manifestFile.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+            manifestCount = count;
+        } catch (IOException e) {
+            // The manifest is only a hint, startup falls back to probing and listing the directories
+            log.error("Cannot update the transaction log manifest {}", manifestFile, e);
+        }
+    }
+
+    private long checksum(long index) {
+        var crc = new CRC32();
+        try (var in = open(index)) {
+            var buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+            }
+            return crc.getValue();
+        } catch (IOException e) {
+            log.warn("Cannot read record #{} of the transaction log", index + 1, e);
+            return -1;
+        }
+    }
+
+    private boolean isComplete(long index) {
+        try {
+            checkRecord(index);
+            return true;
+        } catch (Exception e) {
+            log.warn("Cannot read record #{} of the transaction log", index + 1, e);
+            return false;
+        }
+    }
+
+    /**
+     * Moves the records from..to-1 out of the transaction log.
+     */
+    private void moveToDamaged(long from, long to) {
+        var damaged = new File(directory, DAMAGED_DIRECTORY_NAME);
+        damaged.mkdirs();
+        for (var i = from; i < to; i++) {
+            var file = file(i);
+            log.error("Record #{} of the transaction log is incomplete, moving it to {}", i + 1, damaged);
+            try {
+                move(file.toPath(), new File(damaged, file.getName()).toPath(), REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot move " + file + " to " + damaged, e);
+            }
+        }
+    }
+
+    private void startReconciliation(long recovered) {
+        var reconciliation = new Thread(
+                () -> {
+                    try {
+                        reconcile(recovered);
+                    } catch (Exception e) {
+                        log.error("Error reconciling the transaction log in {}", directory, e);
+                    }
+                },
+                "Transaction log reconciliation");
+        reconciliation.setDaemon(true);
+        reconciliation.start();
+    }
+
+    /**
+     * Checks that none of the records found at startup are missing in the directory tree, and updates the manifest
+     * to the records committed since.
+     */
+    private void reconcile(long recovered) {
+        var start = System.currentTimeMillis();
+        var chapters = (recovered + RECORDS_PER_CHAPTER - 1) / RECORDS_PER_CHAPTER;
+        var missing = 0L;
+        for (var chapter = 1L; chapter <= chapters; chapter++) {
+            var expectedInChapter = Math.min(RECORDS_PER_CHAPTER, recovered - (chapter - 1) * RECORDS_PER_CHAPTER);
+            var chapterDirectory = chapterDirectory(chapter);
+            var archive = archive(chapterDirectory);
+            // A chapter being compressed might be in both forms
+            var actual = Math.max(
+                    childCount(chapterDirectory, RECORD_PREFIX),
+                    archive.exists() ? archivedRecordCount(archive) : 0);
+            if (actual < expectedInChapter) {
+                log.error(
+                        "Chapter {} of the transaction log contains {} records instead of {}",
+                        chapter,
+                        actual,
+                        expectedInChapter);
+                missing += expectedInChapter - actual;
+            }
+        }
+        if (missing > 0) {
+            log.error("{} records of the transaction log in {} are missing", missing, directory);
+            return;
+        }
+
+        var current = count;
+        var lastChecksum = current > 0 ? checksum(current - 1) : 0;
+        if (lastChecksum >= 0) {
+            writeManifest(current, lastChecksum);
+        }
+        log.info(
+                "Reconciled the transaction log containing {} records in {}ms",
+                current,
+                System.currentTimeMillis() - start);
+    }
+
+    private long numberOfFiles() {
         var volumeCount = childCount(directory, VOLUME_PREFIX);
         if (volumeCount == 0) {
             return 0;
         }
         var lastVolume = new File(directory, VOLUME_PREFIX + volumeCount);
-        var chapterCount = childCount(lastVolume, CHAPTER_PREFIX);
+        var chapterCount = chapterCount(lastVolume);
         if (chapterCount == 0) {
             throw new IllegalStateException("Transaction log is broken");
         }
-        var chapterNumber = (volumeCount - 1) * CHAPTERS_PER_VOLUME + chapterCount;
-        var lastChapter = new File(lastVolume, CHAPTER_PREFIX + chapterNumber);
-        var recordsInChapter = childCount(lastChapter, RECORD_PREFIX);
-        if (recordsInChapter == 0) {
+        var chapterNumber = (volumeCount - 1L) * CHAPTERS_PER_VOLUME + chapterCount;
+        var lastChapter = chapterDirectory(chapterNumber);
+        var recordsInChapter = archive(lastChapter).exists()
+                ? archivedRecordCount(archive(lastChapter))
+                : childCount(lastChapter, RECORD_PREFIX);
+        if (recordsInChapter == 0 && chapterNumber == 1) {
             throw new IllegalStateException("Transaction log is broken");
         }
-        return (volumeCount - 1) * CHAPTERS_PER_VOLUME + (chapterCount - 1) * RECORDS_PER_CHAPTER + recordsInChapter;
+        // An empty last chapter follows a complete one
+        return (chapterNumber - 1) * RECORDS_PER_CHAPTER + recordsInChapter;
+    }
+
+    /**
+     * Counts both chapter directories and archives, a chapter might have both after an interrupted compression.
+     */
+    private static int chapterCount(File volume) {
+        var names = volume.list();
+        if (names == null) {
+            return 0;
+        }
+        var chapters = new HashSet<String>();
+        for (var name : names) {
+            var matcher = CHAPTER_NAME.matcher(name);
+            if (matcher.matches()) {
+                chapters.add(matcher.group(1));
+            }
+        }
+        return chapters.size();
+    }
+
+    private static int archivedRecordCount(File archive) {
+        try (var zip = new ZipFile(archive)) {
+            return zip.size();
+        } catch (IOException e) {
+            throw new IllegalStateException("Transaction log is broken: cannot read " + archive, e);
+        }
     }
 
     private static int childCount(File parent, String prefix) {
@@ -131,12 +687,30 @@ public class LocalTransactionLog implements TransactionLog {
         return files == null ? 0 : files.length;
     }
 
+    private static String recordName(long index) {
+        return "Record #" + (index + 1) + " of the transaction log";
+    }
+
     private File file(long transactionNumber) {
-        var volumeNumber = transactionNumber / CHAPTERS_PER_VOLUME / RECORDS_PER_CHAPTER + 1;
-        var volume = new File(directory, VOLUME_PREFIX + volumeNumber);
-        var chapterNumber = transactionNumber / RECORDS_PER_CHAPTER + 1;
-        var chapter = new File(volume, CHAPTER_PREFIX + chapterNumber);
-        chapter.mkdirs();
+        var chapter = chapterDirectory(transactionNumber / RECORDS_PER_CHAPTER + 1);
         return new File(chapter, RECORD_PREFIX + (transactionNumber + 1));
     }
+
+    /**
+     * Only complete chapters are compressed, so a record exists if its file or the archive of its chapter does.
+     */
+    private boolean exists(long index) {
+        var file = file(index);
+        return file.exists() || archive(file.getParentFile()).exists();
+    }
+
+    private File chapterDirectory(long chapterNumber) {
+        var volumeNumber = (chapterNumber - 1) / CHAPTERS_PER_VOLUME + 1;
+        var volume = new File(directory, VOLUME_PREFIX + volumeNumber);
+        return new File(volume, CHAPTER_PREFIX + chapterNumber);
+    }
+
+    private static File archive(File chapterDirectory) {
+        return new File(chapterDirectory.getParentFile(), chapterDirectory.getName() + ARCHIVE_SUFFIX);
+    }
 }
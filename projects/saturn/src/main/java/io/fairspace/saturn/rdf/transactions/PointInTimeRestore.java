@@ -0,0 +1,131 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+
+import lombok.extern.log4j.*;
+import org.apache.jena.dboe.base.file.Location;
+import org.apache.jena.dboe.base.file.ProcessFileLock;
+import org.apache.jena.dboe.sys.Names;
+
+import io.fairspace.saturn.config.Config;
+
+import static io.fairspace.saturn.config.ConfigLoader.CONFIG;
+import static io.fairspace.saturn.rdf.SaturnDatasetFactory.transactionCodec;
+import static io.fairspace.saturn.rdf.SaturnDatasetFactory.transactionLog;
+import static io.fairspace.saturn.rdf.transactions.Restore.progressFile;
+
+import static org.apache.jena.tdb2.sys.DatabaseConnection.connectCreate;
+
+/**
+ * Rebuilds the dataset as it was at a given moment into a separate directory, leaving the live dataset untouched.
+ * Usage:
+ * PointInTimeRestore target-directory --timestamp 2024-01-31T12:00:00Z
+ * PointInTimeRestore target-directory --transactions 12345
+ * The first form replays the transactions which happened not later than the given time,
+ * the second one replays the given number of transactions.
+ * Timestamps are located using a TimestampIndex stored in the target directory,
+ * and the restore starts from the newest suitable snapshot (see Snapshots).
+ * A log with one file per transaction is opened read-only and can be restored from while Saturn is running,
+ * a segmented log only while Saturn is stopped.
+ * An interrupted restore continues when started again with the same target directory.
+ * The rebuilt dataset can be inspected or, while Saturn is stopped, put in place of jena.datasetPath.
+ */
+@Log4j2
+public class PointInTimeRestore {
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3 || !(args[1].equals("--timestamp") || args[1].equals("--transactions"))) {
+            System.err.println("Usage: PointInTimeRestore <target directory> "
+                    + "(--timestamp <ISO-8601 time> | --transactions <number of transactions>)");
+            System.exit(1);
+        }
+
+        var target = new File(args[0]);
+        if (CONFIG.jena.segmentedTransactionLog && isInUse(CONFIG.jena.datasetPath)) {
+            throw new IllegalStateException(
+                    "A segmented transaction log can only be restored from while Saturn is stopped");
+        }
+        var txnLog = CONFIG.jena.segmentedTransactionLog
+                ? transactionLog(CONFIG.jena)
+                : LocalTransactionLog.openReadOnly(CONFIG.jena.transactionLogPath, transactionCodec(CONFIG.jena));
+        try {
+            long transactions;
+            if (args[1].equals("--timestamp")) {
+                target.mkdirs();
+                var index = new TimestampIndex(new File(target, TimestampIndex.FILE_NAME), txnLog);
+                transactions = index.countUpTo(Instant.parse(args[2]).toEpochMilli());
+                log.info("{} transactions happened not later than {}", transactions, args[2]);
+            } else {
+                transactions = Long.parseLong(args[2]);
+            }
+            restore(txnLog, transactions, target, CONFIG.jena);
+        } finally {
+            if (txnLog instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    /**
+     * @return Whether a running Saturn holds the lock of the dataset
+     */
+    private static boolean isInUse(File datasetPath) {
+        if (!datasetPath.exists()) {
+            return false;
+        }
+        var lock = ProcessFileLock.create(new File(datasetPath, Names.TDB_LOCK_FILE).getAbsolutePath());
+        if (!lock.tryLock()) {
+            return true;
+        }
+        lock.unlock();
+        return false;
+    }
+
+    /**
+     * Replays the first transactions of the log into a new TDB2 dataset in the target directory.
+     */
+    public static void restore(TransactionLog txnLog, long transactions, File target, Config.Jena config)
+            throws IOException {
+        if (transactions < 0 || transactions > txnLog.size()) {
+            throw new IllegalArgumentException("The transaction log contains " + txnLog.size() + " transactions");
+        }
+        if (target.getCanonicalFile().equals(config.datasetPath.getCanonicalFile())) {
+            throw new IllegalArgumentException("Cannot restore into the live dataset directory " + target);
+        }
+        var existing = target.list((dir, name) -> name.startsWith("Data-"));
+        if (existing != null && existing.length > 0 && !progressFile(target).exists()) {
+            throw new IllegalStateException("Directory " + target + " already contains a dataset");
+        }
+
+        log.info("Restoring {} transactions to {}", transactions, target);
+
+        var dsg = connectCreate(Location.create(target.getAbsolutePath()), config.storeParams, null)
+                .getDatasetGraph();
+        try {
+            Restore.restore(
+                    dsg,
+                    prefix(txnLog, transactions),
+                    progressFile(target),
+                    config.restoreThreads,
+                    config.restoreCommitInterval,
+                    config.snapshotPath);
+        } finally {
+            dsg.close();
+        }
+    }
+
+    private static TransactionLog prefix(TransactionLog txnLog, long transactions) {
+        return new TransactionLog() {
+            @Override
+            public long size() {
+                return transactions;
+            }
+
+            @Override
+            public void read(long index, TransactionListener listener) throws IOException {
+                txnLog.read(index, listener);
+            }
+        };
+    }
+}
@@ -0,0 +1,145 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * A trailer appended to a record of LocalTransactionLog, so that a corrupted or truncated record can be detected
+ * without decoding it. The trailer consists of the length of the record (8 bytes), the CRC32 checksum
+ * of the record (4 bytes) and a magic number (4 bytes).
+ * Records written before checksums were introduced have no trailer and are still accepted.
+ */
+class RecordChecksum {
+    static final int TRAILER_SIZE = Long.BYTES + Integer.BYTES + Integer.BYTES;
+    private static final int MAGIC = 0x54584352; // "TXCR"
+
+    private RecordChecksum() {}
+
+    static void writeTrailer(OutputStream out, long length, long checksum) throws IOException {
+        out.write(ByteBuffer.allocate(TRAILER_SIZE)
+                .putLong(length)
+                .putInt((int) checksum)
+                .putInt(MAGIC)
+                .array());
+    }
+
+    /**
+     * Checks a complete record, e.g. a memory-mapped file.
+     *
+     * @return true if the record has a matching trailer, false if it has no trailer
+     * @throws IOException if the trailer doesn't match the record
+     */
+    static boolean check(ByteBuffer record, String name) throws IOException {
+        var size = record.remaining();
+        if (size < TRAILER_SIZE || record.getInt(record.position() + size - Integer.BYTES) != MAGIC) {
+            return false;
+        }
+        var trailer = record.position() + size - TRAILER_SIZE;
+        var length = record.getLong(trailer);
+        var crc = new CRC32();
+        crc.update(record.duplicate().limit(trailer));
+        if (length != size - TRAILER_SIZE || (int) crc.getValue() != record.getInt(trailer + Long.BYTES)) {
+            throw new IOException(name + " is corrupted");
+        }
+        return true;
+    }
+
+    /**
+     * @return A stream returning the record without its trailer.
+     * When the end of the record is reached, the checksum is verified and an IOException is thrown on mismatch.
+     */
+    static InputStream verifying(InputStream in, String name) {
+        return new VerifyingInputStream(in, name);
+    }
+
+    /**
+     * Holds back the last TRAILER_SIZE bytes read, as they might turn out to be the trailer.
+     */
+    private static class VerifyingInputStream extends InputStream {
+        private final InputStream in;
+        private final String name;
+        private final byte[] buffer = new byte[8192 + TRAILER_SIZE];
+        private final CRC32 crc = new CRC32();
+        private long length;
+        private int start;
+        private int end;
+        private boolean eof;
+
+        VerifyingInputStream(InputStream in, String name) {
+            this.in = in;
+            this.name = name;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            fill();
+            var available = eof ? end - start : end - start - TRAILER_SIZE;
+            if (available <= 0) {
+                return -1;
+            }
+            var n = Math.min(len, available);
+            System.arraycopy(buffer, start, b, off, n);
+            if (!eof) {
+                crc.update(buffer, start, n);
+                length += n;
+            }
+            start += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        /**
+         * Reads until more than TRAILER_SIZE bytes are buffered or the end of the stream is reached.
+         */
+        private void fill() throws IOException {
+            while (!eof && end - start <= TRAILER_SIZE) {
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                }
+                var n = in.read(buffer, end, buffer.length - end);
+                if (n < 0) {
+                    eof = true;
+                    checkTrailer();
+                } else {
+                    end += n;
+                }
+            }
+        }
+
+        private void checkTrailer() throws IOException {
+            var remaining = end - start;
+            if (remaining < TRAILER_SIZE) {
+                return;
+            }
+            var trailer = ByteBuffer.wrap(buffer, end - TRAILER_SIZE, TRAILER_SIZE);
+            var expectedLength = trailer.getLong();
+            var expectedChecksum = trailer.getInt();
+            if (trailer.getInt() != MAGIC) {
+                return;
+            }
+            crc.update(buffer, start, remaining - TRAILER_SIZE);
+            if (expectedLength != length + remaining - TRAILER_SIZE || expectedChecksum != (int) crc.getValue()) {
+                throw new IOException(name + " is corrupted");
+            }
+            end -= TRAILER_SIZE;
+        }
+    }
+}
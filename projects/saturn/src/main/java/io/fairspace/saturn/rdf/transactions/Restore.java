@@ -1,52 +1,266 @@
 package io.fairspace.saturn.rdf.transactions;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.extern.log4j.*;
 import org.apache.jena.graph.Node;
 import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
 import org.apache.jena.system.Txn;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Replays the transaction log.
+ * Records are read and decoded ahead by a pool of threads, while the calling thread applies the decoded
+ * transactions in their original order.
+ * Changes are committed every commitInterval transactions. After each commit, the number of applied transactions
+ * is saved to a progress file, so that an interrupted restore can continue where it stopped.
+ * Replaying transactions which were already applied is harmless: the presence of every quad is determined
+ * by the last change to it, so the transactions applied after the last saved progress can be applied again.
+ * If a snapshot directory is provided, a fresh restore starts by loading the newest snapshot (see Snapshots)
+ * and only replays the transactions after it.
+ */
 @Log4j2
 public class Restore {
+    public static final String PROGRESS_FILE_NAME = "restore-progress";
+    private static final int READ_AHEAD_PER_THREAD = 16;
+    private static final long PROGRESS_REPORT_INTERVAL_MILLIS = 10_000;
+
     public static void restore(DatasetGraph dsg, TransactionLog txnLog) {
+        restore(dsg, txnLog, null, 1, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * @param progressFile      A file to save progress to, or null if the restore can't be resumed
+     * @param threads           Number of threads reading and decoding transactions
+     * @param commitInterval    Number of transactions to apply in a single write transaction
+     * @param snapshotDirectory A directory containing snapshots, or null if the whole log should be replayed
+     */
+    public static void restore(
+            DatasetGraph dsg,
+            TransactionLog txnLog,
+            File progressFile,
+            int threads,
+            int commitInterval,
+            File snapshotDirectory) {
         var logSize = txnLog.size();
+        var start = readProgress(progressFile);
+
+        if (start == 0 && snapshotDirectory != null) {
+            // A snapshot tagged as covering N transactions might contain the changes of transaction N + 1 as well
+            var snapshot = Snapshots.latest(snapshotDirectory, logSize - 1);
+            if (snapshot.isPresent()) {
+                log.warn("Restoring from snapshot {}", snapshot.get());
+                // Marks the restore as started, loading the snapshot again after a failure is harmless
+                saveProgress(progressFile, 0);
+                try {
+                    Snapshots.load(snapshot.get(), dsg);
+                } catch (IOException e) {
+                    throw new RuntimeException("Error loading snapshot " + snapshot.get(), e);
+                }
+                start = Snapshots.covered(snapshot.get());
+                saveProgress(progressFile, start);
+            }
+        }
 
-        if (logSize == 0) {
+        if (start >= logSize) {
+            deleteProgress(progressFile);
             return;
         }
 
-        log.warn(
-                "Your metadata database is gone. Restoring from the transaction log containing {} transactions",
-                logSize);
+        if (start > 0) {
+            log.warn("Resuming an interrupted restore from transaction #{} of {}", start + 1, logSize);
+        } else {
+            log.warn(
+                    "Your metadata database is gone. Restoring from the transaction log containing {} transactions",
+                    logSize);
+        }
+        // Marks the restore as started, even if it fails before the first commit
+        saveProgress(progressFile, start);
 
-        Txn.executeWrite(dsg, () -> {
-            var prevProgress = -1L;
-            for (var i = 0; i < logSize; i++) {
-                var progress = (100 * i) / logSize;
-                if (progress > prevProgress) {
-                    log.info("Progress: {}%", progress);
-                    prevProgress = progress;
-                }
-                try {
-                    txnLog.read(i, new TransactionListener() {
-                        @Override
-                        public void onAdd(Node graph, Node subject, Node predicate, Node object) {
-                            dsg.add(graph, subject, predicate, object);
-                        }
+        replay(dsg, txnLog, start, logSize, progressFile, threads, commitInterval, true);
 
-                        @Override
-                        public void onDelete(Node graph, Node subject, Node predicate, Node object) {
-                            dsg.delete(graph, subject, predicate, object);
+        deleteProgress(progressFile);
+        log.warn("Restore is finished.");
+    }
+
+    /**
+     * Applies transactions start..end-1, saving the number of applied transactions to progressFile after each commit.
+     */
+    static void replay(
+            DatasetGraph dsg,
+            TransactionLog txnLog,
+            long start,
+            long end,
+            File progressFile,
+            int threads,
+            int commitInterval,
+            boolean reportProgress) {
+        var executor = Executors.newFixedThreadPool(
+                threads,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("Restore decoder %d")
+                        .setDaemon(true)
+                        .build());
+        try {
+            var pending = new ArrayDeque<Future<Delta>>();
+            var next = start;
+            var progress = reportProgress ? new Progress(start, end) : null;
+
+            for (var chunkStart = start; chunkStart < end; chunkStart += commitInterval) {
+                var chunkEnd = Math.min(end, chunkStart + (long) commitInterval);
+                var from = chunkStart;
+                var scheduled = next;
+                next = Txn.calculateWrite(dsg, () -> {
+                    var toSchedule = scheduled;
+                    for (var i = from; i < chunkEnd; i++) {
+                        while (toSchedule < end && pending.size() < threads * READ_AHEAD_PER_THREAD) {
+                            var index = toSchedule++;
+                            pending.add(executor.submit(() -> decode(txnLog, index)));
                         }
-                    });
-                } catch (Exception e) {
-                    log.error("Error applying transaction #" + (i + 1), e);
-                    throw new RuntimeException(e);
+                        take(pending.remove(), i).applyTo(dsg);
+                        if (progress != null) {
+                            progress.report(i + 1);
+                        }
+                    }
+                    if (progress != null) {
+                        log.info("Committing changes");
+                    }
+                    return toSchedule;
+                });
+                saveProgress(progressFile, chunkEnd);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public static File progressFile(File datasetPath) {
+        return new File(datasetPath, PROGRESS_FILE_NAME);
+    }
+
+    private static Delta decode(TransactionLog txnLog, long index) throws IOException {
+        var delta = new Delta();
+        txnLog.read(index, delta);
+        return delta;
+    }
+
+    private static Delta take(Future<Delta> future, long index) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            log.error("Error applying transaction #" + (index + 1), e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    static long readProgress(File progressFile) {
+        if (progressFile == null || !progressFile.exists()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(Files.readString(progressFile.toPath(), UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            throw new RuntimeException("Cannot read restore progress from " + progressFile, e);
+        }
+    }
+
+    private static void saveProgress(File progressFile, long appliedTransactions) {
+        if (progressFile == null) {
+            return;
+        }
+        progressFile.getParentFile().mkdirs();
+        var tmp = new File(progressFile.getParentFile(), progressFile.getName() + ".tmp");
+        try {
+            Files.writeString(tmp.toPath(), Long.toString(appliedTransactions), UTF_8);
+            Files.move(tmp.toPath(), progressFile.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot save restore progress to " + progressFile, e);
+        }
+    }
+
+    private static void deleteProgress(File progressFile) {
+        if (progressFile != null) {
+            progressFile.delete();
+        }
+    }
+
+    /**
+     * Changes of a single transaction in their original order.
+     */
+    private static class Delta implements TransactionListener {
+        private final List<Quad> quads = new ArrayList<>();
+        private final BitSet deletions = new BitSet();
+
+        @Override
+        public void onAdd(Node graph, Node subject, Node predicate, Node object) {
+            quads.add(new Quad(graph, subject, predicate, object));
+        }
+
+        @Override
+        public void onDelete(Node graph, Node subject, Node predicate, Node object) {
+            deletions.set(quads.size());
+            quads.add(new Quad(graph, subject, predicate, object));
+        }
+
+        void applyTo(DatasetGraph dsg) {
+            for (var i = 0; i < quads.size(); i++) {
+                if (deletions.get(i)) {
+                    dsg.delete(quads.get(i));
+                } else {
+                    dsg.add(quads.get(i));
                 }
             }
-            log.info("Progress: 100%");
-            log.info("Committing changes");
-        });
+        }
+    }
+
+    private static class Progress {
+        private final long start;
+        private final long total;
+        private final long startTime = System.currentTimeMillis();
+        private long lastPercentage = -1;
+        private long lastReportTime = startTime;
+
+        Progress(long start, long total) {
+            this.start = start;
+            this.total = total;
+        }
+
+        void report(long applied) {
+            var percentage = (100 * applied) / total;
+            var now = System.currentTimeMillis();
+            if (percentage == lastPercentage && now - lastReportTime < PROGRESS_REPORT_INTERVAL_MILLIS) {
+                return;
+            }
+            lastPercentage = percentage;
+            lastReportTime = now;
 
-        log.warn("Restore is finished.");
+            var elapsed = Math.max(1, now - startTime);
+            var rate = (applied - start) * 1000.0 / elapsed;
+            var etaSeconds = rate > 0 ? (long) ((total - applied) / rate) : -1;
+            log.info(
+                    "Progress: {}% ({} of {} transactions, {} transactions/s, ETA {}s)",
+                    percentage,
+                    applied,
+                    total,
+                    Math.round(rate),
+                    etaSeconds);
+        }
     }
 }
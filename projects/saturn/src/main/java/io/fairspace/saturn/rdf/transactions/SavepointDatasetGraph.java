@@ -0,0 +1,107 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.QuadAction;
+
+import io.fairspace.saturn.rdf.AbstractChangesAwareDatasetGraph;
+
+/**
+ * Lets a part of a write transaction be undone without aborting the whole transaction.
+ * After savepoint() is called, the changes are recorded, and rollback() reverts them in reverse order.
+ * Only effective changes are reported to the monitor, so reverting them restores the exact state
+ * of the savepoint. The reverting changes pass through the wrapped dataset graphs like any other change.
+ * Used by BulkTransactions to drop the changes of a failed job without re-executing the other jobs of its batch.
+ */
+public class SavepointDatasetGraph extends AbstractChangesAwareDatasetGraph {
+    private final DatasetGraph dsg;
+    // Only accessed by the thread holding the write transaction
+    private final List<Quad> changes = new ArrayList<>();
+    private final BitSet deletions = new BitSet();
+    private boolean recording;
+
+    public SavepointDatasetGraph(DatasetGraph dsg) {
+        super(dsg);
+        this.dsg = dsg;
+    }
+
+    public DatasetGraph getDatasetGraph() {
+        return dsg;
+    }
+
+    @Override
+    protected void onChange(QuadAction action, Node graph, Node subject, Node predicate, Node object) {
+        if (recording) {
+            switch (action) {
+                case ADD -> changes.add(new Quad(graph, subject, predicate, object));
+                case DELETE -> {
+                    deletions.set(changes.size());
+                    changes.add(new Quad(graph, subject, predicate, object));
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the current state of the write transaction. Replaces the previous savepoint.
+     */
+    public void savepoint() {
+        clear();
+        recording = true;
+    }
+
+    /**
+     * Reverts the changes made since the last savepoint. The savepoint stays in place.
+     */
+    public void rollback() {
+        if (!recording) {
+            throw new IllegalStateException("No savepoint");
+        }
+        recording = false;
+        try {
+            for (var i = changes.size() - 1; i >= 0; i--) {
+                if (deletions.get(i)) {
+                    add(changes.get(i));
+                } else {
+                    delete(changes.get(i));
+                }
+            }
+        } finally {
+            clear();
+            recording = true;
+        }
+    }
+
+    @Override
+    public void commit() {
+        release();
+        super.commit();
+    }
+
+    @Override
+    public void abort() {
+        release();
+        super.abort();
+    }
+
+    @Override
+    public void end() {
+        release();
+        super.end();
+    }
+
+    private void release() {
+        recording = false;
+        clear();
+    }
+
+    private void clear() {
+        changes.clear();
+        deletions.clear();
+    }
+}
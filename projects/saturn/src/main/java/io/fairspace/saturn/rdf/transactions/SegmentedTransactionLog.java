@@ -0,0 +1,302 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import lombok.Value;
+import org.apache.jena.graph.Node;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Stores transactions in large append-only segment files instead of one file per transaction:
+ * segment-1
+ * segment-2
+ * ...
+ * index
+ * Transactions are appended to the last segment, a new segment is started as soon as the last one
+ * reaches the segment size. Segments are preallocated to the segment size.
+ * The index file contains a fixed-size entry per committed transaction
+ * (segment number, offset, length and CRC32 checksum of the record),
+ * so the number of transactions is known from the size of the index and
+ * any transaction can be located with a single positional read and then read with another one.
+ * Bytes of aborted transactions are left behind the last indexed record and are overwritten by the next one.
+ */
+public class SegmentedTransactionLog implements TransactionLog, AutoCloseable {
+    static final String SEGMENT_PREFIX = "segment-";
+    static final String INDEX_FILE_NAME = "index";
+    private static final int ENTRY_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES + Integer.BYTES;
+
+    private final File directory;
+    private final TransactionCodec codec;
+    private final long segmentSize;
+    private final FileChannel index;
+    private final Map<Integer, FileChannel> readChannels = new HashMap<>();
+    private final Object segmentLock = new Object();
+    private volatile long count;
+    private int segment;
+    private long position;
+    private FileChannel segmentChannel;
+    private CRC32 checksum;
+    private OutputStream outputStream;
+    private TransactionListener writingListener;
+
+    public SegmentedTransactionLog(File directory, TransactionCodec codec, long segmentSize) throws IOException {
+        this.directory = directory;
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+
+        directory.mkdirs();
+
+        if (new File(directory, "volume-1").exists()) {
+            throw new IllegalStateException("Directory " + directory
+                    + " contains a transaction log with one file per transaction. "
+                    + "Convert it with " + TransactionLogMigration.class.getName() + " first.");
+        }
+
+        index = FileChannel.open(new File(directory, INDEX_FILE_NAME).toPath(), CREATE, READ, WRITE);
+        count = index.size() / ENTRY_SIZE;
+        index.truncate(count * ENTRY_SIZE); // drops a partially written entry
+
+        if (count > 0) {
+            var last = entry(count - 1);
+            segment = last.segment;
+            position = last.offset + last.length;
+        } else {
+            segment = 1;
+            position = 0;
+        }
+        segmentChannel = openSegment(segment);
+    }
+
+    @Override
+    public void onBegin() throws IOException {
+        if (position >= segmentSize) {
+            synchronized (segmentLock) {
+                // The last records of the segment might not be forced yet
+                segmentChannel.force(false);
+                segmentChannel.close();
+                segment++;
+                position = 0;
+                segmentChannel = openSegment(segment);
+            }
+        }
+
+        segmentChannel.position(position);
+        checksum = new CRC32();
+        // Channels.newOutputStream closes the channel when closed, so the stream is only flushed
+        outputStream = new BufferedOutputStream(
+                new CheckedOutputStream(Channels.newOutputStream(segmentChannel), checksum));
+        writingListener = codec.write(outputStream);
+    }
+
+    @Override
+    public void onMetadata(String userId, String userName, long timestamp) throws IOException {
+        writingListener.onMetadata(userId, userName, timestamp);
+    }
+
+    @Override
+    public void onAdd(Node graph, Node subject, Node predicate, Node object) throws IOException {
+        writingListener.onAdd(graph, subject, predicate, object);
+    }
+
+    @Override
+    public void onDelete(Node graph, Node subject, Node predicate, Node object) throws IOException {
+        writingListener.onDelete(graph, subject, predicate, object);
+    }
+
+    @Override
+    public void onCommit() throws IOException {
+        writingListener.onCommit();
+        outputStream.flush();
+        var length = Math.toIntExact(segmentChannel.position() - position);
+        writeEntry(count, new Entry(segment, position, length, (int) checksum.getValue()));
+        position += length;
+        count++;
+        writingListener = null;
+        outputStream = null;
+    }
+
+    @Override
+    public void onAbort() throws IOException {
+        writingListener.onAbort();
+        outputStream.flush();
+        writingListener = null;
+        outputStream = null;
+    }
+
+    @Override
+    public long size() {
+        return count;
+    }
+
+    @Override
+    public void read(long index, TransactionListener listener) throws IOException {
+        var in = new ByteBufferInputStream(record(index));
+        LocalTransactionLog.readingCodec(codec, in).read(in, listener);
+    }
+
+    /**
+     * Compares the record with the checksum in the index, without decoding it.
+     */
+    @Override
+    public void checkRecord(long index) throws IOException {
+        record(index);
+    }
+
+    /**
+     * Forces the current segment before the index, so that an index entry never points to unwritten data.
+     */
+    @Override
+    public void force() throws IOException {
+        synchronized (segmentLock) {
+            segmentChannel.force(false);
+        }
+        index.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (var channel : readChannels.values()) {
+            channel.close();
+        }
+        readChannels.clear();
+        segmentChannel.close();
+        index.close();
+    }
+
+    private ByteBuffer record(long index) throws IOException {
+        if (index < 0 || index >= count) {
+            throw new IllegalArgumentException("No transaction #" + (index + 1) + " in the transaction log");
+        }
+        var entry = entry(index);
+        var channel = readChannel(entry.segment);
+        if (entry.offset + entry.length > channel.size()) {
+            throw new IOException("Transaction #" + (index + 1) + " is truncated");
+        }
+        // A heap buffer rather than a mapping per record, which would only be released by the garbage collector
+        var buffer = ByteBuffer.allocate(entry.length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, entry.offset + buffer.position()) < 0) {
+                throw new IOException("Transaction #" + (index + 1) + " is truncated");
+            }
+        }
+        buffer.flip();
+
+        var crc = new CRC32();
+        crc.update(buffer.duplicate());
+        if ((int) crc.getValue() != entry.checksum) {
+            throw new IOException("Transaction #" + (index + 1) + " is corrupted");
+        }
+        return buffer;
+    }
+
+    private FileChannel openSegment(int number) throws IOException {
+        var channel = FileChannel.open(segmentFile(number).toPath(), CREATE, READ, WRITE);
+        if (channel.size() < segmentSize) {
+            // Extends the file to the segment size up front, so appending doesn't have to grow it
+            channel.write(ByteBuffer.allocate(1), segmentSize - 1);
+        }
+        return channel;
+    }
+
+    private synchronized FileChannel readChannel(int number) throws IOException {
+        var channel = readChannels.get(number);
+        if (channel == null) {
+            channel = FileChannel.open(segmentFile(number).toPath(), READ);
+            readChannels.put(number, channel);
+        }
+        return channel;
+    }
+
+    private File segmentFile(int number) {
+        return new File(directory, SEGMENT_PREFIX + number);
+    }
+
+    private Entry entry(long transactionNumber) throws IOException {
+        var buffer = ByteBuffer.allocate(ENTRY_SIZE);
+        var offset = transactionNumber * ENTRY_SIZE;
+        while (buffer.hasRemaining()) {
+            if (index.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Transaction log index is truncated");
+            }
+        }
+        buffer.flip();
+        return new Entry(buffer.getInt(), buffer.getLong(), buffer.getInt(), buffer.getInt());
+    }
+
+    private void writeEntry(long transactionNumber, Entry entry) throws IOException {
+        var buffer = ByteBuffer.allocate(ENTRY_SIZE)
+                .putInt(entry.segment)
+                .putLong(entry.offset)
+                .putInt(entry.length)
+                .putInt(entry.checksum)
+                .flip();
+        var offset = transactionNumber * ENTRY_SIZE;
+        while (buffer.hasRemaining()) {
+            index.write(buffer, offset + buffer.position());
+        }
+    }
+
+    @Value
+    private static class Entry {
+        int segment;
+        long offset;
+        int length;
+        int checksum;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            var n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.reset();
+        }
+    }
+}
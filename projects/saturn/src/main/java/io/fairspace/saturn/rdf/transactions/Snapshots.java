@@ -0,0 +1,182 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.pivovarit.function.ThrowingRunnable;
+import lombok.extern.log4j.*;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.util.Symbol;
+import org.apache.jena.system.Txn;
+
+import static io.fairspace.saturn.rdf.transactions.AsyncViewIndexer.OUTBOX;
+
+import static java.nio.file.Files.move;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.concurrent.TimeUnit.HOURS;
+
+/**
+ * Snapshots of the dataset, each tagged with the number of transaction log records it covers:
+ * snapshot-1000.gz
+ * snapshot-25000.gz
+ * A snapshot is a gzipped record in the binary transaction format adding all quads of the dataset.
+ * A restore can load the newest snapshot and replay only the transactions after it (see Restore).
+ * <p>
+ * The outbox of the view indexer (see AsyncViewIndexer) is stored in the dataset, but isn't logged: its entries
+ * describe the view database of this instance rather than the data. Snapshots leave it out, like the log does,
+ * and loading one skips the outbox entries of snapshots taken before.
+ */
+@Log4j2
+public class Snapshots {
+    public static final Symbol SNAPSHOTS = Symbol.create("snapshots");
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".gz";
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("snapshot-(\\d+)\\.gz");
+    private static final TransactionCodec CODEC = new BinaryTransactionCodec();
+
+    private final File directory;
+    private final int retention;
+    private final DatasetGraph dsg;
+    private final TransactionLog txnLog;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param retention Number of snapshots to keep
+     */
+    public Snapshots(File directory, int retention, DatasetGraph dsg, TransactionLog txnLog) {
+        this.directory = directory;
+        this.retention = retention;
+        this.dsg = dsg;
+        this.txnLog = txnLog;
+    }
+
+    /**
+     * Takes a snapshot in a read transaction, so writes can continue meanwhile.
+     */
+    public synchronized File create() throws IOException {
+        log.info("Creating a snapshot");
+        var start = System.currentTimeMillis();
+
+        directory.mkdirs();
+        var tmp = new File(directory, SNAPSHOT_PREFIX + "tmp");
+        // Counted before the read transaction starts, so that the snapshot contains all covered transactions.
+        // The write transaction committing right now may already be logged while not being visible yet,
+        // so the snapshot is tagged as covering one transaction less.
+        // Replaying a transaction which is already part of a snapshot is harmless.
+        var covered = Math.max(0, txnLog.size() - 1);
+        try (var out = new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp)))) {
+            var writer = CODEC.write(out);
+            Txn.executeRead(dsg, ThrowingRunnable.sneaky(() -> {
+                for (var it = dsg.find(); it.hasNext(); ) {
+                    var quad = it.next();
+                    if (!OUTBOX.equals(quad.getGraph())) {
+                        writer.onAdd(quad.getGraph(), quad.getSubject(), quad.getPredicate(), quad.getObject());
+                    }
+                }
+            }));
+            writer.onCommit();
+        }
+        var file = file(covered);
+        move(tmp.toPath(), file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+
+        log.info(
+                "Snapshot {} covering {} transactions created in {}ms",
+                file.getName(),
+                covered,
+                System.currentTimeMillis() - start);
+
+        removeOldSnapshots();
+        return file;
+    }
+
+    /**
+     * Takes a snapshot every intervalHours hours in a background thread.
+     */
+    public synchronized void schedule(long intervalHours) {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("Snapshot scheduler")
+                    .setDaemon(true)
+                    .build());
+            scheduler.scheduleWithFixedDelay(
+                    () -> {
+                        try {
+                            create();
+                        } catch (Exception e) {
+                            log.error("Error creating a scheduled snapshot", e);
+                        }
+                    },
+                    intervalHours,
+                    intervalHours,
+                    HOURS);
+        }
+    }
+
+    /**
+     * @return The newest snapshot covering not more than maxCovered transactions
+     */
+    public static Optional<File> latest(File directory, long maxCovered) {
+        return snapshots(directory)
+                .filter(file -> covered(file) <= maxCovered)
+                .max(Comparator.comparingLong(Snapshots::covered))
+                .map(File::getAbsoluteFile);
+    }
+
+    /**
+     * @return The number of transaction log records covered by the snapshot
+     */
+    public static long covered(File snapshot) {
+        var matcher = SNAPSHOT_NAME.matcher(snapshot.getName());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Not a snapshot: " + snapshot);
+        }
+        return Long.parseLong(matcher.group(1));
+    }
+
+    /**
+     * Adds all quads of the snapshot to dsg in a single write transaction.
+     */
+    public static void load(File snapshot, DatasetGraph dsg) throws IOException {
+        try (var in = new BufferedInputStream(new GZIPInputStream(new FileInputStream(snapshot)))) {
+            Txn.executeWrite(dsg, ThrowingRunnable.sneaky(() -> CODEC.read(in, new TransactionListener() {
+                @Override
+                public void onAdd(Node graph, Node subject, Node predicate, Node object) {
+                    if (!OUTBOX.equals(graph)) {
+                        dsg.add(graph, subject, predicate, object);
+                    }
+                }
+            })));
+        }
+    }
+
+    private void removeOldSnapshots() {
+        snapshots(directory)
+                .sorted(Comparator.comparingLong(Snapshots::covered).reversed())
+                .skip(retention)
+                .forEach(file -> {
+                    log.info("Removing old snapshot {}", file.getName());
+                    file.delete();
+                });
+    }
+
+    private static Stream<File> snapshots(File directory) {
+        var files = directory.listFiles((dir, name) -> SNAPSHOT_NAME.matcher(name).matches());
+        return files == null ? Stream.empty() : Arrays.stream(files);
+    }
+
+    private File file(long covered) {
+        return new File(directory, SNAPSHOT_PREFIX + covered + SNAPSHOT_SUFFIX);
+    }
+}
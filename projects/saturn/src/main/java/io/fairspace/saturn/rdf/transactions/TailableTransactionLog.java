@@ -0,0 +1,93 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.IOException;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.util.Symbol;
+
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Wraps a transaction log and lets readers wait for new transactions, so that they can follow the log.
+ */
+public class TailableTransactionLog implements TransactionLog {
+    public static final Symbol TRANSACTION_LOG = Symbol.create("transaction_log");
+
+    private final TransactionLog txnLog;
+
+    public TailableTransactionLog(TransactionLog txnLog) {
+        this.txnLog = txnLog;
+    }
+
+    @Override
+    public void onBegin() throws IOException {
+        txnLog.onBegin();
+    }
+
+    @Override
+    public void onMetadata(String userId, String userName, long timestamp) throws IOException {
+        txnLog.onMetadata(userId, userName, timestamp);
+    }
+
+    @Override
+    public void onAdd(Node graph, Node subject, Node predicate, Node object) throws IOException {
+        txnLog.onAdd(graph, subject, predicate, object);
+    }
+
+    @Override
+    public void onDelete(Node graph, Node subject, Node predicate, Node object) throws IOException {
+        txnLog.onDelete(graph, subject, predicate, object);
+    }
+
+    @Override
+    public void onCommit() throws IOException {
+        txnLog.onCommit();
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void onAbort() throws IOException {
+        txnLog.onAbort();
+    }
+
+    @Override
+    public long size() {
+        return txnLog.size();
+    }
+
+    @Override
+    public void read(long index, TransactionListener listener) throws IOException {
+        txnLog.read(index, listener);
+    }
+
+    @Override
+    public void force() throws IOException {
+        txnLog.force();
+    }
+
+    @Override
+    public void checkRecord(long index) throws IOException {
+        txnLog.checkRecord(index);
+    }
+
+    /**
+     * Waits until the log contains more than index transactions or the timeout expires.
+     *
+     * @return true if transaction #index is available
+     */
+    public synchronized boolean await(long index, long timeoutMillis) throws InterruptedException {
+        var deadline = nanoTime() + MILLISECONDS.toNanos(timeoutMillis);
+        long remaining;
+        while (size() <= index) {
+            if ((remaining = deadline - nanoTime()) <= 0) {
+                return false;
+            }
+            NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,162 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import lombok.extern.log4j.*;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Maps timestamps to positions in the transaction log.
+ * The log is divided into chapters of CHAPTER_SIZE transactions and the index stores the timestamp of the first
+ * transaction of every chapter, as a sequence of 8-byte values in a file.
+ * Transactions are logged one at a time, so their timestamps don't decrease and a timestamp can be located by
+ * a binary search over the chapters followed by a scan of a single chapter.
+ * The index is extended on demand, which takes reading a single record per new chapter.
+ * The timestamp of a transaction is the timestamp of its first metadata event,
+ * transactions without metadata are considered to have happened at the same time as the previous one.
+ */
+@Log4j2
+public class TimestampIndex {
+    public static final String FILE_NAME = "timestamps";
+    public static final int CHAPTER_SIZE = 1000;
+
+    static final long NO_TIMESTAMP = -1;
+
+    private final File file;
+    private final TransactionLog txnLog;
+    private final List<Long> timestamps = new ArrayList<>();
+
+    public TimestampIndex(File file, TransactionLog txnLog) throws IOException {
+        this.file = file;
+        this.txnLog = txnLog;
+
+        if (file.exists()) {
+            try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                // A partially written last entry is ignored and overwritten
+                for (var i = 0L; i < file.length() / Long.BYTES; i++) {
+                    timestamps.add(in.readLong());
+                }
+            }
+            if (timestamps.size() > chapters(txnLog.size())) {
+                log.warn("Timestamp index {} doesn't match the transaction log, rebuilding it", file);
+                timestamps.clear();
+                save();
+            } else if (file.length() % Long.BYTES != 0) {
+                save();
+            }
+        }
+    }
+
+    /**
+     * Adds the chapters started since the previous call to the index.
+     */
+    public synchronized void update() throws IOException {
+        var chapters = chapters(txnLog.size());
+        if (timestamps.size() == chapters) {
+            return;
+        }
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            while (timestamps.size() < chapters) {
+                var chapter = timestamps.size();
+                var timestamp = firstTimestamp(chapter);
+                if (timestamp == NO_TIMESTAMP) {
+                    timestamp = chapter == 0 ? 0 : timestamps.get(chapter - 1);
+                }
+                out.writeLong(timestamp);
+                timestamps.add(timestamp);
+            }
+        }
+    }
+
+    /**
+     * @return The number of transactions which happened not later than timestamp (milliseconds since the epoch)
+     */
+    public synchronized long countUpTo(long timestamp) throws IOException {
+        update();
+
+        var size = txnLog.size();
+        var position = Collections.binarySearch(timestamps, timestamp);
+        int chapter;
+        if (position >= 0) {
+            // Several chapters might start at the same millisecond, the last of them is needed
+            chapter = position;
+            while (chapter + 1 < timestamps.size() && timestamps.get(chapter + 1) == timestamp) {
+                chapter++;
+            }
+        } else {
+            chapter = -position - 2;
+        }
+        if (chapter < 0) {
+            return 0;
+        }
+
+        var end = Math.min(size, (chapter + 1L) * CHAPTER_SIZE);
+        for (var i = (long) chapter * CHAPTER_SIZE; i < end; i++) {
+            var t = timestamp(txnLog, i);
+            if (t != NO_TIMESTAMP && t > timestamp) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private long firstTimestamp(int chapter) throws IOException {
+        var end = Math.min(txnLog.size(), (chapter + 1L) * CHAPTER_SIZE);
+        for (var i = (long) chapter * CHAPTER_SIZE; i < end; i++) {
+            var timestamp = timestamp(txnLog, i);
+            if (timestamp != NO_TIMESTAMP) {
+                return timestamp;
+            }
+        }
+        return NO_TIMESTAMP;
+    }
+
+    private void save() throws IOException {
+        var tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            for (var timestamp : timestamps) {
+                out.writeLong(timestamp);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    private static long chapters(long transactions) {
+        return (transactions + CHAPTER_SIZE - 1) / CHAPTER_SIZE;
+    }
+
+    /**
+     * Reads a record up to its first metadata event.
+     */
+    static long timestamp(TransactionLog txnLog, long index) throws IOException {
+        try {
+            txnLog.read(index, new TransactionListener() {
+                @Override
+                public void onMetadata(String userId, String userName, long timestamp) {
+                    throw new MetadataFound(timestamp);
+                }
+            });
+            return NO_TIMESTAMP;
+        } catch (MetadataFound e) {
+            return e.timestamp;
+        }
+    }
+
+    /**
+     * Stops reading a record as soon as its timestamp is known
+     */
+    private static class MetadataFound extends RuntimeException {
+        private final long timestamp;
+
+        MetadataFound(long timestamp) {
+            super(null, null, false, false);
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+import lombok.Value;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.Quad;
+
+/**
+ * Changes made within a transaction, buffered in memory in their original order.
+ * Quads are stored in a flat array, four nodes per quad, and a bit set marks the deleted ones.
+ * Metadata events are stored along with the number of changes preceding them.
+ * <p>
+ * Changes are expected to be effective, i.e. a quad is only reported as added if it was absent and vice versa,
+ * as DatasetGraphMonitor does when recording only changes. Then the changes of a quad alternate,
+ * and compact() can replace them with their net effect.
+ */
+class TransactionDelta {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private Node[] nodes = new Node[INITIAL_CAPACITY * 4];
+    private final BitSet deletions = new BitSet();
+    private final List<Metadata> metadata = new ArrayList<>();
+    private int size;
+
+    void metadata(String userId, String userName, long timestamp) {
+        metadata.add(new Metadata(size, userId, userName, timestamp));
+    }
+
+    void add(Node graph, Node subject, Node predicate, Node object) {
+        append(graph, subject, predicate, object);
+    }
+
+    void delete(Node graph, Node subject, Node predicate, Node object) {
+        deletions.set(size);
+        append(graph, subject, predicate, object);
+    }
+
+    /**
+     * @return The number of changed quads
+     */
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0 && metadata.isEmpty();
+    }
+
+    /**
+     * Passes the metadata events and changes to the listener, without calling onBegin or onCommit.
+     */
+    void replay(TransactionListener listener) throws IOException {
+        var nextMetadata = 0;
+        for (var i = 0; i < size; i++) {
+            while (nextMetadata < metadata.size() && metadata.get(nextMetadata).position == i) {
+                emit(metadata.get(nextMetadata++), listener);
+            }
+            var n = i * 4;
+            if (deletions.get(i)) {
+                listener.onDelete(nodes[n], nodes[n + 1], nodes[n + 2], nodes[n + 3]);
+            } else {
+                listener.onAdd(nodes[n], nodes[n + 1], nodes[n + 2], nodes[n + 3]);
+            }
+        }
+        while (nextMetadata < metadata.size()) {
+            emit(metadata.get(nextMetadata++), listener);
+        }
+    }
+
+    /**
+     * Removes changes cancelling each other out, e.g. a quad deleted and added again, and keeps only the last one
+     * of repeated changes of a quad. The final state of each quad is preserved.
+     *
+     * @return The number of removed changes
+     */
+    int compact() {
+        // Number of changes and the position of the last change of each quad
+        var changes = new HashMap<Quad, int[]>();
+        for (var i = 0; i < size; i++) {
+            var n = i * 4;
+            var stats = changes.computeIfAbsent(quad(n), q -> new int[2]);
+            stats[0]++;
+            stats[1] = i;
+        }
+        if (changes.size() == size) {
+            return 0;
+        }
+
+        var kept = 0;
+        var nextMetadata = 0;
+        var compacted = new Node[Math.max(INITIAL_CAPACITY, changes.size()) * 4];
+        var compactedDeletions = new BitSet();
+        for (var i = 0; i < size; i++) {
+            while (nextMetadata < metadata.size() && metadata.get(nextMetadata).position == i) {
+                moveMetadata(nextMetadata++, kept);
+            }
+            var n = i * 4;
+            var stats = changes.get(quad(n));
+            // An even number of alternating changes has no effect, otherwise the last one is the net effect
+            if (stats[1] == i && stats[0] % 2 == 1) {
+                System.arraycopy(nodes, n, compacted, kept * 4, 4);
+                if (deletions.get(i)) {
+                    compactedDeletions.set(kept);
+                }
+                kept++;
+            }
+        }
+        while (nextMetadata < metadata.size()) {
+            moveMetadata(nextMetadata++, kept);
+        }
+
+        var removed = size - kept;
+        nodes = compacted;
+        deletions.clear();
+        deletions.or(compactedDeletions);
+        size = kept;
+        return removed;
+    }
+
+    private Quad quad(int n) {
+        return new Quad(nodes[n], nodes[n + 1], nodes[n + 2], nodes[n + 3]);
+    }
+
+    private void moveMetadata(int index, int position) {
+        var m = metadata.get(index);
+        metadata.set(index, new Metadata(position, m.userId, m.userName, m.timestamp));
+    }
+
+    private void append(Node graph, Node subject, Node predicate, Node object) {
+        var n = size * 4;
+        if (n == nodes.length) {
+            nodes = Arrays.copyOf(nodes, nodes.length * 2);
+        }
+        nodes[n] = graph;
+        nodes[n + 1] = subject;
+        nodes[n + 2] = predicate;
+        nodes[n + 3] = object;
+        size++;
+    }
+
+    private static void emit(Metadata m, TransactionListener listener) throws IOException {
+        listener.onMetadata(m.userId, m.userName, m.timestamp);
+    }
+
+    @Value
+    private static class Metadata {
+        int position;
+        String userId;
+        String userName;
+        long timestamp;
+    }
+}
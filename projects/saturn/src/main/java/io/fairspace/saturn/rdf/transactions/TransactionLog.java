@@ -6,4 +6,29 @@ public interface TransactionLog extends TransactionListener {
     long size();
 
     void read(long index, TransactionListener listener) throws IOException;
+
+    /**
+     * Forces all committed transactions to the storage device.
+     * Without calling it, committed transactions might still reside in the operating system's buffers.
+     */
+    default void force() throws IOException {}
+
+    /**
+     * Checks that transaction #index (0-based) is stored intact.
+     * The default implementation reads the transaction and checks that it is complete.
+     *
+     * @throws IOException if the transaction is missing, truncated or corrupted
+     */
+    default void checkRecord(long index) throws IOException {
+        var committed = new boolean[1];
+        read(index, new TransactionListener() {
+            @Override
+            public void onCommit() {
+                committed[0] = true;
+            }
+        });
+        if (!committed[0]) {
+            throw new IOException("Transaction #" + (index + 1) + " is incomplete");
+        }
+    }
 }
@@ -0,0 +1,55 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.File;
+import java.io.IOException;
+
+import lombok.extern.log4j.*;
+
+import static io.fairspace.saturn.config.ConfigLoader.CONFIG;
+import static io.fairspace.saturn.rdf.SaturnDatasetFactory.transactionCodec;
+
+/**
+ * Converts a transaction log with one file per transaction (see LocalTransactionLog)
+ * to a segmented transaction log (see SegmentedTransactionLog).
+ * Usage: TransactionLogMigration source-directory target-directory
+ * Records are re-encoded in the format configured in jena.transactionLogFormat.
+ * The migration can be interrupted and started again, it continues after the last converted transaction.
+ */
+@Log4j2
+public class TransactionLogMigration {
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: TransactionLogMigration <source directory> <target directory>");
+            System.exit(1);
+        }
+
+        var codec = transactionCodec(CONFIG.jena);
+        var source = LocalTransactionLog.openReadOnly(new File(args[0]), codec);
+        try (var target =
+                new SegmentedTransactionLog(new File(args[1]), codec, CONFIG.jena.transactionLogSegmentSize)) {
+            migrate(source, target);
+        }
+    }
+
+    public static void migrate(TransactionLog source, TransactionLog target) throws IOException {
+        var size = source.size();
+        if (target.size() > size) {
+            throw new IllegalStateException("The target transaction log contains more transactions than the source");
+        }
+
+        log.info("Converting transactions {} to {}", target.size() + 1, size);
+
+        var prevProgress = -1L;
+        for (var i = target.size(); i < size; i++) {
+            var progress = (100 * i) / size;
+            if (progress > prevProgress) {
+                log.info("Progress: {}%", progress);
+                prevProgress = progress;
+            }
+            // Reading a record replays its events, including onBegin and onCommit, to the target log
+            source.read(i, target);
+        }
+
+        log.info("Converted transaction log contains {} transactions", target.size());
+    }
+}
@@ -0,0 +1,30 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * Result of a transaction log verification, see TransactionLogVerifier.
+ */
+@Data
+public class TransactionLogVerification {
+    /** Time the verification finished, in milliseconds since the epoch */
+    private long timestamp;
+
+    private long durationMillis;
+
+    /** Number of checked transactions */
+    private long checkedTransactions;
+
+    /** Number of missing, truncated or corrupted transactions */
+    private long failedTransactions;
+
+    /** Descriptions of the first failed transactions */
+    private List<String> failures = new ArrayList<>();
+
+    public boolean isIntact() {
+        return failedTransactions == 0;
+    }
+}
@@ -0,0 +1,161 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.log4j.*;
+import org.apache.jena.sparql.util.Symbol;
+
+import static io.fairspace.saturn.config.ConfigLoader.CONFIG;
+import static io.fairspace.saturn.rdf.SaturnDatasetFactory.transactionCodec;
+import static io.fairspace.saturn.rdf.SaturnDatasetFactory.transactionLog;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+
+/**
+ * Checks all transactions of a transaction log against their checksums, so that damage is detected
+ * before the log is needed for a restore. The log is scanned by several threads in parallel,
+ * each of them checking a range of consecutive transactions.
+ * Can be run periodically (see schedule), from the maintenance API or from the command line:
+ * TransactionLogVerifier
+ * The command exits with status 1 if the log is damaged. A log with one file per transaction is opened read-only
+ * and can be verified while Saturn is running, a segmented log only while Saturn is stopped.
+ */
+@Log4j2
+public class TransactionLogVerifier {
+    public static final Symbol VERIFIER = Symbol.create("transaction_log_verifier");
+    static final int BATCH_SIZE = 1000;
+    static final int MAX_REPORTED_FAILURES = 100;
+
+    private final TransactionLog txnLog;
+    private final int threads;
+    private volatile TransactionLogVerification lastVerification;
+    private ScheduledExecutorService scheduler;
+
+    public TransactionLogVerifier(TransactionLog txnLog, int threads) {
+        this.txnLog = txnLog;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        var txnLog = CONFIG.jena.segmentedTransactionLog
+                ? transactionLog(CONFIG.jena)
+                : LocalTransactionLog.openReadOnly(CONFIG.jena.transactionLogPath, transactionCodec(CONFIG.jena));
+        try {
+            var verification = new TransactionLogVerifier(txnLog, CONFIG.jena.transactionLogVerificationThreads)
+                    .verify();
+            verification.getFailures().forEach(System.err::println);
+            System.out.println("Checked " + verification.getCheckedTransactions() + " transactions, "
+                    + verification.getFailedTransactions() + " failed");
+            if (!verification.isIntact()) {
+                System.exit(1);
+            }
+        } finally {
+            if (txnLog instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    /**
+     * Checks the transactions committed so far.
+     */
+    public synchronized TransactionLogVerification verify() throws InterruptedException {
+        log.info("Verifying the transaction log");
+        var start = System.currentTimeMillis();
+        var count = txnLog.size();
+        var checked = new AtomicLong();
+        var failed = new AtomicLong();
+        var failures = new ConcurrentSkipListMap<Long, String>();
+
+        var executor = Executors.newFixedThreadPool(
+                threads,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("Transaction log verifier-%d")
+                        .setDaemon(true)
+                        .build());
+        try {
+            var batches = new ArrayList<Future<?>>();
+            for (var from = 0L; from < count; from += BATCH_SIZE) {
+                var batchStart = from;
+                var batchEnd = Math.min(count, from + BATCH_SIZE);
+                batches.add(executor.submit(() -> {
+                    for (var i = batchStart; i < batchEnd; i++) {
+                        try {
+                            txnLog.checkRecord(i);
+                        } catch (Exception e) {
+                            log.error("Transaction #{} of the transaction log is damaged", i + 1, e);
+                            failed.incrementAndGet();
+                            failures.put(i, "Transaction #" + (i + 1) + ": " + e.getMessage());
+                            if (failures.size() > MAX_REPORTED_FAILURES) {
+                                failures.pollLastEntry();
+                            }
+                        }
+                        checked.incrementAndGet();
+                    }
+                }));
+            }
+            for (var batch : batches) {
+                batch.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error verifying the transaction log", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        var verification = new TransactionLogVerification();
+        verification.setTimestamp(System.currentTimeMillis());
+        verification.setDurationMillis(verification.getTimestamp() - start);
+        verification.setCheckedTransactions(checked.get());
+        verification.setFailedTransactions(failed.get());
+        verification.getFailures().addAll(failures.values());
+        lastVerification = verification;
+
+        if (verification.isIntact()) {
+            log.info(
+                    "Verified {} transactions of the transaction log in {}ms",
+                    checked.get(),
+                    verification.getDurationMillis());
+        } else {
+            log.error("{} of {} transactions of the transaction log are damaged", failed.get(), checked.get());
+        }
+        return verification;
+    }
+
+    /**
+     * Calls verify every intervalHours hours in a background thread.
+     */
+    public synchronized void schedule(long intervalHours) {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("Transaction log verification scheduler")
+                    .setDaemon(true)
+                    .build());
+            scheduler.scheduleWithFixedDelay(
+                    () -> {
+                        try {
+                            verify();
+                        } catch (Exception e) {
+                            log.error("Error verifying the transaction log", e);
+                        }
+                    },
+                    intervalHours,
+                    intervalHours,
+                    HOURS);
+        }
+    }
+
+    /**
+     * @return The result of the last verification, or null if the log hasn't been verified yet
+     */
+    public TransactionLogVerification getLastVerification() {
+        return lastVerification;
+    }
+}
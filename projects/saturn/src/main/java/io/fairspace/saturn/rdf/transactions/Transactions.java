@@ -16,6 +16,21 @@ public interface Transactions extends AutoCloseable {
         });
     }
 
+    /**
+     * Executes a large write job, e.g. a metadata import.
+     * Implementations may give such jobs a lower priority than other writes.
+     */
+    default <R, E extends Exception> R calculateBulkWrite(ThrowingFunction<? super Model, R, E> job) throws E {
+        return calculateWrite(job);
+    }
+
+    default <E extends Exception> void executeBulkWrite(ThrowingConsumer<? super Model, E> job) throws E {
+        calculateBulkWrite(model -> {
+            job.accept(model);
+            return null;
+        });
+    }
+
     <R, E extends Exception> R calculateRead(ThrowingFunction<? super Model, R, E> job) throws E;
 
     default <E extends Exception> void executeRead(ThrowingConsumer<? super Model, E> job) throws E {
@@ -12,30 +12,55 @@ import org.apache.jena.query.TxnType;
 import org.apache.jena.sparql.core.DatasetGraph;
 import org.apache.jena.sparql.core.QuadAction;
 
+import io.fairspace.saturn.metrics.Histogram;
 import io.fairspace.saturn.rdf.AbstractChangesAwareDatasetGraph;
 import io.fairspace.saturn.services.views.ViewStoreClientFactory;
 import io.fairspace.saturn.services.views.ViewUpdater;
 
 import static io.fairspace.saturn.config.ConfigLoader.CONFIG;
+import static io.fairspace.saturn.metrics.Metrics.LATENCY_BUCKETS;
+import static io.fairspace.saturn.metrics.Metrics.METRICS;
 import static io.fairspace.saturn.services.users.UserService.currentUserAsSymbol;
 
 @Slf4j
 public class TxnIndexDatasetGraph extends AbstractChangesAwareDatasetGraph {
+    private static final Histogram VIEW_UPDATE = METRICS.histogram(
+            "saturn_write_view_update_seconds", "Time updating the views when committing", LATENCY_BUCKETS);
+    private static final Histogram STORAGE_COMMIT = METRICS.histogram(
+            "saturn_write_storage_commit_seconds", "Time committing to the triple store", LATENCY_BUCKETS);
+
     private final DatasetGraph dsg;
     private final ViewStoreClientFactory viewStoreClientFactory;
-    // One set of updated subjects if write transactions are handled sequentially.
-    // If many write transactions can be active simultaneously, this set needs to be
-    // tied to the active thread.
-    private final Set<Node> updatedSubjects = new HashSet<>();
+    // If not null, the views are updated asynchronously
+    private final AsyncViewIndexer indexer;
+    // The subjects updated by the current write transaction. Jena binds a transaction to the thread that started it,
+    // so the set is bound to that thread, too. It's created by the first change, which also covers
+    // a read transaction promoted to a write transaction.
+    private final ThreadLocal<Set<Node>> updatedSubjects = new ThreadLocal<>();
 
     public TxnIndexDatasetGraph(DatasetGraph dsg, ViewStoreClientFactory viewStoreClientFactory) {
+        this(dsg, viewStoreClientFactory, null);
+    }
+
+    /**
+     * @param indexer If not null, the updated subjects are recorded in its outbox on commit, and the views
+     *                are updated in the background. Otherwise the views are updated before the commit.
+     */
+    public TxnIndexDatasetGraph(
+            DatasetGraph dsg, ViewStoreClientFactory viewStoreClientFactory, AsyncViewIndexer indexer) {
         super(dsg);
         this.dsg = dsg;
         this.viewStoreClientFactory = viewStoreClientFactory;
+        this.indexer = indexer;
     }
 
     private void markSubject(Node subject) {
-        updatedSubjects.add(subject);
+        var subjects = updatedSubjects.get();
+        if (subjects == null) {
+            subjects = new HashSet<>();
+            updatedSubjects.set(subjects);
+        }
+        subjects.add(subject);
     }
 
     /**
@@ -54,64 +79,81 @@ public class TxnIndexDatasetGraph extends AbstractChangesAwareDatasetGraph {
 
     @Override
     public void begin(TxnType type) {
-        begin(TxnType.convert(type));
-        if (isInWriteTransaction()) {
-            updatedSubjects.clear();
-        }
+        updatedSubjects.remove();
+        super.begin(type);
+    }
+
+    @Override
+    public void begin(ReadWrite readWrite) {
+        updatedSubjects.remove();
+        super.begin(readWrite);
     }
 
-    @SneakyThrows
     @Override
     public void commit() {
-        if (isInWriteTransaction()) {
-            if (isExtraStorageTransaction()) {
-                updatedSubjects.clear();
+        var subjects = takeUpdatedSubjects();
+        var recordedVersion = 0L;
+        if (!subjects.isEmpty() && !isExtraStorageTransaction(subjects)) {
+            var sessionKey = currentUserAsSymbol();
+            var doViewsUpdate = dsg.getContext()
+                    .get(sessionKey, Boolean.FALSE); // false by default, should be set explicitly to switch it off
+            if (!doViewsUpdate) {
+                log.debug("Skipping views update");
+            } else if (indexer != null) {
+                recordedVersion = indexer.record(subjects);
             } else {
-                var sessionKey = currentUserAsSymbol();
-                var doViewsUpdate = dsg.getContext()
-                        .get(sessionKey, Boolean.FALSE); // false by default, should be set explicitly to switch it off
-                if (doViewsUpdate) {
-                    log.info("Commit {} updated subjects", updatedSubjects.size());
-                    var start = new Date().getTime();
-                    try (var viewStoreClient = viewStoreClientFactory.build();
-                            var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
-                        updatedSubjects.forEach(viewUpdater::updateSubject);
-                        viewUpdater.commit();
-                        log.debug(
-                                "Updating {} subjects took {}ms", updatedSubjects.size(), new Date().getTime() - start);
-                    } catch (Exception e) {
-                        log.error(
-                                "Updating {} subjects failed after {}ms",
-                                updatedSubjects.size(),
-                                new Date().getTime() - start,
-                                e);
-                        throw e;
-                    } finally {
-                        updatedSubjects.clear();
-                    }
-                } else {
-                    log.debug("Skipping views update");
-                }
+                updateViews(subjects);
             }
         }
+        var start = System.nanoTime();
         super.commit();
+        STORAGE_COMMIT.observeSince(start);
+        if (recordedVersion != 0) {
+            indexer.committed(recordedVersion, subjects.size());
+        }
+    }
+
+    @SneakyThrows
+    private void updateViews(Set<Node> subjects) {
+        log.info("Commit {} updated subjects", subjects.size());
+        var start = new Date().getTime();
+        var startNanos = System.nanoTime();
+        try (var viewStoreClient = viewStoreClientFactory.build();
+                var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
+            viewUpdater.updateSubjects(subjects);
+            viewUpdater.commit();
+            log.debug("Updating {} subjects took {}ms", subjects.size(), new Date().getTime() - start);
+        } catch (Exception e) {
+            log.error("Updating {} subjects failed after {}ms", subjects.size(), new Date().getTime() - start, e);
+            throw e;
+        } finally {
+            VIEW_UPDATE.observeSince(startNanos);
+        }
     }
 
     @Override
     public void abort() {
         super.abort();
-        if (isInWriteTransaction()) {
+        if (updatedSubjects.get() != null) {
             log.debug("Aborting transaction");
-            updatedSubjects.clear();
+            updatedSubjects.remove();
         }
     }
 
-    private boolean isInWriteTransaction() {
-        return transactionMode() == ReadWrite.WRITE;
+    @Override
+    public void end() {
+        updatedSubjects.remove();
+        super.end();
+    }
+
+    private Set<Node> takeUpdatedSubjects() {
+        var subjects = updatedSubjects.get();
+        updatedSubjects.remove();
+        return subjects != null ? subjects : Set.of();
     }
 
-    private boolean isExtraStorageTransaction() {
-        return updatedSubjects.stream()
+    private static boolean isExtraStorageTransaction(Set<Node> subjects) {
+        return subjects.stream()
                 .anyMatch(r -> r.isURI() && r.getURI().startsWith(CONFIG.publicUrl + "/api/extra-storage"));
     }
 }
@@ -1,33 +1,100 @@
 package io.fairspace.saturn.rdf.transactions;
 
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.pivovarit.function.ThrowingRunnable;
 import lombok.extern.log4j.*;
 import org.apache.jena.graph.Node;
 import org.apache.jena.query.ReadWrite;
 import org.apache.jena.query.TxnType;
+import org.apache.jena.sparql.JenaTransactionException;
 import org.apache.jena.sparql.core.DatasetGraph;
 import org.apache.jena.sparql.core.QuadAction;
 import org.keycloak.representations.AccessToken;
 
+import io.fairspace.saturn.metrics.Histogram;
 import io.fairspace.saturn.rdf.AbstractChangesAwareDatasetGraph;
 
 import static io.fairspace.saturn.auth.RequestContext.getAccessToken;
+import static io.fairspace.saturn.metrics.Metrics.LATENCY_BUCKETS;
+import static io.fairspace.saturn.metrics.Metrics.METRICS;
+import static io.fairspace.saturn.metrics.Metrics.QUAD_BUCKETS;
 
 import static java.lang.System.currentTimeMillis;
+import static java.lang.System.nanoTime;
 
+/**
+ * Writes the changes made in write transactions to a transaction log.
+ * Changes are buffered in memory and encoded by a dedicated log writer thread, so that adding or deleting a quad
+ * doesn't pay the encoding cost. Large transactions are handed to the writer in chunks while they are still running.
+ * A transaction is committed to the underlying dataset only after its log record has been written.
+ * Before a chunk is written, changes cancelling each other out within the chunk are removed
+ * (see TransactionDelta.compact).
+ */
 @Log4j2
 public class TxnLogDatasetGraph extends AbstractChangesAwareDatasetGraph {
     private static final String ERROR_MSG =
             "Catastrophic failure. Shutting down. The system requires admin's intervention.";
+    static final int CHUNK_SIZE = 1024;
+
+    private static final Histogram LOG_WRITE = METRICS.histogram(
+            "saturn_write_log_seconds",
+            "Time a committing transaction waits for its log record to be written",
+            LATENCY_BUCKETS);
+    private static final Histogram COMMIT = METRICS.histogram(
+            "saturn_write_commit_seconds",
+            "Time committing a transaction to the dataset after logging it, including view updates",
+            LATENCY_BUCKETS);
+    private static final Histogram DURABILITY_WAIT = METRICS.histogram(
+            "saturn_write_durability_wait_seconds",
+            "Time a committed transaction waits for the transaction log to be forced to disk",
+            LATENCY_BUCKETS);
+    private static final Histogram TRANSACTION_QUADS = METRICS.histogram(
+            "saturn_write_transaction_quads", "Number of quad changes per write transaction", QUAD_BUCKETS);
 
     private final TransactionLog transactionLog;
+    private final GroupCommit groupCommit;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("Transaction log writer")
+            .setDaemon(true)
+            .build());
+    private final AtomicLong loggedQuads = new AtomicLong();
+    private final AtomicLong eliminatedQuads = new AtomicLong();
     private volatile AccessToken user;
     private DatasetGraph dsg;
+    // The following fields are only accessed by the thread holding the write transaction
+    private TransactionDelta delta;
+    private boolean started;
+    // Whether the log record of the transaction is complete, after which it can't be aborted in the log anymore
+    private boolean recorded;
+    private long changes;
+    private Future<?> pending;
 
     public TxnLogDatasetGraph(DatasetGraph dsg, TransactionLog transactionLog) {
+        this(dsg, transactionLog, null);
+    }
+
+    /**
+     * @param groupCommit If not null, a write transaction's commit doesn't return before its log record is forced
+     *                    to disk. Otherwise the record might still reside in the operating system's buffers.
+     */
+    public TxnLogDatasetGraph(DatasetGraph dsg, TransactionLog transactionLog, GroupCommit groupCommit) {
         super(dsg);
         this.transactionLog = transactionLog;
+        this.groupCommit = groupCommit;
         this.dsg = dsg;
+
+        METRICS.counter("saturn_transaction_log_quads_total", "Quad changes written to the log", this::getLoggedQuads);
+        METRICS.counter(
+                "saturn_transaction_log_eliminated_quads_total",
+                "Quad changes not written to the log, because they cancelled each other out",
+                this::getEliminatedQuads);
     }
 
     /**
@@ -35,17 +102,18 @@ public class TxnLogDatasetGraph extends AbstractChangesAwareDatasetGraph {
      */
     @Override
     protected void onChange(QuadAction action, Node graph, Node subject, Node predicate, Node object) {
-        critical(() -> {
-            var currentUser = getAccessToken();
-            if (currentUser != user) {
-                user = currentUser;
-                transactionLog.onMetadata(user.getSubject(), user.getName(), currentTimeMillis());
-            }
-            switch (action) {
-                case ADD -> transactionLog.onAdd(graph, subject, predicate, object);
-                case DELETE -> transactionLog.onDelete(graph, subject, predicate, object);
-            }
-        });
+        var currentUser = getAccessToken();
+        if (currentUser != user) {
+            user = currentUser;
+            delta.metadata(user.getSubject(), user.getName(), currentTimeMillis());
+        }
+        switch (action) {
+            case ADD -> delta.add(graph, subject, predicate, object);
+            case DELETE -> delta.delete(graph, subject, predicate, object);
+        }
+        if (delta.size() >= CHUNK_SIZE) {
+            flush(false);
+        }
     }
 
     public DatasetGraph getDatasetGraph() {
@@ -66,17 +134,39 @@ public class TxnLogDatasetGraph extends AbstractChangesAwareDatasetGraph {
 
         if (readWrite == ReadWrite.WRITE) { // a write transaction => be ready to collect changes
             user = null;
-            critical(transactionLog::onBegin);
+            delta = new TransactionDelta();
+            started = false;
+            recorded = false;
+            changes = 0;
+            pending = null;
         }
     }
 
     @Override
     public void commit() {
         if (isInWriteTransaction()) {
-            critical(() -> {
-                transactionLog.onCommit();
-                super.commit();
-            });
+            var logged = started || !delta.isEmpty();
+            if (logged) {
+                var start = nanoTime();
+                flush(true);
+                // The log record must be complete before the changes become visible in the dataset
+                critical(pending::get);
+                recorded = true;
+                LOG_WRITE.observeSince(start);
+                TRANSACTION_QUADS.observe(changes);
+            }
+            delta = null;
+            var start = nanoTime();
+            // The transaction is in the log, so it must be in the dataset, too
+            critical(super::commit);
+            COMMIT.observeSince(start);
+            if (logged && groupCommit != null) {
+                // Waiting after the commit has released the write lock lets the following transactions
+                // join the same flush
+                start = nanoTime();
+                awaitDurability();
+                DURABILITY_WAIT.observeSince(start);
+            }
         } else {
             super.commit();
         }
@@ -85,12 +175,94 @@ public class TxnLogDatasetGraph extends AbstractChangesAwareDatasetGraph {
     @Override
     public void abort() {
         if (isInWriteTransaction()) {
-            critical(transactionLog::onAbort);
+            if (started && !recorded) {
+                critical(pending::get);
+                pending = writer.submit(toCallable(transactionLog::onAbort));
+                critical(pending::get);
+            }
+            delta = null;
         }
 
         super.abort();
     }
 
+    /**
+     * @return The number of quad changes written to the log
+     */
+    public long getLoggedQuads() {
+        return loggedQuads.get();
+    }
+
+    /**
+     * @return The number of quad changes not written to the log, because they were cancelled out by other changes
+     * of the same transaction
+     */
+    public long getEliminatedQuads() {
+        return eliminatedQuads.get();
+    }
+
+    @Override
+    public void close() {
+        writer.shutdown();
+        super.close();
+    }
+
+    /**
+     * Hands the buffered changes over to the log writer.
+     * The writer executes the submitted tasks one by one in submission order. At most one chunk is being written
+     * while the next one is collected, which also makes sure that an error writing a chunk is not missed.
+     */
+    private void flush(boolean commit) {
+        if (pending != null) {
+            critical(pending::get);
+        }
+        var chunk = delta;
+        var begin = !started;
+        changes += chunk.size();
+        delta = new TransactionDelta();
+        started = true;
+        pending = writer.submit(toCallable(() -> {
+            var changes = chunk.size();
+            var eliminated = chunk.compact();
+            loggedQuads.addAndGet(changes - eliminated);
+            eliminatedQuads.addAndGet(eliminated);
+            if (begin && commit && chunk.size() == 0) {
+                // All changes cancelled each other out
+                return;
+            }
+            if (begin) {
+                transactionLog.onBegin();
+            }
+            chunk.replay(transactionLog);
+            if (commit) {
+                transactionLog.onCommit();
+            }
+        }));
+    }
+
+    /**
+     * Only a failure to force the log is fatal. An interrupted transaction is committed,
+     * but it's not known whether it's stored durably yet.
+     */
+    private void awaitDurability() {
+        try {
+            groupCommit.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JenaTransactionException(
+                    "Interrupted while waiting for the transaction log to be stored durably", e);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private static Callable<Void> toCallable(ThrowingRunnable<Exception> action) {
+        return () -> {
+            action.run();
+            return null;
+        };
+    }
+
     private boolean isInWriteTransaction() {
         return transactionMode() == ReadWrite.WRITE;
     }
@@ -99,18 +271,22 @@ public class TxnLogDatasetGraph extends AbstractChangesAwareDatasetGraph {
         try {
             action.run();
         } catch (Throwable t) {
-            log.error(ERROR_MSG, t);
+            fail(t);
+        }
+    }
 
-            // SLF4J has no flush method.
-            System.err.println(ERROR_MSG);
-            t.printStackTrace();
+    private void fail(Throwable t) {
+        log.error(ERROR_MSG, t);
 
-            System.err.flush();
+        // SLF4J has no flush method.
+        System.err.println(ERROR_MSG);
+        t.printStackTrace();
 
-            log.error(ERROR_MSG, t);
-            // There's no log.flush() :-(
+        System.err.flush();
 
-            System.exit(1);
-        }
+        log.error(ERROR_MSG, t);
+        // There's no log.flush() :-(
+
+        System.exit(1);
     }
 }
@@ -53,6 +53,10 @@ public abstract class BaseApp implements SparkApplication {
             exception(AccessDeniedException.class, exceptionHandler(SC_FORBIDDEN, null));
             exception(Exception.class, exceptionHandler(SC_INTERNAL_SERVER_ERROR, "Internal server error"));
             exception(NotAvailableException.class, exceptionHandler(SC_SERVICE_UNAVAILABLE, null));
+            exception(ServiceBusyException.class, (e, req, res) -> {
+                res.header("Retry-After", Long.toString(e.getRetryAfterSeconds()));
+                exceptionHandler(SC_SERVICE_UNAVAILABLE, null).handle(e, req, res);
+            });
             exception(ConflictException.class, exceptionHandler(SC_CONFLICT, null));
 
             initApp();
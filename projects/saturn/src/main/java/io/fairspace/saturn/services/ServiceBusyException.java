@@ -0,0 +1,18 @@
+package io.fairspace.saturn.services;
+
+/**
+ * Thrown when a request is rejected because too many requests are waiting.
+ * Reported as 503 Service Unavailable with a Retry-After header.
+ */
+public class ServiceBusyException extends NotAvailableException {
+    private final long retryAfterSeconds;
+
+    public ServiceBusyException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,22 @@
+package io.fairspace.saturn.services.changes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * A committed transaction. Quads are represented as lists of four RDF terms (graph, subject, predicate, object)
+ * in the N-Triples syntax. A quad changed several times within the transaction is reported once, according to
+ * its final state, so added and deleted quads don't overlap and can be applied in any order.
+ * If a transaction combines changes of several users (see BulkTransactions), the metadata of the first one is used.
+ */
+@Data
+public class Change {
+    private long index;
+    private Long timestamp;
+    private String userId;
+    private String userName;
+    private List<List<String>> added = new ArrayList<>();
+    private List<List<String>> deleted = new ArrayList<>();
+}
@@ -0,0 +1,61 @@
+package io.fairspace.saturn.services.changes;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+
+import lombok.extern.log4j.*;
+
+import io.fairspace.saturn.services.BaseApp;
+
+import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static spark.Spark.get;
+
+/**
+ * GET /?from=N&follow=true
+ * Returns the transactions starting from transaction #N (0-based, 0 by default) as newline-delimited JSON,
+ * one Change per line. With follow=true, the response stays open and new transactions are sent as soon as
+ * they are committed. Empty lines are sent while waiting for new transactions and should be ignored.
+ * A consumer can resume after a disconnect by passing the index of the last received transaction + 1.
+ */
+@Log4j2
+public class ChangeFeedApp extends BaseApp {
+    private static final String NDJSON = "application/x-ndjson";
+
+    private final ChangeFeedService changeFeedService;
+
+    public ChangeFeedApp(String basePath, ChangeFeedService changeFeedService) {
+        super(basePath);
+        this.changeFeedService = changeFeedService;
+    }
+
+    @Override
+    protected void initApp() {
+        get("/", (req, res) -> {
+            var from = req.queryParams("from") == null ? 0L : Long.parseLong(req.queryParams("from"));
+            var follow = Boolean.parseBoolean(req.queryParams("follow"));
+            changeFeedService.validate(from);
+
+            res.status(SC_OK);
+            res.type(NDJSON);
+            var out = new BufferedOutputStream(res.raw().getOutputStream());
+            try {
+                changeFeedService.stream(from, follow, new ChangeFeedService.Sink() {
+                    @Override
+                    public void accept(Change change) throws IOException {
+                        out.write(mapper.writeValueAsBytes(change));
+                        out.write('\n');
+                    }
+
+                    @Override
+                    public void idle() throws IOException {
+                        out.write('\n');
+                        out.flush();
+                    }
+                });
+            } catch (IOException e) {
+                log.debug("Change feed consumer disconnected", e);
+            }
+            return "";
+        });
+    }
+}
@@ -0,0 +1,120 @@
+package io.fairspace.saturn.services.changes;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.jena.sparql.core.Quad;
+
+import io.fairspace.saturn.rdf.transactions.TailableTransactionLog;
+import io.fairspace.saturn.rdf.transactions.TransactionListener;
+import io.fairspace.saturn.services.AccessDeniedException;
+import io.fairspace.saturn.services.NotAvailableException;
+import io.fairspace.saturn.services.users.UserService;
+
+/**
+ * Streams committed transactions from the transaction log, so that other systems can follow the changes
+ * without polling.
+ */
+public class ChangeFeedService {
+    public static final long KEEP_ALIVE_INTERVAL_MILLIS = 30_000;
+
+    private final UserService userService;
+    private final TailableTransactionLog txnLog;
+
+    /**
+     * @param txnLog The transaction log, or null if the change feed is not available
+     */
+    public ChangeFeedService(UserService userService, TailableTransactionLog txnLog) {
+        this.userService = userService;
+        this.txnLog = txnLog;
+    }
+
+    public interface Sink {
+        void accept(Change change) throws IOException;
+
+        /**
+         * Called when all available transactions have been sent, and then periodically while waiting for new ones.
+         */
+        void idle() throws IOException;
+    }
+
+    /**
+     * Checks whether the current user can read the change feed starting from transaction #from (0-based).
+     */
+    public void validate(long from) {
+        if (!userService.currentUser().isAdmin()) {
+            throw new AccessDeniedException();
+        }
+        if (txnLog == null) {
+            throw new NotAvailableException("Change feed is not available");
+        }
+        if (from < 0 || from > txnLog.size()) {
+            throw new IllegalArgumentException("Invalid transaction index: " + from);
+        }
+    }
+
+    /**
+     * Passes transactions, starting from transaction #from, to the sink.
+     * A transaction is read only after the sink has accepted the previous one, so a slow consumer slows down
+     * reading rather than causing transactions to be buffered.
+     *
+     * @param follow Whether to wait for new transactions, until the sink fails or the thread is interrupted
+     */
+    public void stream(long from, boolean follow, Sink sink) throws IOException, InterruptedException {
+        validate(from);
+
+        var index = from;
+        while (true) {
+            while (index < txnLog.size()) {
+                sink.accept(read(index++));
+            }
+            sink.idle();
+            if (!follow) {
+                return;
+            }
+            while (!txnLog.await(index, KEEP_ALIVE_INTERVAL_MILLIS)) {
+                sink.idle();
+            }
+        }
+    }
+
+    private Change read(long index) throws IOException {
+        var change = new Change();
+        change.setIndex(index);
+        // true for added quads
+        var quads = new LinkedHashMap<Quad, Boolean>();
+        txnLog.read(index, new TransactionListener() {
+            @Override
+            public void onMetadata(String userId, String userName, long timestamp) {
+                if (change.getTimestamp() == null) {
+                    change.setTimestamp(timestamp);
+                    change.setUserId(userId);
+                    change.setUserName(userName);
+                }
+            }
+
+            @Override
+            public void onAdd(Node graph, Node subject, Node predicate, Node object) {
+                quads.put(new Quad(graph, subject, predicate, object), true);
+            }
+
+            @Override
+            public void onDelete(Node graph, Node subject, Node predicate, Node object) {
+                quads.put(new Quad(graph, subject, predicate, object), false);
+            }
+        });
+        quads.forEach((quad, added) -> (added ? change.getAdded() : change.getDeleted()).add(terms(quad)));
+        return change;
+    }
+
+    private static List<String> terms(Quad quad) {
+        return List.of(
+                NodeFmtLib.strNT(quad.getGraph()),
+                NodeFmtLib.strNT(quad.getSubject()),
+                NodeFmtLib.strNT(quad.getPredicate()),
+                NodeFmtLib.strNT(quad.getObject()));
+    }
+}
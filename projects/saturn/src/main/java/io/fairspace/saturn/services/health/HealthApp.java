@@ -20,5 +20,13 @@ public class HealthApp extends BaseApp {
             res.type(APPLICATION_JSON.asString());
             return mapper.writeValueAsString(health);
         });
+        get("/replication", (req, res) -> {
+            res.type(APPLICATION_JSON.asString());
+            return mapper.writeValueAsString(healthService.getReplication());
+        });
+        get("/transaction-log", (req, res) -> {
+            res.type(APPLICATION_JSON.asString());
+            return mapper.writeValueAsString(healthService.getTransactionLogVerification());
+        });
     }
 }
@@ -1,13 +1,29 @@
 package io.fairspace.saturn.services.health;
 
-import java.util.Collections;
 import javax.sql.*;
 
+import io.fairspace.saturn.rdf.transactions.Follower;
+import io.fairspace.saturn.rdf.transactions.TransactionLogVerification;
+import io.fairspace.saturn.rdf.transactions.TransactionLogVerifier;
+import io.fairspace.saturn.services.NotAvailableException;
+
 public class HealthService {
     private final DataSource dataSource;
+    private final Follower follower;
+    private final TransactionLogVerifier verifier;
 
     public HealthService(DataSource dataSource) {
+        this(dataSource, null, null);
+    }
+
+    /**
+     * @param follower The follower keeping the dataset up to date, or null if this instance is not a follower
+     * @param verifier The transaction log verifier, or null if there is no transaction log
+     */
+    public HealthService(DataSource dataSource, Follower follower, TransactionLogVerifier verifier) {
         this.dataSource = dataSource;
+        this.follower = follower;
+        this.verifier = verifier;
     }
 
     public Health getHealth() {
@@ -15,11 +31,36 @@ public class HealthService {
         if (dataSource != null) {
             HealthStatus dbStatus = getConnectionStatus();
             health.setStatus(dbStatus);
-            health.setComponents(Collections.singletonMap("viewDatabase", dbStatus));
+            health.getComponents().put("viewDatabase", dbStatus);
+        }
+        // A damaged transaction log needs attention, but doesn't prevent serving requests
+        var verification = verifier == null ? null : verifier.getLastVerification();
+        if (verification != null) {
+            health.getComponents()
+                    .put("transactionLog", verification.isIntact() ? HealthStatus.UP : HealthStatus.DOWN);
         }
         return health;
     }
 
+    public TransactionLogVerification getTransactionLogVerification() {
+        var verification = verifier == null ? null : verifier.getLastVerification();
+        if (verification == null) {
+            throw new NotAvailableException("The transaction log has not been verified yet");
+        }
+        return verification;
+    }
+
+    public Replication getReplication() {
+        if (follower == null) {
+            throw new NotAvailableException("This Saturn instance is not a follower");
+        }
+        return new Replication(
+                follower.getAppliedTransactions(),
+                follower.getAvailableTransactions(),
+                follower.getLag(),
+                follower.getLagMillis());
+    }
+
     private HealthStatus getConnectionStatus() {
         final int connectionTimeout = 1;
         try (var connection = dataSource.getConnection()) {
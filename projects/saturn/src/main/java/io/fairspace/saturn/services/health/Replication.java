@@ -0,0 +1,25 @@
+package io.fairspace.saturn.services.health;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Replication status of a follower instance.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class Replication {
+    /** Number of transactions applied to the dataset */
+    private long appliedTransactions;
+
+    /** Number of transactions in the transaction log, as of the last check */
+    private long availableTransactions;
+
+    /** Number of transactions not applied yet */
+    private long lag;
+
+    /** Time since the oldest transaction not applied yet happened, in milliseconds */
+    private long lagMillis;
+}
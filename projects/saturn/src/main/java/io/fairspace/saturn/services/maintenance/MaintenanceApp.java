@@ -27,6 +27,16 @@ public class MaintenanceApp extends BaseApp {
             res.status(SC_NO_CONTENT);
             return "";
         });
+        post("/snapshot", (req, res) -> {
+            maintenanceService.createSnapshotTask();
+            res.status(SC_NO_CONTENT);
+            return "";
+        });
+        post("/verify-transaction-log", (req, res) -> {
+            maintenanceService.verifyTransactionLogTask();
+            res.status(SC_NO_CONTENT);
+            return "";
+        });
         get("/status", (req, res) -> {
             res.status(SC_OK);
             return maintenanceService.active() ? "active" : "inactive";
@@ -1,7 +1,6 @@
 package io.fairspace.saturn.services.maintenance;
 
 import java.sql.SQLException;
-import java.util.Date;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -14,15 +13,18 @@ import org.apache.jena.tdb2.DatabaseMgr;
 import org.apache.jena.tdb2.store.DatasetGraphSwitchable;
 
 import io.fairspace.saturn.config.ConfigLoader;
+import io.fairspace.saturn.rdf.transactions.SavepointDatasetGraph;
+import io.fairspace.saturn.rdf.transactions.Snapshots;
+import io.fairspace.saturn.rdf.transactions.TransactionLogVerifier;
 import io.fairspace.saturn.rdf.transactions.TxnIndexDatasetGraph;
 import io.fairspace.saturn.rdf.transactions.TxnLogDatasetGraph;
 import io.fairspace.saturn.services.AccessDeniedException;
 import io.fairspace.saturn.services.ConflictException;
 import io.fairspace.saturn.services.NotAvailableException;
 import io.fairspace.saturn.services.users.UserService;
+import io.fairspace.saturn.services.views.BulkReindexer;
 import io.fairspace.saturn.services.views.ViewService;
 import io.fairspace.saturn.services.views.ViewStoreClientFactory;
-import io.fairspace.saturn.services.views.ViewUpdater;
 
 @Log4j2
 public class MaintenanceService {
@@ -102,19 +104,61 @@ public class MaintenanceService {
         });
     }
 
+    public void createSnapshotTask() {
+        if (!userService.currentUser().isAdmin()) {
+            throw new AccessDeniedException();
+        }
+        var context = dataset.getContext();
+        Snapshots snapshots = context == null ? null : context.get(Snapshots.SNAPSHOTS);
+        if (snapshots == null) {
+            throw new NotAvailableException(SERVICE_NOT_AVAILABLE);
+        }
+        if (active()) {
+            log.info(MAINTENANCE_IS_IN_PROGRESS);
+            throw new ConflictException(MAINTENANCE_IS_IN_PROGRESS);
+        }
+
+        threadpool.submit(() -> {
+            try {
+                snapshots.create();
+            } catch (Exception e) {
+                log.error("Error creating a snapshot", e);
+                throw new RuntimeException("Error creating a snapshot", e);
+            }
+        });
+    }
+
+    public void verifyTransactionLogTask() {
+        if (!userService.currentUser().isAdmin()) {
+            throw new AccessDeniedException();
+        }
+        var context = dataset.getContext();
+        TransactionLogVerifier verifier = context == null ? null : context.get(TransactionLogVerifier.VERIFIER);
+        if (verifier == null) {
+            throw new NotAvailableException(SERVICE_NOT_AVAILABLE);
+        }
+        if (active()) {
+            log.info(MAINTENANCE_IS_IN_PROGRESS);
+            throw new ConflictException(MAINTENANCE_IS_IN_PROGRESS);
+        }
+
+        threadpool.submit(() -> {
+            try {
+                verifier.verify();
+            } catch (Exception e) {
+                log.error("Error verifying the transaction log", e);
+                throw new RuntimeException("Error verifying the transaction log", e);
+            }
+        });
+    }
+
     /**
      * Only use this method in a secure and synchonisized way, see 'recreateIndex()'
      */
     public void recreateIndex() {
-        try (var viewStoreClient = viewStoreClientFactory.build();
-                var viewUpdater = new ViewUpdater(viewStoreClient, dataset.asDatasetGraph())) {
-            var start = new Date().getTime();
-            // Index entities
-            for (var view : ConfigLoader.VIEWS_CONFIG.views) {
-                viewUpdater.recreateIndexForView(viewStoreClient, view);
-            }
-            viewUpdater.commit();
-            log.info("View index recreated in {}ms.", new Date().getTime() - start);
+        var parallelism = ConfigLoader.CONFIG.viewDatabase.reindexParallelism;
+        try {
+            new BulkReindexer(viewStoreClientFactory, dataset.asDatasetGraph(), parallelism).reindex();
         } catch (SQLException e) {
             throw new RuntimeException("Failed to recreate index", e);
         }
@@ -131,6 +175,10 @@ public class MaintenanceService {
         if (dsg == null || dsg instanceof DatasetGraphSwitchable) {
             return dsg;
         }
+        if (dsg instanceof SavepointDatasetGraph) {
+            return unwrap(((SavepointDatasetGraph) dsg).getDatasetGraph());
+        }
+
         if (dsg instanceof TxnLogDatasetGraph) {
             return unwrap(((TxnLogDatasetGraph) dsg).getDatasetGraph());
         }
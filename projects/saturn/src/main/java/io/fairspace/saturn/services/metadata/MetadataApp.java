@@ -32,6 +32,8 @@ import static spark.Spark.put;
 public class MetadataApp extends BaseApp {
 
     private static final String DO_VIEWS_UPDATE = "doViewsUpdate";
+    // With asynchronous view updates, whether to wait until the changes are visible in the views
+    private static final String WAIT_FOR_VIEWS_UPDATE = "waitForViewsUpdate";
 
     protected final MetadataService api;
 
@@ -54,6 +56,7 @@ public class MetadataApp extends BaseApp {
             var doMaterializedViewsRefresh = req.queryParamOrDefault(DO_VIEWS_UPDATE, TRUE.toString());
 
             api.put(model, Boolean.valueOf(doMaterializedViewsRefresh));
+            awaitViewsUpdate(req, Boolean.valueOf(doMaterializedViewsRefresh));
 
             res.status(SC_NO_CONTENT);
             return "";
@@ -62,6 +65,7 @@ public class MetadataApp extends BaseApp {
             var model = deserialize(req.body(), req.contentType());
             var doViewsUpdate = req.queryParamOrDefault(DO_VIEWS_UPDATE, TRUE.toString());
             api.patch(model, Boolean.valueOf(doViewsUpdate));
+            awaitViewsUpdate(req, Boolean.valueOf(doViewsUpdate));
 
             res.status(SC_NO_CONTENT);
             return "";
@@ -79,6 +83,7 @@ public class MetadataApp extends BaseApp {
                 var model = deserialize(req.body(), req.contentType());
                 var doMaterializedViewsRefresh = req.queryParamOrDefault(DO_VIEWS_UPDATE, TRUE.toString());
                 api.delete(model, Boolean.valueOf(doMaterializedViewsRefresh));
+                awaitViewsUpdate(req, Boolean.valueOf(doMaterializedViewsRefresh));
             }
 
             res.status(SC_NO_CONTENT);
@@ -102,6 +107,12 @@ public class MetadataApp extends BaseApp {
         });
     }
 
+    private void awaitViewsUpdate(Request req, boolean doViewsUpdate) {
+        if (doViewsUpdate && Boolean.valueOf(req.queryParamOrDefault(WAIT_FOR_VIEWS_UPDATE, TRUE.toString()))) {
+            api.awaitViewsUpdate();
+        }
+    }
+
     private Model getMetadata(Request req) {
         return api.get(req.queryParams("subject"), req.queryParams().contains("withValueProperties"));
     }
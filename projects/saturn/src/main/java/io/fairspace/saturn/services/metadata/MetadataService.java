@@ -5,6 +5,8 @@ import java.util.LinkedHashSet;
 import java.util.Objects;
 import java.util.Set;
 
+import com.pivovarit.function.ThrowingFunction;
+import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.Property;
@@ -15,6 +17,8 @@ import org.apache.jena.shacl.vocabulary.SHACLM;
 import org.apache.jena.util.iterator.ExtendedIterator;
 import org.apache.jena.vocabulary.RDF;
 
+import io.fairspace.saturn.metrics.Histogram;
+import io.fairspace.saturn.rdf.transactions.AsyncViewIndexer;
 import io.fairspace.saturn.rdf.transactions.Transactions;
 import io.fairspace.saturn.services.AccessDeniedException;
 import io.fairspace.saturn.services.metadata.validation.MetadataRequestValidator;
@@ -24,6 +28,8 @@ import io.fairspace.saturn.vocabulary.FS;
 
 import static io.fairspace.saturn.audit.Audit.audit;
 import static io.fairspace.saturn.auth.RequestContext.getUserURI;
+import static io.fairspace.saturn.metrics.Metrics.LATENCY_BUCKETS;
+import static io.fairspace.saturn.metrics.Metrics.METRICS;
 import static io.fairspace.saturn.rdf.ModelUtils.EMPTY_MODEL;
 import static io.fairspace.saturn.rdf.ModelUtils.trimLabels;
 import static io.fairspace.saturn.rdf.ModelUtils.updatedView;
@@ -32,27 +38,47 @@ import static io.fairspace.saturn.services.users.UserService.currentUserAsSymbol
 import static io.fairspace.saturn.vocabulary.ShapeUtils.getPropertyShapesForResource;
 import static io.fairspace.saturn.vocabulary.Vocabularies.SYSTEM_VOCABULARY;
 
+import static java.lang.System.nanoTime;
 import static org.apache.jena.rdf.model.ModelFactory.createDefaultModel;
 
+@Log4j2
 public class MetadataService {
     private final Transactions transactions;
     private final Model vocabulary;
     private final MetadataRequestValidator validator;
     private final MetadataPermissions permissions;
+    // Not null if the views are updated in the background
+    private final AsyncViewIndexer viewIndexer;
 
     // The maximum number of items in a list in the right panel, for performance reasons.
     // If you change this, also change it in 'constants.js'
     private final int MAX_LIST_LENGTH = 100;
 
+    // Changes of at least this number of statements are executed as bulk writes
+    private static final long BULK_WRITE_THRESHOLD = 1000;
+
+    private static final Histogram VALIDATION =
+            METRICS.histogram("saturn_write_validation_seconds", "Time validating metadata changes", LATENCY_BUCKETS);
+
     public MetadataService(
             Transactions transactions,
             Model vocabulary,
             MetadataRequestValidator validator,
             MetadataPermissions permissions) {
+        this(transactions, vocabulary, validator, permissions, null);
+    }
+
+    public MetadataService(
+            Transactions transactions,
+            Model vocabulary,
+            MetadataRequestValidator validator,
+            MetadataPermissions permissions,
+            AsyncViewIndexer viewIndexer) {
         this.transactions = transactions;
         this.vocabulary = vocabulary;
         this.validator = validator;
         this.permissions = permissions;
+        this.viewIndexer = viewIndexer;
     }
 
     /**
@@ -201,7 +227,7 @@ public class MetadataService {
      * @param model
      */
     public void patch(Model model, Boolean doViewsUpdate) {
-        logUpdates(transactions.calculateWrite(before -> {
+        logUpdates(write(model.size(), before -> {
             var existing = createDefaultModel();
             model.listStatements()
                     .filterKeep(stmt -> stmt.getSubject().isURIResource())
@@ -219,7 +245,7 @@ public class MetadataService {
         var symbol = currentUserAsSymbol();
         transactions.setContextValue(
                 symbol, doViewsUpdate); // to be read downstream when Jena's transaction is being committed
-        return transactions.calculateWrite(before -> {
+        return write(modelToRemove.size() + modelToAdd.size(), before -> {
             trimLabels(modelToAdd);
             var after = updatedView(before, modelToRemove, modelToAdd);
 
@@ -234,6 +260,33 @@ public class MetadataService {
         });
     }
 
+    /**
+     * Changes of many statements, e.g. metadata imports, are executed as bulk writes,
+     * so that they don't delay interactive changes.
+     */
+    private <R> R write(long statements, ThrowingFunction<? super Model, R, RuntimeException> job) {
+        return statements >= BULK_WRITE_THRESHOLD
+                ? transactions.calculateBulkWrite(job)
+                : transactions.calculateWrite(job);
+    }
+
+    /**
+     * If the views are updated in the background, waits until the changes made so far are visible in the views,
+     * so that the caller can read its own writes. Gives up after a timeout, the views are updated later anyway.
+     */
+    public void awaitViewsUpdate() {
+        if (viewIndexer == null) {
+            return;
+        }
+        try {
+            if (!viewIndexer.awaitIndexed()) {
+                log.warn("The views are not updated yet, {} subjects are pending", viewIndexer.getPendingSubjects());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private void logDeleted(Set<Resource> updatedResources) {
         updatedResources.forEach(resource -> audit("METADATA_DELETED", "iri", resource.getURI()));
     }
@@ -243,6 +296,15 @@ public class MetadataService {
     }
 
     private void validate(Model before, Model after, Model modelToRemove, Model modelToAdd) {
+        var start = nanoTime();
+        try {
+            checkPermissionsAndValidate(before, after, modelToRemove, modelToAdd);
+        } finally {
+            VALIDATION.observeSince(start);
+        }
+    }
+
+    private void checkPermissionsAndValidate(Model before, Model after, Model modelToRemove, Model modelToAdd) {
         modelToAdd
                 .listSubjects()
                 .andThen(modelToRemove.listSubjects())
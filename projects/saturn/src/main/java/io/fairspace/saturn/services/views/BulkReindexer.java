@@ -0,0 +1,225 @@
+package io.fairspace.saturn.services.views;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.pivovarit.function.ThrowingBiConsumer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.sparql.core.DatasetGraph;
+
+import io.fairspace.saturn.config.ViewsConfig;
+
+import static io.fairspace.saturn.config.ConfigLoader.VIEWS_CONFIG;
+import static io.fairspace.saturn.services.views.ViewStoreClient.SHADOW_SUFFIX;
+
+/**
+ * Rebuilds the view database from the RDF store, while the views keep serving the current data.
+ * <p>
+ * Every view, property and join table is loaded into a shadow table by a task of its own, on a connection and
+ * in a read transaction of its own, by a number of tasks in parallel. A task creates the shadow table, streams
+ * the rows into it with COPY, then indexes and commits it. Once all tables are loaded, the materialized views are
+ * built from the shadow tables, as shadow tables as well. Finally all tables are replaced by their shadow tables
+ * in a single transaction, which also applies the changes made to the views during the reindex.
+ * If the reindex fails, the tables are left as they were.
+ * <p>
+ * Only use this class in a secure and synchronized way, see 'MaintenanceService.recreateIndex()'
+ */
+@Slf4j
+public class BulkReindexer {
+    private final ViewStoreClientFactory viewStoreClientFactory;
+    private final DatasetGraph dsg;
+    private final int parallelism;
+
+    // The number of copied rows and the time spent by view
+    private final Map<String, ViewProgress> progress = new LinkedHashMap<>();
+
+    private static class ViewProgress {
+        long rows;
+        long start = Long.MAX_VALUE;
+        long end;
+    }
+
+    public BulkReindexer(ViewStoreClientFactory viewStoreClientFactory, DatasetGraph dsg, int parallelism) {
+        this.viewStoreClientFactory = viewStoreClientFactory;
+        this.dsg = dsg;
+        this.parallelism = parallelism;
+    }
+
+    public void reindex() throws SQLException {
+        var start = System.currentTimeMillis();
+        var configuration = viewStoreClientFactory.configuration;
+        // The tables to swap, in the order of the views like the writers lock them
+        var tables = new ArrayList<String>();
+        var executor = Executors.newFixedThreadPool(
+                parallelism,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("View reindexer-%d")
+                        .setDaemon(true)
+                        .build());
+        for (var view : VIEWS_CONFIG.views) {
+            progress.put(view.name, new ViewProgress());
+        }
+        // Writers update the views while holding the write transaction of the RDF store. Starting to record
+        // their changes under that transaction as well ensures that any change not recorded is committed to the
+        // RDF store before the load tasks begin their read transactions, so it is in the shadow tables.
+        dsg.begin(ReadWrite.WRITE);
+        try {
+            viewStoreClientFactory.reindexChanges.start();
+        } finally {
+            // Nothing was written to the RDF store
+            dsg.abort();
+            dsg.end();
+        }
+        try {
+            var tasks = new ArrayList<Future<?>>();
+            for (var view : VIEWS_CONFIG.views) {
+                var viewTable = configuration.viewTables.get(view.name);
+                tables.add(viewTable.name);
+                tasks.add(executor.submit(() -> load(view, viewTable, false, (u, w) -> {
+                    for (var type : view.types) {
+                        u.copyValuesForType(view, type, w);
+                    }
+                })));
+                for (var column : view.columns) {
+                    if (!column.type.isSet()) {
+                        continue;
+                    }
+                    var propertyTable = configuration.propertyTables.get(view.name).get(column.name);
+                    tables.add(propertyTable.name);
+                    tasks.add(executor.submit(() -> load(view, propertyTable, false, (u, w) -> {
+                        for (var type : view.types) {
+                            u.copyValueSetsForColumn(view, type, column, w);
+                        }
+                    })));
+                }
+                // A reverse join shares the join table of the other side
+                for (var join : view.join) {
+                    if (join.reverse) {
+                        continue;
+                    }
+                    var joinTable = configuration.joinTables.get(view.name).get(join.view);
+                    tables.add(joinTable.name);
+                    tasks.add(executor.submit(() -> load(view, joinTable, true, (u, w) -> {
+                        for (var type : view.types) {
+                            u.copyLinks(type, join, w);
+                        }
+                    })));
+                }
+            }
+            for (var task : tasks) {
+                task.get();
+            }
+
+            var mvStart = System.currentTimeMillis();
+            tables.addAll(viewStoreClientFactory.materializedViewService.createShadowMaterializedViews(SHADOW_SUFFIX));
+            log.info("Materialized views rebuilt in {}ms", System.currentTimeMillis() - mvStart);
+
+            swap(tables);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            throw new IllegalStateException("Error recreating the view index", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while recreating the view index", e);
+        } finally {
+            executor.shutdownNow();
+            viewStoreClientFactory.reindexChanges.stop();
+        }
+
+        var totalRows = 0L;
+        for (var entry : progress.entrySet()) {
+            var viewProgress = entry.getValue();
+            var millis = Math.max(1, viewProgress.end - viewProgress.start);
+            log.info(
+                    "Reindexed view {}: {} rows in {}ms, {} rows/s",
+                    entry.getKey(),
+                    viewProgress.rows,
+                    millis,
+                    viewProgress.rows * 1000 / millis);
+            totalRows += viewProgress.rows;
+        }
+        var millis = Math.max(1, System.currentTimeMillis() - start);
+        log.info(
+                "View index recreated: {} rows in {}ms, {} rows/s, {} parallel tasks",
+                totalRows,
+                millis,
+                totalRows * 1000 / millis,
+                parallelism);
+    }
+
+    /**
+     * Loads the shadow table of a table of a view in a transaction of its own.
+     *
+     * @param joinTable Whether the table is a join table, see ViewStoreClient.indexShadowTable
+     * @param copy      Streams the rows of the table into the copy
+     */
+    private Void load(
+            ViewsConfig.View view,
+            Table table,
+            boolean joinTable,
+            ThrowingBiConsumer<ViewUpdater, CopyWriter, SQLException> copy)
+            throws SQLException {
+        var start = System.currentTimeMillis();
+        long rows;
+        try (var viewStoreClient = viewStoreClientFactory.build();
+                var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
+            var shadow = viewStoreClient.createShadowTable(table);
+            try (var writer = viewStoreClient.copyInto(shadow)) {
+                copy.accept(viewUpdater, writer);
+                rows = writer.finish();
+            }
+            viewStoreClient.indexShadowTable(shadow, joinTable);
+            // Also adds the labels of the copied terms
+            viewUpdater.commit();
+        }
+        var end = System.currentTimeMillis();
+        log.debug("Copied {} rows into table {} in {}ms", rows, table.name, end - start);
+        synchronized (progress) {
+            var viewProgress = progress.get(view.name);
+            viewProgress.rows += rows;
+            viewProgress.start = Math.min(viewProgress.start, start);
+            viewProgress.end = Math.max(viewProgress.end, end);
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the tables by their shadow tables, and updates the rows changed since the reindex started,
+     * which the shadow tables may miss, in the same transaction.
+     * <p>
+     * Holds a write transaction of the RDF store meanwhile. Writers update the views before they commit to the
+     * RDF store, so all changed rows are then complete in the RDF store, and no more can be changed.
+     * Asynchronous view updates waiting for the tables are applied to the new tables once the swap commits.
+     */
+    private void swap(List<String> tables) throws SQLException {
+        var start = System.currentTimeMillis();
+        dsg.begin(ReadWrite.WRITE);
+        try (var viewStoreClient = viewStoreClientFactory.build();
+                var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
+            viewStoreClient.swapShadowTables(tables);
+            var changedIds = viewStoreClientFactory.reindexChanges.stop();
+            viewUpdater.updateSubjects(changedIds.stream().map(NodeFactory::createURI).toList());
+            viewUpdater.commit();
+            log.info(
+                    "Swapped in {} tables and updated {} changed rows in {}ms",
+                    tables.size(),
+                    changedIds.size(),
+                    System.currentTimeMillis() - start);
+        } finally {
+            // Nothing was written to the RDF store
+            dsg.abort();
+            dsg.end();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package io.fairspace.saturn.services.views;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Loads rows into a table with COPY FROM STDIN in CSV format, streaming them in chunks.
+ * No other statements can be executed on the connection until the copy is finished.
+ */
+class CopyWriter implements AutoCloseable {
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final CopyIn copyIn;
+    private final StringBuilder buffer = new StringBuilder();
+
+    CopyWriter(Connection connection, Table table) throws SQLException {
+        var columns = table.columns.stream().map(Table.ColumnDefinition::getName).toList();
+        var sql = "copy %s (%s) from stdin with (format csv)".formatted(table.name, String.join(", ", columns));
+        copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+    }
+
+    /**
+     * @param values The values of the columns of the table, in the same order
+     */
+    void write(List<?> values) throws SQLException {
+        for (var i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                buffer.append(',');
+            }
+            append(values.get(i));
+        }
+        buffer.append('\n');
+        if (buffer.length() >= CHUNK_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * @return The number of copied rows
+     */
+    long finish() throws SQLException {
+        flush();
+        return copyIn.endCopy();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (copyIn.isActive()) {
+            copyIn.cancelCopy();
+        }
+    }
+
+    // Converts the values the same way as ViewStoreClient.setQueryValue. An unquoted empty value is null.
+    private void append(Object value) {
+        if (value == null) {
+            return;
+        }
+        var text =
+                switch (value) {
+                    case Number number -> Float.toString(number.floatValue());
+                    case Instant instant -> Timestamp.from(instant).toString();
+                    case LocalDate date -> Timestamp.valueOf(date.atStartOfDay()).toString();
+                    default -> value.toString();
+                };
+        buffer.append('"').append(text.replace("\"", "\"\"")).append('"');
+    }
+
+    private void flush() throws SQLException {
+        var bytes = buffer.toString().getBytes(UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+}
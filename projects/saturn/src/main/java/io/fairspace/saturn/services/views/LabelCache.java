@@ -0,0 +1,66 @@
+package io.fairspace.saturn.services.views;
+
+import java.util.Optional;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.lang3.tuple.Pair;
+
+import static io.fairspace.saturn.metrics.Metrics.METRICS;
+
+/**
+ * A bounded in-memory copy of the label table of the view database, shared by the view store clients and readers.
+ * Maps term ids to their (type, label), and (type, label) back to the term id.
+ * <p>
+ * Labels are only ever added to the label table, never changed or removed, so cached entries can't become stale.
+ * The writers add the labels they insert once their transaction has committed, the readers the labels they load.
+ * Missing labels are not cached, as another transaction may add them.
+ */
+public class LabelCache {
+    // (type, label) by id
+    private final Cache<String, Pair<String, String>> labelsById;
+    // id by (type, label)
+    private final Cache<Pair<String, String>, String> idsByLabel;
+
+    public LabelCache(long maximumSize) {
+        labelsById = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+        idsByLabel = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+
+        METRICS.counter(
+                "saturn_view_store_label_cache_hits_total",
+                "Labels found in the label cache",
+                () -> labelsById.stats().hitCount() + idsByLabel.stats().hitCount());
+        METRICS.counter(
+                "saturn_view_store_label_cache_misses_total",
+                "Labels not found in the label cache",
+                () -> labelsById.stats().missCount() + idsByLabel.stats().missCount());
+    }
+
+    /**
+     * Adds a label which exists in the label table.
+     */
+    public void put(String id, String type, String label) {
+        labelsById.put(id, Pair.of(type, label));
+        if (label != null) {
+            idsByLabel.asMap().putIfAbsent(Pair.of(type, label), id);
+        }
+    }
+
+    public boolean contains(String id) {
+        return labelsById.getIfPresent(id) != null;
+    }
+
+    /**
+     * @return The (type, label) of a term, empty if not cached
+     */
+    public Optional<Pair<String, String>> get(String id) {
+        return Optional.ofNullable(labelsById.getIfPresent(id));
+    }
+
+    /**
+     * @return The id of a term of the given type with the given label, empty if not cached
+     */
+    public Optional<String> getId(String type, String label) {
+        return Optional.ofNullable(idsByLabel.getIfPresent(Pair.of(type, label)));
+    }
+}
@@ -4,23 +4,42 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.sql.DataSource;
 
 import lombok.extern.slf4j.Slf4j;
 
 import io.fairspace.saturn.config.ViewsConfig;
+import io.fairspace.saturn.metrics.Histogram;
 
 import static io.fairspace.saturn.config.ConfigLoader.VIEWS_CONFIG;
+import static io.fairspace.saturn.metrics.Metrics.LATENCY_BUCKETS;
+import static io.fairspace.saturn.metrics.Metrics.METRICS;
+import static io.fairspace.saturn.services.views.Table.idColumn;
 
+import static java.lang.System.nanoTime;
+
+/**
+ * Maintains the materialized views read by ViewStoreReader: mv_view joins the rows of a view with its value sets,
+ * mv_view_join_joinedview joins them with the rows of a joined view.
+ * They are plain tables, built at startup and then maintained incrementally: before a view store transaction commits,
+ * the rows of the changed subjects are deleted and computed again from the view tables, in the same transaction.
+ * So they are never stale, and updating them costs in proportion to the change rather than to the size of the view.
+ */
 @Slf4j
 public class MaterializedViewService {
 
     private static final String INDEX_POSTFIX = "_idx";
-    private static final String UNIQUE_INDEX_POSTFIX = "_unique_idx";
     private static final int FIRST_ROW_IDX = 1;
 
+    private static final Histogram UPDATE = METRICS.histogram(
+            "saturn_view_store_mv_update_seconds",
+            "Time updating the materialized views in a view store transaction",
+            LATENCY_BUCKETS);
+
     private final DataSource dataSource;
     private final ViewStoreClient.ViewStoreConfiguration configuration;
     private final int maxJoinItems;
@@ -32,11 +51,32 @@ public class MaterializedViewService {
         this.maxJoinItems = maxJoinItems;
     }
 
-    public void createOrUpdateAllMaterializedViews() {
+    /**
+     * Creates the missing materialized views, and replaces the ones created as PostgreSQL materialized views
+     * by earlier versions.
+     *
+     * @param rebuild Whether to build the existing ones again as well, e.g. after a change of the views configuration
+     */
+    public void createOrUpdateAllMaterializedViews(boolean rebuild) {
         try (var connection = dataSource.getConnection()) {
             for (var view : VIEWS_CONFIG.views) {
-                createOrUpdateViewMaterializedView(view, connection);
-                createOrUpdateJoinMaterializedView(view, connection);
+                if (hasSetColumns(view)) {
+                    var viewName = view.name.toLowerCase();
+                    createOrUpdateMaterializedView(
+                            viewMaterializedViewName(view),
+                            viewQuery(view, false, ""),
+                            List.of(viewName + "id"),
+                            rebuild,
+                            connection);
+                }
+                for (var joinView : view.join) {
+                    createOrUpdateMaterializedView(
+                            joinMaterializedViewName(view, joinView),
+                            joinQuery(view, joinView, false, ""),
+                            List.of(idColumn(view.name).name, idColumn(joinView.view).name),
+                            rebuild,
+                            connection);
+                }
             }
         } catch (SQLException e) {
             log.error("Materialized view create/update failed", e);
@@ -44,94 +84,210 @@ public class MaterializedViewService {
         }
     }
 
-    private void createOrUpdateViewMaterializedView(ViewsConfig.View view, Connection connection) throws SQLException {
-        var setColumns =
-                view.columns.stream().filter(column -> column.type.isSet()).toList();
-        if (!setColumns.isEmpty()) {
-            String viewName = view.name.toLowerCase();
-            var mvName = "mv_%s".formatted(viewName);
-
-            log.info("View materialized view {} create/update has started", mvName);
-            // all checks and changes to be done in one transaction
-            connection.setAutoCommit(false);
-            try {
-                List<String> columns = collectViewColumns(view);
-                if (doesMaterializedViewExist(mvName, connection)) {
-                    // 'refresh' requires unique index based on all columns, so we have to check if it exists
-                    createMaterializedViewUniqueIndexIfNotExist(
-                            viewName + UNIQUE_INDEX_POSTFIX, mvName, columns, connection);
-                    refreshMaterializedView(mvName, connection);
-                } else {
-                    createViewMaterializedView(mvName, view, setColumns, connection);
-                    createMaterializedViewIndex(viewName + INDEX_POSTFIX, mvName, viewName + "id", connection);
-                    createMaterializedViewUniqueIndexIfNotExist(
-                            viewName + UNIQUE_INDEX_POSTFIX, mvName, columns, connection);
+    /**
+     * Updates the materialized views for the changes of a view store transaction, in that transaction.
+     *
+     * @param changedRows    The ids of the changed rows by view, including rows with changed value sets or links
+     * @param truncatedViews The views whose tables were truncated, the materialized views of which are rebuilt
+     */
+    void update(Connection connection, Map<String, Set<String>> changedRows, Set<String> truncatedViews)
+            throws SQLException {
+        if (changedRows.isEmpty() && truncatedViews.isEmpty()) {
+            return;
+        }
+        var start = nanoTime();
+        try {
+            // Always in the same order, so that concurrent transactions lock the tables in the same order
+            for (var view : VIEWS_CONFIG.views) {
+                if (hasSetColumns(view)) {
+                    var mvName = viewMaterializedViewName(view);
+                    if (truncatedViews.contains(view.name)) {
+                        rebuildMaterializedView(mvName, viewQuery(view, false, ""), connection);
+                    } else {
+                        updateMaterializedView(
+                                mvName,
+                                view.name.toLowerCase() + "id",
+                                viewQuery(view, true, ""),
+                                changedRows.getOrDefault(view.name, Set.of()),
+                                connection);
+                    }
+                }
+                for (var joinView : view.join) {
+                    var mvName = joinMaterializedViewName(view, joinView);
+                    if (truncatedViews.contains(view.name) || truncatedViews.contains(joinView.view)) {
+                        rebuildMaterializedView(mvName, joinQuery(view, joinView, false, ""), connection);
+                    } else {
+                        updateMaterializedView(
+                                mvName,
+                                idColumn(view.name).name,
+                                joinQuery(view, joinView, true, ""),
+                                getAffectedJoinRows(view, joinView, changedRows, connection),
+                                connection);
+                    }
                 }
-                connection.commit();
-                log.info("View materialized view {} create/update has finished successfully", mvName);
-            } catch (SQLException e) {
-                connection.rollback();
-                throw e;
-            } finally {
-                connection.setAutoCommit(true);
             }
+        } finally {
+            UPDATE.observeSince(start);
         }
     }
 
-    private void createOrUpdateJoinMaterializedView(ViewsConfig.View view, Connection connection) throws SQLException {
-        for (ViewsConfig.View.JoinView joinView : view.join) {
-            String viewName = view.name.toLowerCase();
-            String joinViewName = joinView.view.toLowerCase();
-            var mvName = "mv_%s_join_%s".formatted(viewName, joinViewName);
-
-            log.info("Join materialized view {} create/update has started", mvName);
-            // all checks and changes to be done in one transaction
-            connection.setAutoCommit(false);
-            try {
-                List<String> columns = collectJoinColumns(view, joinView);
-                if (doesMaterializedViewExist(mvName, connection)) {
-                    // 'refresh' requires unique index based on all columns, so we have to check if it exists
-                    createMaterializedViewUniqueIndexIfNotExist(
-                            mvName + UNIQUE_INDEX_POSTFIX, mvName, columns, connection);
-                    refreshMaterializedView(mvName, connection);
-                } else {
-                    createJoinMaterializedViews(view, joinView, connection);
-                    createMaterializedViewIndex(
-                            mvName + "_" + viewName + INDEX_POSTFIX, mvName, viewName + "_id", connection);
-                    createMaterializedViewIndex(
-                            mvName + "_" + joinViewName + INDEX_POSTFIX, mvName, joinViewName + "_id", connection);
-                    createMaterializedViewUniqueIndexIfNotExist(
-                            mvName + UNIQUE_INDEX_POSTFIX, mvName, columns, connection);
+    /**
+     * Builds the materialized views from the shadow tables of a reindex, as shadow tables themselves,
+     * to be swapped in together with them, see BulkReindexer.
+     *
+     * @param suffix The suffix of the names of the shadow tables
+     * @return The names of the materialized views
+     */
+    List<String> createShadowMaterializedViews(String suffix) throws SQLException {
+        var mvNames = new ArrayList<String>();
+        try (var connection = dataSource.getConnection()) {
+            for (var view : VIEWS_CONFIG.views) {
+                if (hasSetColumns(view)) {
+                    var mvName = viewMaterializedViewName(view);
+                    createShadowMaterializedView(
+                            mvName + suffix,
+                            viewQuery(view, false, suffix),
+                            List.of(view.name.toLowerCase() + "id"),
+                            connection);
+                    mvNames.add(mvName);
+                }
+                for (var joinView : view.join) {
+                    var mvName = joinMaterializedViewName(view, joinView);
+                    createShadowMaterializedView(
+                            mvName + suffix,
+                            joinQuery(view, joinView, false, suffix),
+                            List.of(idColumn(view.name).name, idColumn(joinView.view).name),
+                            connection);
+                    mvNames.add(mvName);
                 }
-                connection.commit();
-                log.info("Join  materialized view {} create/update has finished successfully", mvName);
-            } catch (SQLException e) {
-                connection.rollback();
-                throw e;
-            } finally {
-                connection.setAutoCommit(true);
             }
+            connection.commit();
         }
+        return mvNames;
     }
 
-    private void refreshMaterializedView(String mvName, Connection connection) throws SQLException {
-        var query = "REFRESH MATERIALIZED VIEW CONCURRENTLY %s".formatted(mvName);
-        try (var ps = connection.prepareStatement(query)) {
-            ps.execute();
+    private static void createShadowMaterializedView(
+            String shadowName, String query, List<String> indexedColumns, Connection connection)
+            throws SQLException {
+        log.debug("Building materialized view {}", shadowName);
+        execute("DROP TABLE IF EXISTS %s".formatted(shadowName), connection);
+        execute("CREATE TABLE %s AS %s".formatted(shadowName, query), connection);
+        for (var column : indexedColumns) {
+            var indexName = shadowName + "_" + column + INDEX_POSTFIX;
+            execute("CREATE INDEX %s ON %s (%s)".formatted(indexName, shadowName, column), connection);
         }
+        execute("ANALYZE %s".formatted(shadowName), connection);
     }
 
-    private void createMaterializedViewUniqueIndexIfNotExist(
-            String idxName, String mvName, List<String> columns, Connection connection) throws SQLException {
-        if (!doesIndexExist(mvName, idxName, connection)) {
-            var joinedColumns = String.join(", ", columns);
-            var query = "CREATE UNIQUE INDEX %s ON %s (%s)".formatted(idxName, mvName, joinedColumns);
+    /**
+     * The rows of the view to join again: the changed ones and the ones linked to changed rows of the joined view.
+     */
+    private Set<String> getAffectedJoinRows(
+            ViewsConfig.View view,
+            ViewsConfig.View.JoinView joinView,
+            Map<String, Set<String>> changedRows,
+            Connection connection)
+            throws SQLException {
+        var ids = new HashSet<>(changedRows.getOrDefault(view.name, Set.of()));
+        var changedJoinedRows = changedRows.getOrDefault(joinView.view, Set.of());
+        if (!changedJoinedRows.isEmpty()) {
+            var joinTable = configuration.joinTables.get(view.name).get(joinView.view).name;
+            var query = "SELECT %s FROM %s WHERE %s = ANY(?::text[])"
+                    .formatted(idColumn(view.name).name, joinTable, idColumn(joinView.view).name);
             try (var ps = connection.prepareStatement(query)) {
-                ps.execute();
+                ps.setArray(1, connection.createArrayOf("text", changedJoinedRows.toArray()));
+                var rs = ps.executeQuery();
+                while (rs.next()) {
+                    ids.add(rs.getString(FIRST_ROW_IDX));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private void createOrUpdateMaterializedView(
+            String mvName, String query, List<String> indexedColumns, boolean rebuild, Connection connection)
+            throws SQLException {
+        var isMaterializedView = doesMaterializedViewExist(mvName, connection);
+        if (!rebuild && !isMaterializedView && doesTableExist(mvName, connection)) {
+            return;
+        }
+
+        log.info("Materialized view {} create/update has started", mvName);
+        // all changes to be done in one transaction
+        connection.setAutoCommit(false);
+        try {
+            var drop = isMaterializedView ? "DROP MATERIALIZED VIEW %s" : "DROP TABLE IF EXISTS %s";
+            execute(drop.formatted(mvName), connection);
+            execute("CREATE TABLE %s AS %s".formatted(mvName, query), connection);
+            for (var column : indexedColumns) {
+                execute(
+                        "CREATE INDEX %s ON %s (%s)".formatted(mvName + "_" + column + INDEX_POSTFIX, mvName, column),
+                        connection);
             }
+            connection.commit();
+            log.info("Materialized view {} create/update has finished successfully", mvName);
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static void updateMaterializedView(
+            String mvName, String idColumn, String query, Set<String> ids, Connection connection)
+            throws SQLException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        lock(mvName, connection);
+        var array = connection.createArrayOf("text", ids.toArray());
+        var deleteSql = "DELETE FROM %s WHERE %s = ANY(?::text[])".formatted(mvName, idColumn);
+        try (var delete = connection.prepareStatement(deleteSql);
+                var insert = connection.prepareStatement("INSERT INTO %s %s".formatted(mvName, query))) {
+            delete.setArray(1, array);
+            var deleteCount = delete.executeUpdate();
+            insert.setArray(1, array);
+            var insertCount = insert.executeUpdate();
+            log.debug("Deleted {}, inserted {} rows of materialized view {}", deleteCount, insertCount, mvName);
         }
     }
 
+    private static void rebuildMaterializedView(String mvName, String query, Connection connection)
+            throws SQLException {
+        log.info("Rebuilding materialized view {}", mvName);
+        lock(mvName, connection);
+        execute("DELETE FROM %s".formatted(mvName), connection);
+        execute("INSERT INTO %s %s".formatted(mvName, query), connection);
+    }
+
+    /**
+     * Serializes the updates of concurrent transactions, which could otherwise both insert the rows of a subject.
+     * Doesn't block the readers.
+     */
+    private static void lock(String mvName, Connection connection) throws SQLException {
+        execute("LOCK TABLE %s IN SHARE ROW EXCLUSIVE MODE".formatted(mvName), connection);
+    }
+
+    private static void execute(String query, Connection connection) throws SQLException {
+        try (var ps = connection.prepareStatement(query)) {
+            ps.execute();
+        }
+    }
+
+    private static boolean hasSetColumns(ViewsConfig.View view) {
+        return view.columns.stream().anyMatch(column -> column.type.isSet());
+    }
+
+    private static String viewMaterializedViewName(ViewsConfig.View view) {
+        return "mv_%s".formatted(view.name.toLowerCase());
+    }
+
+    private static String joinMaterializedViewName(ViewsConfig.View view, ViewsConfig.View.JoinView joinView) {
+        return "mv_%s_join_%s".formatted(view.name.toLowerCase(), joinView.view.toLowerCase());
+    }
+
     private boolean doesMaterializedViewExist(String viewName, Connection connection) throws SQLException {
         var query = "SELECT EXISTS (SELECT 1 FROM pg_matviews WHERE matviewname = '%s')".formatted(viewName);
         try (var ps = connection.prepareStatement(query)) {
@@ -141,9 +297,8 @@ public class MaterializedViewService {
         }
     }
 
-    private boolean doesIndexExist(String mvName, String idxName, Connection connection) throws SQLException {
-        var query = "SELECT EXISTS (SELECT * FROM pg_indexes WHERE tablename = '%s' AND indexname = '%s')"
-                .formatted(mvName, idxName);
+    private boolean doesTableExist(String tableName, Connection connection) throws SQLException {
+        var query = "SELECT EXISTS (SELECT 1 FROM pg_tables WHERE tablename = '%s')".formatted(tableName);
         try (var ps = connection.prepareStatement(query)) {
             var rs = ps.executeQuery();
             rs.next();
@@ -151,20 +306,15 @@ public class MaterializedViewService {
         }
     }
 
-    private void createViewMaterializedView(
-            String viewOrTableName,
-            ViewsConfig.View view,
-            List<ViewsConfig.View.Column> setColumns,
-            Connection connection)
-            throws SQLException {
+    /**
+     * @param filtered Whether to select the rows with the ids given as an array parameter only
+     * @param suffix   The suffix of the names of the tables to select from, see createShadowMaterializedViews
+     */
+    private String viewQuery(ViewsConfig.View view, boolean filtered, String suffix) {
+        var setColumns =
+                view.columns.stream().filter(column -> column.type.isSet()).toList();
         String viewName = view.name.toLowerCase();
-        var queryBuilder = new StringBuilder()
-                .append("CREATE MATERIALIZED VIEW ")
-                .append(viewOrTableName)
-                .append(" AS ")
-                .append("SELECT v.id AS ")
-                .append(viewName)
-                .append("id, ");
+        var queryBuilder = new StringBuilder().append("SELECT v.id AS ").append(viewName).append("id, ");
         for (int i = 0; i < setColumns.size(); i++) {
             queryBuilder
                     .append("i")
@@ -175,7 +325,7 @@ public class MaterializedViewService {
                 queryBuilder.append(", ");
             }
         }
-        queryBuilder.append(" FROM ").append(viewName).append(" v ");
+        queryBuilder.append(" FROM ").append(viewName).append(suffix).append(" v ");
         for (int i = 0; i < setColumns.size(); i++) {
             var alias = "i" + i;
             var columnName = setColumns.get(i).name.toLowerCase();
@@ -184,6 +334,7 @@ public class MaterializedViewService {
                     .append(viewName)
                     .append("_")
                     .append(columnName)
+                    .append(suffix)
                     .append(" ")
                     .append(alias)
                     .append(" ON ")
@@ -193,24 +344,18 @@ public class MaterializedViewService {
                     .append(viewName)
                     .append("_id ");
         }
-
-        try (var ps = connection.prepareStatement(queryBuilder.toString())) {
-            ps.execute();
-        }
-    }
-
-    private void createMaterializedViewIndex(
-            String indexName, String materializedViewName, String columnName, Connection connection)
-            throws SQLException {
-        var query = "CREATE INDEX %s on %s (%s)".formatted(indexName, materializedViewName, columnName);
-        try (var ps = connection.prepareStatement(query)) {
-            ps.execute();
-            connection.commit();
+        if (filtered) {
+            queryBuilder.append("WHERE v.id = ANY(?::text[]) ");
         }
+        return queryBuilder.toString();
     }
 
-    private void createJoinMaterializedViews(
-            ViewsConfig.View view, ViewsConfig.View.JoinView joinView, Connection connection) throws SQLException {
+    /**
+     * @param filtered Whether to select the rows with the view ids given as an array parameter only
+     * @param suffix   The suffix of the names of the tables to select from, see createShadowMaterializedViews
+     */
+    private String joinQuery(
+            ViewsConfig.View view, ViewsConfig.View.JoinView joinView, boolean filtered, String suffix) {
         var viewTableName = view.name.toLowerCase();
         var joinTable = configuration.joinTables.get(view.name).get(joinView.view).name;
         var joinedTable = configuration.viewTables.get(joinView.view).name.toLowerCase();
@@ -218,11 +363,6 @@ public class MaterializedViewService {
         var joinIdColumn = joinedTable + "_id";
         var joinLabelColumn = joinedTable + "_label";
         var queryBuilder = new StringBuilder()
-                .append("create materialized view mv_")
-                .append(viewTableName)
-                .append("_join_")
-                .append(joinedTable)
-                .append(" as ")
                 .append("with numbered_rows AS (select v.id  AS ")
                 .append(viewIdColumn)
                 .append(", ")
@@ -267,16 +407,19 @@ public class MaterializedViewService {
                 .append("row_number() over (partition by v.id) as rn ")
                 .append("from ")
                 .append(viewTableName)
+                .append(suffix)
                 .append(" v ");
 
         queryBuilder
                 .append("left join ")
                 .append(joinTable)
+                .append(suffix)
                 .append(" jt on v.id = jt.")
                 .append(viewTableName)
                 .append("_id ")
                 .append("left join ")
                 .append(joinedTable)
+                .append(suffix)
                 .append(" jt_0 on jt_0.id = jt.")
                 .append(joinedTable)
                 .append("_id ");
@@ -294,6 +437,7 @@ public class MaterializedViewService {
             queryBuilder
                     .append("left join ")
                     .append(columnName)
+                    .append(suffix)
                     .append(" ")
                     .append(tableAliases.get(columnName))
                     .append(" on ")
@@ -306,6 +450,10 @@ public class MaterializedViewService {
                     .append("_id ");
         }
 
+        if (filtered) {
+            queryBuilder.append("where v.id = ANY(?::text[]) ");
+        }
+
         queryBuilder.append(") ");
 
         queryBuilder
@@ -314,35 +462,6 @@ public class MaterializedViewService {
                 .append(" from numbered_rows where rn <= ")
                 .append(maxJoinItems);
 
-        try (var ps = connection.prepareStatement(queryBuilder.toString())) {
-            ps.execute();
-            connection.commit();
-        }
-    }
-
-    private List<String> collectViewColumns(ViewsConfig.View view) {
-        List<String> columns = view.columns.stream()
-                .filter(column -> column.type.isSet())
-                .map(column -> column.name.toLowerCase())
-                .toList();
-        columns = new ArrayList<>(columns);
-        columns.add(view.name.toLowerCase() + "id");
-        return columns;
-    }
-
-    private List<String> collectJoinColumns(ViewsConfig.View view, ViewsConfig.View.JoinView joinView) {
-        var viewTableName = view.name.toLowerCase();
-        var joinedTable = configuration.viewTables.get(joinView.view).name.toLowerCase();
-        var viewIdColumn = viewTableName + "_id";
-        var joinIdColumn = joinedTable + "_id";
-        var joinLabelColumn = joinedTable + "_label";
-        var columns = new ArrayList<>(List.of(viewIdColumn, joinIdColumn, joinLabelColumn));
-        for (int i = 0; i < joinView.include.size(); i++) {
-            var attr = joinView.include.get(i).toLowerCase();
-            if (!"id".equalsIgnoreCase(attr)) {
-                columns.add(joinedTable + "_" + attr);
-            }
-        }
-        return columns;
+        return queryBuilder.toString();
     }
 }
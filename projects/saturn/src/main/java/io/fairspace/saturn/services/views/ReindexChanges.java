@@ -0,0 +1,34 @@
+package io.fairspace.saturn.services.views;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Collects the ids of the view rows changed by the view store transactions committed while the view index
+ * is being recreated. The reindex loads shadow tables from read transactions of the RDF store, and applies
+ * the changes made to the live tables meanwhile once it has swapped them in, see BulkReindexer.
+ */
+public class ReindexChanges {
+    // Null if no reindex is running
+    private Set<String> ids;
+
+    synchronized void start() {
+        ids = new HashSet<>();
+    }
+
+    synchronized void add(Collection<String> changedIds) {
+        if (ids != null) {
+            ids.addAll(changedIds);
+        }
+    }
+
+    /**
+     * @return The ids of the rows changed since start
+     */
+    synchronized Set<String> stop() {
+        var result = ids != null ? ids : Set.<String>of();
+        ids = null;
+        return result;
+    }
+}
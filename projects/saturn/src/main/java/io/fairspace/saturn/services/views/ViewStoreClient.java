@@ -6,6 +6,8 @@ import java.util.*;
 import java.util.function.*;
 import java.util.stream.*;
 
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import lombok.Getter;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.*;
@@ -20,6 +22,10 @@ import static io.fairspace.saturn.services.views.Table.valueColumn;
 
 @Slf4j
 public class ViewStoreClient implements AutoCloseable {
+    // The maximum number of parameters of a PostgreSQL statement
+    private static final int MAX_PARAMETERS = 32767;
+    // Appended to the name of a table to get the name of its shadow table, see createShadowTable
+    static final String SHADOW_SUFFIX = "__next";
 
     public static class ViewStoreConfiguration {
         final Map<String, View> viewConfig;
@@ -58,13 +64,28 @@ public class ViewStoreClient implements AutoCloseable {
 
     private final MaterializedViewService materializedViewService;
 
+    private final LabelCache labelCache;
+
+    private final ReindexChanges reindexChanges;
+
+    // The ids of the rows changed in the current transaction by view, see MaterializedViewService.update
+    private final Map<String, Set<String>> changedRows = new HashMap<>();
+    // The views whose tables were truncated in the current transaction
+    private final Set<String> truncatedViews = new HashSet<>();
+    // The labels to add on commit, (type, label) by id
+    private final Map<String, Pair<String, String>> labels = new LinkedHashMap<>();
+
     public ViewStoreClient(
             Connection connection,
             ViewStoreConfiguration configuration,
-            MaterializedViewService materializedViewService) {
+            MaterializedViewService materializedViewService,
+            LabelCache labelCache,
+            ReindexChanges reindexChanges) {
         this.connection = connection;
         this.configuration = configuration;
         this.materializedViewService = materializedViewService;
+        this.labelCache = labelCache;
+        this.reindexChanges = reindexChanges;
     }
 
     @Override
@@ -73,44 +94,76 @@ public class ViewStoreClient implements AutoCloseable {
     }
 
     public void commit() throws SQLException {
-        this.connection.commit();
-        materializedViewService.createOrUpdateAllMaterializedViews();
+        try {
+            var insertedLabels = flushLabels();
+            materializedViewService.update(connection, changedRows, truncatedViews);
+            changedRows.values().forEach(reindexChanges::add);
+            this.connection.commit();
+            insertedLabels.forEach(label -> labelCache.put(label.getLeft(), label.getMiddle(), label.getRight()));
+        } finally {
+            labels.clear();
+            changedRows.clear();
+            truncatedViews.clear();
+        }
+    }
+
+    private void markChanged(String view, Collection<String> ids) {
+        if (!truncatedViews.contains(view)) {
+            changedRows.computeIfAbsent(view, v -> new HashSet<>()).addAll(ids);
+        }
+    }
+
+    private Array textArray(Collection<String> values) throws SQLException {
+        return connection.createArrayOf("text", values.toArray());
     }
 
-    public void deleteRow(String view, String uri) throws SQLException {
+    public void deleteRows(String view, Collection<String> ids) throws SQLException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        markChanged(view, ids);
         var viewTable = configuration.viewTables.get(view);
-        try (var query = connection.prepareStatement("delete from " + viewTable.name + " where id = ?")) {
-            query.setString(1, uri);
+        try (var query = connection.prepareStatement("delete from " + viewTable.name + " where id = any(?)")) {
+            query.setArray(1, textArray(ids));
             var deletedCount = query.executeUpdate();
             log.debug("Deleted {} rows from view {}", deletedCount, view);
         }
     }
 
-    Set<String> retrieveValues(String joinTable, String view, String id, ColumnDefinition column) throws SQLException {
-        try (var query = connection.prepareStatement(
-                "select " + column.name + " from " + joinTable + " where " + idColumn(view).name + " = ?")) {
-            query.setString(1, id);
+    /**
+     * @return The values by id of the rows with the given ids
+     */
+    Map<String, Set<String>> retrieveValues(
+            Table table, ColumnDefinition idColumn, ColumnDefinition valueColumn, Collection<String> ids)
+            throws SQLException {
+        var sql = "select " + idColumn.name + ", " + valueColumn.name + " from " + table.name + " where "
+                + idColumn.name + " = any(?)";
+        try (var query = connection.prepareStatement(sql)) {
+            query.setArray(1, textArray(ids));
             var result = query.executeQuery();
-            var links = new HashSet<String>();
+            var values = new HashMap<String, Set<String>>();
             while (result.next()) {
-                links.add(result.getString(1));
+                values.computeIfAbsent(result.getString(1), id -> new HashSet<>()).add(result.getString(2));
             }
-            return links;
+            return values;
         }
     }
 
     int deleteValues(
-            Table table, ColumnDefinition idColumn, String id, ColumnDefinition valueColumn, Collection<String> values)
+            Table table,
+            ColumnDefinition idColumn,
+            ColumnDefinition valueColumn,
+            Collection<Pair<String, String>> values)
             throws SQLException {
-        var deleteSql =
-                "delete from " + table.name + " where " + idColumn.name + " = ? " + " and " + valueColumn.name + " = ?";
+        if (values.isEmpty()) {
+            return 0;
+        }
+        var deleteSql = "delete from " + table.name + " where ( " + idColumn.name + ", " + valueColumn.name
+                + " ) in ( select * from unnest(?::text[], ?::text[]) )";
         try (var delete = connection.prepareStatement(deleteSql)) {
-            for (String value : values) {
-                delete.setString(1, id);
-                delete.setString(2, value);
-                delete.addBatch();
-            }
-            return Arrays.stream(delete.executeBatch()).sum();
+            delete.setArray(1, textArray(values.stream().map(Pair::getKey).toList()));
+            delete.setArray(2, textArray(values.stream().map(Pair::getValue).toList()));
+            return delete.executeUpdate();
         }
     }
 
@@ -120,87 +173,138 @@ public class ViewStoreClient implements AutoCloseable {
             ColumnDefinition valueColumn,
             Collection<Pair<String, String>> values)
             throws SQLException {
-        var insertSql =
-                "insert into " + table.name + " ( " + idColumn.name + ", " + valueColumn.name + " ) values ( ?, ? )";
+        if (values.isEmpty()) {
+            return 0;
+        }
+        var insertSql = "insert into " + table.name + " ( " + idColumn.name + ", " + valueColumn.name
+                + " ) select * from unnest(?::text[], ?::text[])";
         try (var insert = connection.prepareStatement(insertSql)) {
-            for (var value : values) {
-                insert.setString(1, value.getKey());
-                insert.setString(2, value.getValue());
-                insert.addBatch();
-            }
-            return Arrays.stream(insert.executeBatch()).sum();
+            insert.setArray(1, textArray(values.stream().map(Pair::getKey).toList()));
+            insert.setArray(2, textArray(values.stream().map(Pair::getValue).toList()));
+            return insert.executeUpdate();
         }
     }
 
-    public void updateValues(String view, String id, String property, Set<String> values) throws SQLException {
+    /**
+     * Replaces the values of a set property of rows of a view.
+     *
+     * @param valuesById The new values by row id
+     */
+    public void updateValues(String view, String property, Map<String, Set<String>> valuesById)
+            throws SQLException {
+        if (valuesById.isEmpty()) {
+            return;
+        }
         var propertyTable = configuration.propertyTables.get(view).get(property);
         var valueColumn = valueColumn(property, ColumnType.Text);
-        var existing = retrieveValues(propertyTable.name, view, id, valueColumn);
-
-        var deleteCount = deleteValues(
-                propertyTable,
-                idColumn(view),
-                id,
-                valueColumn,
-                existing.stream().filter(value -> !values.contains(value)).collect(Collectors.toList()));
-
-        var insertCount = insertValues(
-                propertyTable,
-                idColumn(view),
-                valueColumn,
-                values.stream()
-                        .filter(value -> !existing.contains(value))
-                        .map(value -> Pair.of(id, value))
-                        .collect(Collectors.toList()));
+        var existing = retrieveValues(propertyTable, idColumn(view), valueColumn, valuesById.keySet());
+
+        var removed = new ArrayList<Pair<String, String>>();
+        var added = new ArrayList<Pair<String, String>>();
+        diff(valuesById, existing, removed, added);
+        for (var value : Iterables.concat(removed, added)) {
+            markChanged(view, List.of(value.getKey()));
+        }
+
+        var deleteCount = deleteValues(propertyTable, idColumn(view), valueColumn, removed);
+        var insertCount = insertValues(propertyTable, idColumn(view), valueColumn, added);
 
         log.debug("Deleted {}, inserted {} values for {}_{}", deleteCount, insertCount, view, property);
     }
 
-    public void updateLinks(String view, String id, String joinView, Set<String> links) throws SQLException {
+    /**
+     * Replaces the links of rows of a view to rows of a joined view.
+     *
+     * @param linksById The ids of the new linked rows by row id
+     */
+    public void updateLinks(String view, String joinView, Map<String, Set<String>> linksById) throws SQLException {
+        if (linksById.isEmpty()) {
+            return;
+        }
         var joinTable = configuration.joinTables.get(view).get(joinView);
-        var existing = retrieveValues(joinTable.name, view, id, idColumn(joinView));
-
-        var deleteCount = deleteValues(
-                joinTable,
-                idColumn(view),
-                id,
-                idColumn(joinView),
-                existing.stream().filter(link -> !links.contains(link)).collect(Collectors.toList()));
-
-        var insertCount = insertValues(
-                joinTable,
-                idColumn(view),
-                idColumn(joinView),
-                links.stream()
-                        .filter(link -> !existing.contains(link))
-                        .map(link -> Pair.of(id, link))
-                        .collect(Collectors.toList()));
+        var existing = retrieveValues(joinTable, idColumn(view), idColumn(joinView), linksById.keySet());
+
+        var removed = new ArrayList<Pair<String, String>>();
+        var added = new ArrayList<Pair<String, String>>();
+        diff(linksById, existing, removed, added);
+        // The join rows of both sides change
+        for (var link : Iterables.concat(removed, added)) {
+            markChanged(view, List.of(link.getKey()));
+            markChanged(joinView, List.of(link.getValue()));
+        }
+
+        var deleteCount = deleteValues(joinTable, idColumn(view), idColumn(joinView), removed);
+        var insertCount = insertValues(joinTable, idColumn(view), idColumn(joinView), added);
 
         log.debug("Deleted {}, inserted {} links for {} - {}", deleteCount, insertCount, view, joinView);
     }
 
-    boolean rowExists(String table, String id) throws SQLException {
-        try (var query = connection.prepareStatement("select exists ( select 1 from " + table + " where id = ? )")) {
-            query.setString(1, id);
-            var result = query.executeQuery();
-            result.next();
-            return result.getBoolean(1);
+    /**
+     * Computes the (id, value) pairs to remove and to add to turn the existing values into the new ones.
+     */
+    private static void diff(
+            Map<String, Set<String>> newValues,
+            Map<String, Set<String>> existing,
+            List<Pair<String, String>> removed,
+            List<Pair<String, String>> added) {
+        for (var entry : newValues.entrySet()) {
+            var id = entry.getKey();
+            var values = entry.getValue();
+            var current = existing.getOrDefault(id, Set.of());
+            for (var value : current) {
+                if (!values.contains(value)) {
+                    removed.add(Pair.of(id, value));
+                }
+            }
+            for (var value : values) {
+                if (!current.contains(value)) {
+                    added.add(Pair.of(id, value));
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a label, unless one exists for the id. The labels are written on commit.
+     */
+    public void addLabel(String id, String type, String label) {
+        if (!labelCache.contains(id)) {
+            labels.putIfAbsent(id, Pair.of(type, label));
         }
     }
 
-    public void addLabel(String id, String type, String label) throws SQLException {
-        if (!rowExists("label", id)) {
-            try (var insert = connection.prepareStatement("insert into label (id, type, label) values (?, ?, ?)")) {
-                insert.setString(1, id);
-                insert.setString(2, type);
-                insert.setString(3, label);
-                insert.executeUpdate();
-                log.debug("Inserted label '{}' for {} (type {})", label, id, type);
+    /**
+     * @return The inserted (id, type, label) triples, to be cached once committed
+     */
+    private List<Triple<String, String, String>> flushLabels() throws SQLException {
+        var inserted = new ArrayList<Triple<String, String, String>>();
+        if (labels.isEmpty()) {
+            return inserted;
+        }
+        // Ordered, so that concurrent transactions lock the rows of shared labels in the same order
+        try (var insert = connection.prepareStatement("insert into label (id, type, label) "
+                + "select * from unnest(?::text[], ?::text[], ?::text[]) order by 1 on conflict (id) do nothing "
+                + "returning id, type, label")) {
+            insert.setArray(1, textArray(labels.keySet()));
+            insert.setArray(2, textArray(labels.values().stream().map(Pair::getKey).toList()));
+            insert.setArray(3, textArray(labels.values().stream().map(Pair::getValue).toList()));
+            var result = insert.executeQuery();
+            while (result.next()) {
+                inserted.add(Triple.of(result.getString("id"), result.getString("type"), result.getString("label")));
             }
+            log.debug("Inserted {} of {} labels", inserted.size(), labels.size());
         }
+        return inserted;
     }
 
+    /**
+     * Inserts or updates rows of a view, in statements of up to MAX_PARAMETERS parameters.
+     *
+     * @param bulkInsert Whether the rows are known not to exist yet, e.g. after truncating the view tables
+     * @return The number of inserted or updated rows
+     */
     public int updateRows(String view, List<Map<String, Object>> rows, boolean bulkInsert) throws SQLException {
+        markChanged(view, rows.stream().map(row -> (String) row.get("id")).toList());
         var viewTable = configuration.viewTables.get(view);
         var config = configuration.viewConfig.get(view);
         // Find the columns in the rows of type different from Set
@@ -213,48 +317,114 @@ public class ViewStoreClient implements AutoCloseable {
         if (columnNames.isEmpty()) {
             return 0;
         }
-        var updateSql = "update " + viewTable.name + " set "
-                + columnNames.stream().map(column -> column + " = ?").collect(Collectors.joining(", "))
-                + " where id = ?";
-        var insertSql = "insert into " + viewTable.name + " ( " + String.join(", ", columnNames)
-                + " ) values ( " + columnNames.stream().map(column -> "?").collect(Collectors.joining(", "))
-                + " )";
-        try (var insert = connection.prepareStatement(insertSql);
-                var update = connection.prepareStatement(updateSql)) {
-            for (var row : rows) {
-                var values = columnNames.stream()
-                        .map(columnName -> row.getOrDefault(columnName, null))
-                        .toList();
-                var id = (String) row.get("id");
-                var exists = (!bulkInsert) && rowExists(viewTable.name, id);
-                if (exists) {
-                    for (var i = 0; i < values.size(); i++) {
-                        var value = values.get(i);
-                        setQueryValue(update, i + 1, value);
-                    }
-                    update.setString(values.size() + 1, id);
-                    update.addBatch();
-                } else {
-                    for (var i = 0; i < values.size(); i++) {
-                        var value = values.get(i);
-                        setQueryValue(insert, i + 1, value);
+        var updatedColumns =
+                columnNames.stream().filter(column -> !column.equals("id")).toList();
+        var onConflict = "";
+        if (!bulkInsert) {
+            onConflict = updatedColumns.isEmpty()
+                    ? " on conflict (id) do nothing"
+                    : " on conflict (id) do update set "
+                            + updatedColumns.stream()
+                                    .map(column -> column + " = excluded." + column)
+                                    .collect(Collectors.joining(", "));
+        }
+        var rowPlaceholders =
+                columnNames.stream().map(column -> "?").collect(Collectors.joining(", ", "( ", " )"));
+        var count = 0;
+        for (var batch : Lists.partition(rows, MAX_PARAMETERS / columnNames.size())) {
+            var sql = "insert into " + viewTable.name + " ( " + String.join(", ", columnNames) + " ) values "
+                    + String.join(", ", Collections.nCopies(batch.size(), rowPlaceholders)) + onConflict;
+            try (var upsert = connection.prepareStatement(sql)) {
+                var index = 1;
+                for (var row : batch) {
+                    for (var columnName : columnNames) {
+                        setQueryValue(upsert, index++, row.get(columnName));
                     }
-                    insert.addBatch();
                 }
+                count += upsert.executeUpdate();
             }
-            var insertCount = Arrays.stream(insert.executeBatch()).sum();
-            if (insertCount > 0) {
-                log.debug("Inserted {} rows into view {}", insertCount, view);
+        }
+        log.debug("Inserted or updated {} rows of view {}", count, view);
+        return count;
+    }
+
+    /**
+     * Creates an empty shadow table of a table, without indexes, to load while the table is still in use.
+     * Replaces an existing one, left behind by a failed reindex.
+     *
+     * @return The shadow table, see swapShadowTables
+     */
+    Table createShadowTable(Table table) throws SQLException {
+        var shadow = new Table(table.name + SHADOW_SUFFIX, table.columns);
+        execute("drop table if exists " + shadow.name);
+        execute("create table " + shadow.name + " ( like " + table.name + " including defaults )");
+        return shadow;
+    }
+
+    /**
+     * Indexes a loaded shadow table the way ViewStoreClientFactory indexes the tables: a primary key
+     * of the identifier columns, and for join tables an index per identifier column.
+     * Cheaper to build once after the load than to maintain row by row.
+     */
+    void indexShadowTable(Table shadow, boolean joinTable) throws SQLException {
+        var keys = shadow.columns.stream()
+                .filter(column -> column.type == ColumnType.Identifier)
+                .map(ColumnDefinition::getName)
+                .toList();
+        execute("alter table " + shadow.name + " add primary key ( " + String.join(", ", keys) + " )");
+        if (joinTable) {
+            for (var key : keys) {
+                execute("create index %s_%s_idx on %s (%s)".formatted(shadow.name, key, shadow.name, key));
             }
-            var updateCount = Arrays.stream(update.executeBatch()).sum();
-            if (updateCount > 0) {
-                log.debug("Updated {} rows of view {}", updateCount, view);
+        }
+        execute("analyze " + shadow.name);
+    }
+
+    /**
+     * Replaces tables by their shadow tables, renaming the indexes of the shadow tables to the names of the indexes
+     * of the tables. Readers and writers of the tables wait until the transaction ends, and then see the new tables.
+     */
+    void swapShadowTables(List<String> tables) throws SQLException {
+        execute("lock table " + String.join(", ", tables) + " in access exclusive mode");
+        for (var table : tables) {
+            var shadow = table + SHADOW_SUFFIX;
+            execute("drop table " + table);
+            execute("alter table " + shadow + " rename to " + table);
+            var indexes = new ArrayList<String>();
+            var indexesSql = "select indexname from pg_indexes where schemaname = current_schema() and tablename = ?";
+            try (var query = connection.prepareStatement(indexesSql)) {
+                query.setString(1, table);
+                var result = query.executeQuery();
+                while (result.next()) {
+                    indexes.add(result.getString(1));
+                }
             }
-            return insertCount + updateCount;
+            for (var index : indexes) {
+                if (index.startsWith(shadow)) {
+                    execute("alter index " + index + " rename to " + table + index.substring(shadow.length()));
+                }
+            }
+        }
+        log.debug("Swapped in the shadow tables of {}", tables);
+    }
+
+    /**
+     * Streams rows into a table with COPY. Finish the copy before executing other statements.
+     */
+    CopyWriter copyInto(Table table) throws SQLException {
+        return new CopyWriter(connection, table);
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (var statement = connection.prepareStatement(sql)) {
+            statement.execute();
         }
     }
 
     public void truncateViewTables(String view) throws SQLException {
+        // The materialized views of the view are rebuilt on commit, no need to track its rows
+        truncatedViews.add(view);
+        changedRows.remove(view);
         var tables = new ArrayList<Table>();
         tables.add(configuration.viewTables.get(view));
         tables.addAll(configuration
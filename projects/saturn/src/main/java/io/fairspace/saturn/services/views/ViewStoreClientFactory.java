@@ -32,10 +32,14 @@ import static io.fairspace.saturn.services.views.Table.valueColumn;
 @Slf4j
 public class ViewStoreClientFactory {
 
-    private final MaterializedViewService materializedViewService;
+    final MaterializedViewService materializedViewService;
+
+    final LabelCache labelCache;
+
+    final ReindexChanges reindexChanges = new ReindexChanges();
 
     public ViewStoreClient build() throws SQLException {
-        return new ViewStoreClient(getConnection(), configuration, materializedViewService);
+        return new ViewStoreClient(getConnection(), configuration, materializedViewService, labelCache, reindexChanges);
     }
 
     public String databaseTypeForColumnType(ColumnType type) {
@@ -76,16 +80,16 @@ public class ViewStoreClientFactory {
                 List.of(idColumn(), valueColumn("type", ColumnType.Text), valueColumn("label", ColumnType.Text))));
 
         configuration = new ViewStoreClient.ViewStoreConfiguration(viewsConfig);
+        labelCache = new LabelCache(viewDatabase.labelCacheSize);
         // todo: configuration is initialized within the loop below, do the initialization in constructor
         for (View view : viewsConfig.views) {
             createOrUpdateView(view);
         }
         materializedViewService = new MaterializedViewService(dataSource, configuration, search.maxJoinItems);
-        if (viewDatabase.mvRefreshOnStartRequired) {
-            materializedViewService.createOrUpdateAllMaterializedViews();
-        } else {
-            log.warn("Skipping materialized view refresh on start");
+        if (!viewDatabase.mvRefreshOnStartRequired) {
+            log.warn("Skipping the rebuild of the existing materialized views on start");
         }
+        materializedViewService.createOrUpdateAllMaterializedViews(viewDatabase.mvRefreshOnStartRequired);
     }
 
     public Connection getConnection() throws SQLException {
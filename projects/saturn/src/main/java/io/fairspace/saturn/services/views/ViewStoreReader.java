@@ -51,6 +51,7 @@ public class ViewStoreReader implements AutoCloseable {
     final Config.Search searchConfig;
     final ViewsConfig viewsConfig;
     final ViewStoreClient.ViewStoreConfiguration configuration;
+    final LabelCache labelCache;
     final Connection connection;
 
     // TODO: in whole class, use StringBuilder instead of String concats
@@ -60,17 +61,26 @@ public class ViewStoreReader implements AutoCloseable {
         this.searchConfig = searchConfig;
         this.viewsConfig = viewsConfig;
         this.configuration = viewStoreClientFactory.configuration;
+        this.labelCache = viewStoreClientFactory.labelCache;
         this.connection = viewStoreClientFactory.getConnection();
     }
 
     List<Object> getLabelsByIds(List<String> ids) throws SQLException {
-        String query = "select label from label where id = ANY(?::text[])";
+        var labels = new ArrayList<>();
+        var missing = new ArrayList<String>();
+        for (var id : ids) {
+            labelCache.get(id).ifPresentOrElse(label -> labels.add(label.getValue()), () -> missing.add(id));
+        }
+        if (missing.isEmpty()) {
+            return labels;
+        }
+        String query = "select id, type, label from label where id = ANY(?::text[])";
         try (var preparedStatement = connection.prepareStatement(query)) {
-            var array = preparedStatement.getConnection().createArrayOf("text", ids.toArray());
+            var array = preparedStatement.getConnection().createArrayOf("text", missing.toArray());
             preparedStatement.setArray(1, array);
             var result = preparedStatement.executeQuery();
-            var labels = new ArrayList<>();
             while (result.next()) {
+                labelCache.put(result.getString("id"), result.getString("type"), result.getString("label"));
                 labels.add(result.getObject("label"));
             }
             return labels;
@@ -78,12 +88,21 @@ public class ViewStoreReader implements AutoCloseable {
     }
 
     String iriForLabel(String type, String label) throws SQLException {
+        if (label == null) {
+            return null;
+        }
+        var cached = labelCache.getId(type, label);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
         try (var query = connection.prepareStatement("select id from label where type = ? and label = ?")) {
             query.setString(1, type);
             query.setString(2, label);
             var result = query.executeQuery();
             if (result.next()) {
-                return result.getString("id");
+                var id = result.getString("id");
+                labelCache.put(id, type, label);
+                return id;
             }
         }
         return null;
@@ -8,16 +8,19 @@ import java.time.Instant;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
+import com.pivovarit.function.ThrowingFunction;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.jena.graph.Graph;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
@@ -34,8 +37,6 @@ import io.fairspace.saturn.vocabulary.FS;
 
 import static io.fairspace.saturn.config.ConfigLoader.CONFIG;
 import static io.fairspace.saturn.config.ConfigLoader.VIEWS_CONFIG;
-import static io.fairspace.saturn.services.views.Table.idColumn;
-import static io.fairspace.saturn.services.views.Table.valueColumn;
 import static io.fairspace.saturn.services.views.ViewStoreClientFactory.protectedResources;
 
 @Slf4j
@@ -136,7 +137,46 @@ public class ViewUpdater implements AutoCloseable {
         }
     }
 
-    public void updateSubject(Node subject) {
+    /**
+     * The changes of the rows of a view, to be written in a few statements per table.
+     */
+    private static class ViewChanges {
+        final List<String> deletedIds = new ArrayList<>();
+        final List<Map<String, Object>> rows = new ArrayList<>();
+        // Values by subject by set column
+        final Map<String, Map<String, Set<String>>> values = new LinkedHashMap<>();
+        // Linked subjects by subject by joined view
+        final Map<String, Map<String, Set<String>>> links = new LinkedHashMap<>();
+    }
+
+    /**
+     * Updates the views of the subjects. First computes the rows, value sets and links of all subjects in memory,
+     * then writes them to the view database with a few statements per table, rather than a few per subject.
+     */
+    public void updateSubjects(Collection<Node> subjects) throws SQLException {
+        var start = new Date().getTime();
+        var changes = new HashMap<String, ViewChanges>();
+        for (var subject : subjects) {
+            collectChanges(subject, changes);
+        }
+        for (var view : VIEWS_CONFIG.views) {
+            var viewChanges = changes.get(view.name);
+            if (viewChanges == null) {
+                continue;
+            }
+            viewStoreClient.deleteRows(view.name, viewChanges.deletedIds);
+            viewStoreClient.updateRows(view.name, viewChanges.rows, false);
+            for (var values : viewChanges.values.entrySet()) {
+                viewStoreClient.updateValues(view.name, values.getKey(), values.getValue());
+            }
+            for (var links : viewChanges.links.entrySet()) {
+                viewStoreClient.updateLinks(view.name, links.getKey(), links.getValue());
+            }
+        }
+        log.debug("Updating {} subjects took {}ms", subjects.size(), new Date().getTime() - start);
+    }
+
+    private void collectChanges(Node subject, Map<String, ViewChanges> changes) {
         if (!subject.isURI()) {
             return;
         }
@@ -145,23 +185,19 @@ public class ViewUpdater implements AutoCloseable {
             log.debug("Subject {} has no type!", subject.getURI());
             return;
         }
-        var start = new Date().getTime();
         var type = typeNode.get().getObject();
         log.debug("Subject {} of type {}", subject.getURI(), type.getLocalName());
         VIEWS_CONFIG.views.stream()
                 .filter(view -> view.types.contains(type.getURI()))
                 .forEach(view -> {
+                    var viewChanges = changes.computeIfAbsent(view.name, v -> new ViewChanges());
                     if (graph.find(subject, FS.dateDeleted.asNode(), Node.ANY).hasNext()) {
                         log.debug(
                                 "Deleting entity {} of type {} from view {}",
                                 subject.getURI(),
                                 type.getLocalName(),
                                 view.name);
-                        try {
-                            viewStoreClient.deleteRow(view.name, subject.getURI());
-                        } catch (SQLException e) {
-                            log.error("Failed to delete row from view", e);
-                        }
+                        viewChanges.deletedIds.add(subject.getURI());
                     } else {
                         log.debug(
                                 "Updating entity {} of type {} in view {}",
@@ -172,42 +208,38 @@ public class ViewUpdater implements AutoCloseable {
                         row.put("id", subject.getURI());
                         row.put("label", getLabel(graph, subject));
                         addCollectionToProtectedResourceRow(type.getURI(), subject, row);
-                        // Update subject value columns
+                        // Subject value columns
                         try {
                             for (var column : view.columns) {
                                 var objects = retrieveValues(graph, subject, column.source);
                                 row.put(column.name, objects.isEmpty() ? null : getValue(column, objects.getFirst()));
                             }
-                            viewStoreClient.updateRows(view.name, List.of(row), false);
+                            viewChanges.rows.add(row);
                         } catch (SQLException e) {
                             log.error("Failed to update view row", e);
                         }
-                        // Update subject value sets
+                        // Subject value sets
                         for (ViewsConfig.View.Column column : view.columns) {
                             if (!column.type.isSet()) {
                                 continue;
                             }
                             var objects = retrieveValues(graph, subject, column.source);
-                            if (objects.isEmpty()) {
-                                // continue;
-                            }
-                            try {
-                                var values = new HashSet<String>();
-                                for (var term : objects) {
-                                    if (column.type == ViewsConfig.ColumnType.TermSet) {
-                                        var label = getLabel(graph, term);
-                                        viewStoreClient.addLabel(term.getURI(), column.rdfType, label);
-                                        values.add(label);
-                                    } else {
-                                        values.add(term.getLiteralValue().toString());
-                                    }
+                            var values = new HashSet<String>();
+                            for (var term : objects) {
+                                if (column.type == ViewsConfig.ColumnType.TermSet) {
+                                    var label = getLabel(graph, term);
+                                    viewStoreClient.addLabel(term.getURI(), column.rdfType, label);
+                                    values.add(label);
+                                } else {
+                                    values.add(term.getLiteralValue().toString());
                                 }
-                                viewStoreClient.updateValues(view.name, subject.getURI(), column.name, values);
-                            } catch (SQLException e) {
-                                log.error("Failed to update view value sets", e);
                             }
+                            viewChanges
+                                    .values
+                                    .computeIfAbsent(column.name, c -> new HashMap<>())
+                                    .put(subject.getURI(), values);
                         }
-                        // Update subject links
+                        // Subject links
                         if (view.join != null) {
                             for (var joinView : view.join) {
                                 var relation = NodeFactory.createURI(joinView.on);
@@ -218,46 +250,17 @@ public class ViewUpdater implements AutoCloseable {
                                         : graph.find(subject, relation, Node.ANY)
                                                 .mapWith(Triple::getObject)
                                                 .toList();
-                                if (objects.isEmpty()) {
-                                    continue;
-                                }
-                                try {
-                                    viewStoreClient.updateLinks(
-                                            view.name,
-                                            subject.getURI(),
-                                            joinView.view,
-                                            objects.stream().map(Node::getURI).collect(Collectors.toSet()));
-                                } catch (SQLException e) {
-                                    log.error("Failed to update view links", e);
-                                }
+                                // No links remove the links the subject had
+                                viewChanges
+                                        .links
+                                        .computeIfAbsent(joinView.view, v -> new HashMap<>())
+                                        .put(
+                                                subject.getURI(),
+                                                objects.stream().map(Node::getURI).collect(Collectors.toSet()));
                             }
                         }
                     }
                 });
-        log.debug("Updating subject of type {} took {}ms", type.getLocalName(), new Date().getTime() - start);
-    }
-
-    /**
-     * Only use this method in a secure and synchonisized way, see 'MaintenanceService.recreateIndex()'
-     */
-    public void recreateIndexForView(ViewStoreClient viewStoreClient, ViewsConfig.View view) throws SQLException {
-        // Clear database tables for view
-        log.info("Recreating index for view {} started", view.name);
-        viewStoreClient.truncateViewTables(view.name);
-        for (String type : view.types) {
-            copyValuesForType(view, type);
-            var valueSetColumns =
-                    view.columns.stream().filter(column -> column.type.isSet()).toList();
-            for (var valueSetColumn : valueSetColumns) {
-                copyValueSetsForColumn(view, type, valueSetColumn);
-            }
-            for (var join : view.join) {
-                if (!join.reverse) {
-                    copyLinks(view, type, join);
-                }
-            }
-        }
-        log.info("Recreating index for view {} finished", view.name);
     }
 
     private Map<String, Object> transformResult(
@@ -279,13 +282,13 @@ public class ViewUpdater implements AutoCloseable {
     /**
      * Copy rows of values for a specified type to the view database in bulk.
      *
-     * All simple values (no value sets) for the type are queried and the rows are inserted
-     * into the view database in batches of 1000 rows.
+     * All simple values (no value sets) for the type are queried and streamed into the view table.
      *
      * @param view The view for which to update the values.
      * @param type The subject type (for when the view includes multiple types)
+     * @param writer The copy into the view table, see ViewStoreClient.copyInto
      */
-    public void copyValuesForType(ViewsConfig.View view, String type) throws SQLException {
+    void copyValuesForType(ViewsConfig.View view, String type, CopyWriter writer) throws SQLException {
         var columns =
                 view.columns.stream().filter(column -> !column.type.isSet()).collect(Collectors.toList());
         var attributes = columns.stream()
@@ -305,48 +308,31 @@ public class ViewUpdater implements AutoCloseable {
                 """
                         .formatted(RDFS.getURI(), attributeNames, type, attributes);
 
-        var rows = new ArrayList<Map<String, Object>>();
-        var error = new AtomicReference<SQLException>();
-        final int[] updateCount = new int[1];
-        SparqlUtils.querySelect(dsg, query, (QuerySolution q) -> {
-            // read query results
-            try {
-                rows.add(transformResult(type, columns, q));
-                // copy in chunks to the view database
-                if (rows.size() == 1000) {
-                    updateCount[0] += viewStoreClient.updateRows(view.name, rows, true);
-                    rows.clear();
-                }
-            } catch (SQLException e) {
-                error.set(e);
-                throw new RuntimeException("Failed to bulk insert rows", e);
+        var tableColumns = viewStoreClient.getConfiguration().viewTables.get(view.name).columns;
+        copy(query, writer, q -> {
+            var row = transformResult(type, columns, q);
+            var values = new ArrayList<>();
+            for (var column : tableColumns) {
+                values.add(row.get(column.name));
             }
+            return values;
         });
-        if (error.get() != null) {
-            throw error.get();
-        }
-        // copy any remaining items to the view database
-        updateCount[0] += viewStoreClient.updateRows(view.name, rows, true);
-        log.debug("Inserted {} rows for view {}", updateCount[0], view.name);
     }
 
     /**
      * Copy value sets for a specified type and property to the view database in bulk.
      *
-     * All values for the type and property are queried and the (subject, value) tuples are inserted
-     * into the view database in batches of 1000 tuples.
+     * All values for the type and property are queried and the (subject, value) tuples are streamed
+     * into the property table.
      *
      * @param view The view for which to update the value set property.
      * @param type The subject type (for when the view includes multiple types)
      * @param column The view column of value set property.
+     * @param writer The copy into the property table, see ViewStoreClient.copyInto
      */
-    public void copyValueSetsForColumn(ViewsConfig.View view, String type, ViewsConfig.View.Column column)
+    void copyValueSetsForColumn(ViewsConfig.View view, String type, ViewsConfig.View.Column column, CopyWriter writer)
             throws SQLException {
         var property = column.name;
-        var propertyTable =
-                viewStoreClient.getConfiguration().propertyTables.get(view.name).get(property);
-        var idColumn = idColumn(view.name);
-        var propertyColumn = valueColumn(column.name, ViewsConfig.ColumnType.Identifier);
         var predicate = Arrays.stream(column.source.split("\\s+"))
                 .map("<%s>"::formatted)
                 .collect(Collectors.joining("/"));
@@ -359,52 +345,27 @@ public class ViewUpdater implements AutoCloseable {
                     }
                 """
                         .formatted(property, type, predicate, property);
-        var rows = new ArrayList<Pair<String, String>>();
-        var error = new AtomicReference<SQLException>();
-        final int[] updateCount = new int[1];
-        SparqlUtils.querySelect(dsg, query, (QuerySolution q) -> {
-            // read query results
-            try {
-                var val = getValue(column, q.get(column.name).asNode());
-                if (val == null) {
-                    throw new RuntimeException(
-                            "Error querying view %s for type %s in column %s".formatted(view.name, type, column.name));
-                }
-                rows.add(Pair.of(q.getResource("id").getURI(), val.toString()));
-
-                // copy in chunks to the view database
-                if (rows.size() == 1000) {
-                    updateCount[0] += viewStoreClient.insertValues(propertyTable, idColumn, propertyColumn, rows);
-                    rows.clear();
-                }
-            } catch (SQLException e) {
-                error.set(e);
-                throw new RuntimeException("Failed to bulk insert rows", e);
+        copy(query, writer, q -> {
+            var val = getValue(column, q.get(column.name).asNode());
+            if (val == null) {
+                throw new RuntimeException(
+                        "Error querying view %s for type %s in column %s".formatted(view.name, type, column.name));
             }
+            return List.of(q.getResource("id").getURI(), val.toString());
         });
-        if (error.get() != null) {
-            throw error.get();
-        }
-        // copy any remaining items to the view database
-        updateCount[0] += viewStoreClient.insertValues(propertyTable, idColumn, propertyColumn, rows);
-        log.debug("Inserted {} rows for property {} of view {}", updateCount[0], column.name, view.name);
     }
 
     /**
      * Copy view join links for a specified type and join relation to the view database in bulk.
      *
-     * All join links for the type and join relation are queried and the (source, target) tuples are inserted
-     * into the view database in batches of 1000 tuples.
+     * All join links for the type and join relation are queried and the (source, target) tuples are streamed
+     * into the join table.
      *
-     * @param view The view for which to update the join links.
      * @param type The subject type (for when the view includes multiple types)
      * @param join The join relation.
+     * @param writer The copy into the join table, see ViewStoreClient.copyInto
      */
-    public void copyLinks(ViewsConfig.View view, String type, ViewsConfig.View.JoinView join) throws SQLException {
-        var joinTable =
-                viewStoreClient.getConfiguration().joinTables.get(view.name).get(join.view);
-        var idColumn = idColumn(view.name);
-        var joinColumn = idColumn(join.view);
+    void copyLinks(String type, ViewsConfig.View.JoinView join, CopyWriter writer) throws SQLException {
         var predicate =
                 Arrays.stream(join.on.split("\\s+")).map("<%s>"::formatted).collect(Collectors.joining("/"));
         var query =
@@ -416,30 +377,32 @@ public class ViewUpdater implements AutoCloseable {
                     }
                 """
                         .formatted(type, predicate);
-        var rows = new ArrayList<Pair<String, String>>();
+        copy(query, writer, q -> List.of(q.getResource("source").getURI(), q.getResource("target").getURI()));
+    }
+
+    /**
+     * Streams the results of a query into a copy, in a read transaction of its own.
+     *
+     * @param toValues Maps a result to the values of the columns of the table
+     */
+    private void copy(
+            String query, CopyWriter writer, ThrowingFunction<QuerySolution, List<?>, SQLException> toValues)
+            throws SQLException {
         var error = new AtomicReference<SQLException>();
-        final int[] updateCount = new int[1];
-        SparqlUtils.querySelect(dsg, query, (QuerySolution q) -> {
-            // read query results
-            try {
-                rows.add(Pair.of(
-                        q.getResource("source").getURI(),
-                        q.getResource("target").getURI()));
-                // copy in chunks to the view database
-                if (rows.size() == 1000) {
-                    updateCount[0] += viewStoreClient.insertValues(joinTable, idColumn, joinColumn, rows);
-                    rows.clear();
+        try {
+            SparqlUtils.querySelect(dsg, query, (QuerySolution q) -> {
+                try {
+                    writer.write(toValues.apply(q));
+                } catch (SQLException e) {
+                    error.set(e);
+                    throw new RuntimeException("Failed to copy rows", e);
                 }
-            } catch (SQLException e) {
-                error.set(e);
-                throw new RuntimeException("Failed to bulk insert rows", e);
+            });
+        } catch (RuntimeException e) {
+            if (error.get() != null) {
+                throw error.get();
             }
-        });
-        if (error.get() != null) {
-            throw error.get();
+            throw e;
         }
-        // copy any remaining items to the view database
-        updateCount[0] += viewStoreClient.insertValues(joinTable, idColumn, joinColumn, rows);
-        log.debug("Inserted {} rows for join of view {} with view {}", updateCount[0], view.name, join.view);
     }
 }
@@ -12,6 +12,7 @@ import io.milton.resource.Resource;
 import lombok.SneakyThrows;
 
 import io.fairspace.saturn.rdf.transactions.Transactions;
+import io.fairspace.saturn.services.ServiceBusyException;
 
 class TransactionalHandlerWrapper implements Handler {
     private final Handler wrapped;
@@ -32,12 +33,26 @@ class TransactionalHandlerWrapper implements Handler {
     public void process(HttpManager httpManager, Request request, Response response)
             throws ConflictException, NotAuthorizedException, BadRequestException, NotFoundException {
         if (request.getMethod().isWrite) {
-            txn.executeWrite(ds -> wrapped.process(httpManager, request, response));
+            try {
+                if (isMetadataUpload(request)) {
+                    txn.executeBulkWrite(ds -> wrapped.process(httpManager, request, response));
+                } else {
+                    txn.executeWrite(ds -> wrapped.process(httpManager, request, response));
+                }
+            } catch (ServiceBusyException e) {
+                response.setStatus(Response.Status.SC_SERVICE_UNAVAILABLE);
+                response.setNonStandardHeader("Retry-After", Long.toString(e.getRetryAfterSeconds()));
+            }
         } else {
             txn.executeRead(ds -> wrapped.process(httpManager, request, response));
         }
     }
 
+    private static boolean isMetadataUpload(Request request) {
+        var params = request.getParams();
+        return params != null && "upload_metadata".equals(params.get("action"));
+    }
+
     @Override
     public boolean isCompatible(Resource res) {
         return wrapped.isCompatible(res);
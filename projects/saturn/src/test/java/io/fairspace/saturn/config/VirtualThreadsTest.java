@@ -0,0 +1,126 @@
+package io.fairspace.saturn.config;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.After;
+import org.junit.Test;
+
+import io.fairspace.saturn.auth.RequestContext;
+import io.fairspace.saturn.auth.RequestContextHandler;
+
+import static io.fairspace.saturn.config.VirtualThreads.useVirtualThreads;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VirtualThreadsTest {
+    // Many more than the platform threads of the server's pool
+    private static final int CONCURRENT_REQUESTS = 200;
+    // Many more than the worker threads of the server's pool, so that some of them handle several requests
+    private static final int SEQUENTIAL_REQUESTS = 50;
+
+    private final AtomicInteger virtualThreads = new AtomicInteger();
+    private final AtomicInteger leakedContexts = new AtomicInteger();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final Set<Thread> handlingThreads = ConcurrentHashMap.newKeySet();
+    private CountDownLatch allRequestsArrived;
+    private Server server;
+
+    @After
+    public void after() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void concurrentBlockingRequestsAreNotLimitedByThePoolSize() throws Exception {
+        // Each request blocks until all requests are being handled at the same time
+        allRequestsArrived = new CountDownLatch(CONCURRENT_REQUESTS);
+        start(new QueuedThreadPool(20), true);
+        var client = HttpClient.newHttpClient();
+
+        var responses = new ArrayList<CompletableFuture<HttpResponse<Void>>>();
+        for (var i = 0; i < CONCURRENT_REQUESTS; i++) {
+            responses.add(client.sendAsync(request(), HttpResponse.BodyHandlers.discarding()));
+        }
+        for (var response : responses) {
+            assertEquals(200, response.get().statusCode());
+        }
+
+        assertEquals(CONCURRENT_REQUESTS, virtualThreads.get());
+        assertEquals(0, leakedContexts.get());
+    }
+
+    @Test
+    public void requestContextIsClearedBetweenRequestsOfAConnection() throws Exception {
+        allRequestsArrived = new CountDownLatch(0);
+        // The connector's acceptor and selector take two of the threads
+        start(new QueuedThreadPool(8), false);
+        var client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        for (var i = 0; i < SEQUENTIAL_REQUESTS; i++) {
+            assertEquals(200, client.send(request(), HttpResponse.BodyHandlers.discarding()).statusCode());
+        }
+
+        // A single keep-alive connection, its requests handled by fewer pooled threads than requests
+        assertEquals(1, clientPorts.size());
+        assertTrue(handlingThreads.size() < SEQUENTIAL_REQUESTS);
+        assertEquals(0, virtualThreads.get());
+        assertEquals(0, leakedContexts.get());
+    }
+
+    private void start(QueuedThreadPool threadPool, boolean virtual) throws Exception {
+        server = new Server(threadPool);
+        server.addConnector(new ServerConnector(server, 1, 1));
+        var handler = new RequestContextHandler();
+        handler.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(
+                    String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) {
+                clientPorts.add(request.getRemotePort());
+                handlingThreads.add(Thread.currentThread());
+                if (Thread.currentThread().isVirtual()) {
+                    virtualThreads.incrementAndGet();
+                }
+                if (RequestContext.getCurrentUserStringUri().isPresent()) {
+                    leakedContexts.incrementAndGet();
+                }
+                RequestContext.setCurrentUserStringUri("http://example.com/user");
+
+                allRequestsArrived.countDown();
+                try {
+                    response.setStatus(allRequestsArrived.await(30, SECONDS) ? 200 : 503);
+                } catch (InterruptedException e) {
+                    response.setStatus(500);
+                }
+                baseRequest.setHandled(true);
+            }
+        });
+        server.setHandler(handler);
+        if (virtual) {
+            useVirtualThreads(server);
+        }
+        server.start();
+    }
+
+    private HttpRequest request() {
+        var port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/")).build();
+    }
+}
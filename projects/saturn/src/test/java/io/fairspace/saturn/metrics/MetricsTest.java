@@ -0,0 +1,78 @@
+package io.fairspace.saturn.metrics;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MetricsTest {
+    private final Metrics metrics = new Metrics();
+
+    @Test
+    public void histogramsAreWrittenInPrometheusFormat() throws Exception {
+        var histogram = metrics.histogram("test_seconds", "Test latency", 0.1, 1);
+        histogram.observe(0.0625);
+        histogram.observe(0.5);
+        histogram.observe(0.5);
+        histogram.observe(2);
+
+        assertEquals(
+                """
+                # HELP test_seconds Test latency
+                # TYPE test_seconds histogram
+                test_seconds_bucket{le="0.1"} 1
+                test_seconds_bucket{le="1"} 3
+                test_seconds_bucket{le="+Inf"} 4
+                test_seconds_sum 3.0625
+                test_seconds_count 4
+                """,
+                write());
+    }
+
+    @Test
+    public void histogramsAreRegisteredOnce() {
+        var histogram = metrics.histogram("test_seconds", "Test latency", 1);
+
+        assertEquals(histogram, metrics.histogram("test_seconds", "Test latency", 1));
+    }
+
+    @Test
+    public void suppliedMetricsAreReadWhenWritten() throws Exception {
+        var value = new double[] {1};
+        metrics.counter("test_total", "Test counter", () -> value[0]);
+        metrics.gauge("test_depth", "Test gauge", () -> 0.25);
+        value[0] = 7;
+
+        assertEquals(
+                """
+                # HELP test_depth Test gauge
+                # TYPE test_depth gauge
+                test_depth 0.25
+                # HELP test_total Test counter
+                # TYPE test_total counter
+                test_total 7
+                """,
+                write());
+    }
+
+    @Test
+    public void registeringASupplierAgainReplacesIt() throws Exception {
+        metrics.gauge("test_depth", "Test gauge", () -> 1);
+        metrics.gauge("test_depth", "Test gauge", () -> 2);
+
+        assertEquals(
+                """
+                # HELP test_depth Test gauge
+                # TYPE test_depth gauge
+                test_depth 2
+                """,
+                write());
+    }
+
+    private String write() throws Exception {
+        var out = new StringWriter();
+        metrics.write(out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,92 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.sql.SQLException;
+import java.util.Set;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.system.Txn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.fairspace.saturn.services.views.ViewStoreClient;
+import io.fairspace.saturn.services.views.ViewStoreClientFactory;
+
+import static io.fairspace.saturn.rdf.transactions.AsyncViewIndexer.OUTBOX;
+
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AsyncViewIndexerTest {
+    private static final Node SUBJECT1 = createURI("http://example.com/subject1");
+    private static final Node SUBJECT2 = createURI("http://example.com/subject2");
+
+    private final DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+    private ViewStoreClientFactory viewStoreClientFactory;
+    private ViewStoreClient viewStoreClient;
+    private AsyncViewIndexer indexer;
+
+    @Before
+    public void before() throws SQLException {
+        viewStoreClient = mock(ViewStoreClient.class);
+        viewStoreClientFactory = mock(ViewStoreClientFactory.class);
+        when(viewStoreClientFactory.build()).thenReturn(viewStoreClient);
+        indexer = new AsyncViewIndexer(dsg, viewStoreClientFactory, 1, 10_000);
+    }
+
+    @After
+    public void after() throws InterruptedException {
+        indexer.close();
+    }
+
+    @Test
+    public void recordedSubjectsAreIndexedInTheBackground() throws Exception {
+        indexer.start();
+
+        record(SUBJECT1, SUBJECT2);
+
+        assertTrue(indexer.awaitIndexed());
+        verify(viewStoreClient, atLeastOnce()).commit();
+        assertEquals(0, indexer.getPendingSubjects());
+        assertEquals(0, indexer.getLagSeconds(), 0);
+        assertTrue(Txn.calculateRead(dsg, () -> dsg.getGraph(OUTBOX).isEmpty()));
+    }
+
+    @Test
+    public void pendingSubjectsSurviveARestart() throws Exception {
+        record(SUBJECT1, SUBJECT2);
+        indexer.close();
+
+        indexer = new AsyncViewIndexer(dsg, viewStoreClientFactory, 1, 10_000);
+        assertEquals(2, indexer.getPendingSubjects());
+        assertTrue(indexer.getLastVersion() > 0);
+
+        indexer.start();
+        assertTrue(indexer.awaitIndexed());
+    }
+
+    @Test
+    public void failedUpdatesStayInTheOutbox() throws Exception {
+        when(viewStoreClientFactory.build()).thenThrow(new SQLException("The view database is down"));
+        indexer.start();
+
+        record(SUBJECT1);
+
+        assertFalse(indexer.awaitIndexed(indexer.getLastVersion(), 200));
+        assertEquals(1, indexer.getPendingSubjects());
+        assertFalse(Txn.calculateRead(dsg, () -> dsg.getGraph(OUTBOX).isEmpty()));
+    }
+
+    private void record(Node... subjects) {
+        var version = Txn.calculateWrite(dsg, () -> indexer.record(Set.of(subjects)));
+        indexer.committed(version, subjects.length);
+    }
+}
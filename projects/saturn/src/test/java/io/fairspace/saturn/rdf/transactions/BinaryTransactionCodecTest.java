@@ -0,0 +1,190 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.apache.jena.graph.NodeFactory.createBlankNode;
+import static org.apache.jena.graph.NodeFactory.createLiteral;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+public class BinaryTransactionCodecTest {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private final BinaryTransactionCodec codec = new BinaryTransactionCodec();
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        var out = new ByteArrayOutputStream();
+        var writeListener = codec.write(out);
+
+        writeListener.onBegin();
+        writeListener.onMetadata("userId", "userName", 123L);
+        writeListener.onAdd(
+                createURI("http://example.com/graph"),
+                createURI("http://example.com/subject"),
+                createURI("http://example.com/predicate"),
+                createURI("http://example.com/object"));
+        writeListener.onDelete(
+                createURI("http://example.com/graph"),
+                createURI("http://example.com/subject"),
+                createURI("http://example.com/predicate"),
+                createURI("http://example.com/object"));
+        var blank = createBlankNode();
+        writeListener.onAdd(
+                createURI("http://example.com/graph"),
+                createURI("http://example.com/subject"),
+                createURI("http://example.com/predicate"),
+                blank);
+        writeListener.onCommit();
+
+        var in = new ByteArrayInputStream(out.toByteArray());
+        var readListener = mock(TransactionListener.class);
+        codec.read(in, readListener);
+
+        verify(readListener).onBegin();
+        verify(readListener).onMetadata("userId", "userName", 123L);
+        verify(readListener)
+                .onAdd(
+                        createURI("http://example.com/graph"),
+                        createURI("http://example.com/subject"),
+                        createURI("http://example.com/predicate"),
+                        createURI("http://example.com/object"));
+        verify(readListener)
+                .onDelete(
+                        createURI("http://example.com/graph"),
+                        createURI("http://example.com/subject"),
+                        createURI("http://example.com/predicate"),
+                        createURI("http://example.com/object"));
+        verify(readListener)
+                .onAdd(
+                        createURI("http://example.com/graph"),
+                        createURI("http://example.com/subject"),
+                        createURI("http://example.com/predicate"),
+                        blank);
+        verify(readListener).onCommit();
+        verifyNoMoreInteractions(readListener);
+    }
+
+    @Test
+    public void testLiterals() throws IOException {
+        var out = new ByteArrayOutputStream();
+        var writeListener = codec.write(out);
+
+        var graph = createURI("http://example.com/graph");
+        var subject = createURI("http://example.com/subject");
+        var predicate = createURI("http://example.com/predicate#label");
+        var plain = createLiteral("plain");
+        var lang = createLiteral("taal", "nl");
+        var integer = createLiteral("42", XSDDatatype.XSDinteger);
+
+        writeListener.onMetadata(null, null, 123L);
+        writeListener.onAdd(graph, subject, predicate, plain);
+        writeListener.onAdd(graph, subject, predicate, lang);
+        writeListener.onAdd(graph, subject, predicate, integer);
+        writeListener.onCommit();
+
+        var readListener = mock(TransactionListener.class);
+        codec.read(new ByteArrayInputStream(out.toByteArray()), readListener);
+
+        verify(readListener).onBegin();
+        verify(readListener).onMetadata(null, null, 123L);
+        verify(readListener).onAdd(graph, subject, predicate, plain);
+        verify(readListener).onAdd(graph, subject, predicate, lang);
+        verify(readListener).onAdd(graph, subject, predicate, integer);
+        verify(readListener).onCommit();
+        verifyNoMoreInteractions(readListener);
+    }
+
+    @Test
+    public void testWriteAndReadAborted() throws IOException {
+        var out = new ByteArrayOutputStream();
+        var writeListener = codec.write(out);
+
+        writeListener.onBegin();
+        writeListener.onMetadata("userId", "userName", 123L);
+        writeListener.onAbort();
+
+        var in = new ByteArrayInputStream(out.toByteArray());
+        var readListener = mock(TransactionListener.class);
+        codec.read(in, readListener);
+
+        verify(readListener).onBegin();
+        verify(readListener).onMetadata("userId", "userName", 123L);
+        verify(readListener).onAbort();
+        verifyNoMoreInteractions(readListener);
+    }
+
+    @Test
+    public void testFormatDetection() throws IOException {
+        var binary = new ByteArrayOutputStream();
+        codec.write(binary).onCommit();
+        var sparql = new ByteArrayOutputStream();
+        new SparqlTransactionCodec().write(sparql).onCommit();
+
+        assertTrue(BinaryTransactionCodec.isBinary(
+                new BufferedInputStream(new ByteArrayInputStream(binary.toByteArray()))));
+        assertFalse(BinaryTransactionCodec.isBinary(
+                new BufferedInputStream(new ByteArrayInputStream(sparql.toByteArray()))));
+    }
+
+    @Test
+    public void testBinaryRecordsAreSmaller() throws IOException {
+        var binary = new ByteArrayOutputStream();
+        var sparql = new ByteArrayOutputStream();
+        var binaryListener = codec.write(binary);
+        var sparqlListener = new SparqlTransactionCodec().write(sparql);
+
+        for (var i = 0; i < 100; i++) {
+            for (var listener : new TransactionListener[] {binaryListener, sparqlListener}) {
+                listener.onAdd(
+                        createURI("http://example.com/graph"),
+                        createURI("http://example.com/subject" + i),
+                        createURI("http://example.com/predicate"),
+                        createLiteral("value" + i));
+            }
+        }
+        binaryListener.onCommit();
+        sparqlListener.onCommit();
+
+        assertTrue(binary.size() * 2 < sparql.size());
+    }
+
+    @Test
+    public void testLogReadsRecordsInBothFormats() throws IOException {
+        var logDir = testFolder.newFolder();
+        var graph = createURI("http://example.com/graph");
+        var subject = createURI("http://example.com/subject");
+        var predicate = createURI("http://example.com/predicate");
+
+        var sparqlLog = new LocalTransactionLog(logDir, new SparqlTransactionCodec());
+        sparqlLog.onBegin();
+        sparqlLog.onAdd(graph, subject, predicate, createLiteral("sparql"));
+        sparqlLog.onCommit();
+
+        var binaryLog = new LocalTransactionLog(logDir, codec);
+        binaryLog.onBegin();
+        binaryLog.onAdd(graph, subject, predicate, createLiteral("binary"));
+        binaryLog.onCommit();
+
+        for (var log : new LocalTransactionLog[] {sparqlLog, new LocalTransactionLog(logDir, codec)}) {
+            var first = mock(TransactionListener.class);
+            log.read(0, first);
+            verify(first).onAdd(graph, subject, predicate, createLiteral("sparql"));
+
+            var second = mock(TransactionListener.class);
+            log.read(1, second);
+            verify(second).onAdd(graph, subject, predicate, createLiteral("binary"));
+        }
+    }
+}
@@ -1,17 +1,26 @@
 package io.fairspace.saturn.rdf.transactions;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.pivovarit.function.ThrowingFunction;
+import org.apache.jena.query.DatasetFactory;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.sparql.JenaTransactionException;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.DatasetGraphWrapper;
 import org.apache.jena.vocabulary.RDFS;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import io.fairspace.saturn.services.ServiceBusyException;
+
 import static org.apache.jena.query.DatasetFactory.createTxnMem;
 import static org.apache.jena.rdf.model.ResourceFactory.createResource;
 import static org.junit.Assert.*;
@@ -75,6 +84,191 @@ public class BulkTransactionsTest {
         });
     }
 
+    @Test
+    public void failedTasksAreRolledBackWithoutReexecutingOthers() {
+        txn = new BulkTransactions(DatasetFactory.wrap(new SavepointDatasetGraph(DatasetGraphFactory.createTxnMem())));
+        var executions = new AtomicInteger();
+
+        batch(
+                m -> {
+                    executions.incrementAndGet();
+                    return m.add(RESOURCE, RDFS.label, "success");
+                },
+                m -> {
+                    m.add(RESOURCE, RDFS.label, "failed");
+                    m.remove(RESOURCE, RDFS.label, m.createLiteral("success"));
+                    throw new RuntimeException();
+                },
+                m -> {
+                    executions.incrementAndGet();
+                    return m.add(RESOURCE, RDFS.label, "another success");
+                });
+
+        txn.executeRead(model -> {
+            assertTrue(model.contains(RESOURCE, RDFS.label, "success"));
+            assertFalse(model.contains(RESOURCE, RDFS.label, "failed"));
+            assertTrue(model.contains(RESOURCE, RDFS.label, "another success"));
+        });
+        assertEquals(2, executions.get());
+        assertEquals(1, txn.getFailedTasks());
+        assertEquals(1, txn.getRolledBackTasks());
+        assertEquals(0, txn.getRetries());
+        assertEquals(0, txn.getReexecutedTasks());
+    }
+
+    @Test
+    public void batchesAreLimitedInSize() throws Exception {
+        var commits = new AtomicInteger();
+        var dsg = new DatasetGraphWrapper(DatasetGraphFactory.createTxnMem()) {
+            @Override
+            public void commit() {
+                commits.incrementAndGet();
+                super.commit();
+            }
+        };
+        txn = new BulkTransactions(DatasetFactory.wrap(dsg), 2, 1000, 100);
+
+        var blocked = block(false);
+        var jobs = submit(3, false, m -> null);
+        Thread.sleep(100);
+        blocked.countDown();
+        for (var job : jobs) {
+            job.join();
+        }
+
+        // the blocking batch and two batches for the three jobs
+        assertEquals(3, commits.get());
+    }
+
+    @Test
+    public void tasksNotStartedBeforeTheDeadlineRunInTheNextBatchInOrder() throws Exception {
+        var commits = new AtomicInteger();
+        var dsg = new DatasetGraphWrapper(DatasetGraphFactory.createTxnMem()) {
+            @Override
+            public void commit() {
+                commits.incrementAndGet();
+                super.commit();
+            }
+        };
+        txn = new BulkTransactions(DatasetFactory.wrap(dsg), 10, 50, 100);
+        // "job@commits": the number of each executed job, with the number of commits before its execution
+        var executed = new ConcurrentLinkedQueue<String>();
+
+        var blocked = block(false);
+        var jobs = new ArrayList<Thread>();
+        for (var i = 0; i < 4; i++) {
+            var job = i;
+            jobs.addAll(submit(1, false, m -> {
+                executed.add(job + "@" + commits.get());
+                // The first job exceeds the deadline of its batch
+                Thread.sleep(job == 0 ? 100 : 0);
+                return null;
+            }));
+            // Keep the jobs in the order of submission
+            while (txn.getQueueDepth() <= i) {
+                Thread.sleep(1);
+            }
+        }
+        blocked.countDown();
+        for (var job : jobs) {
+            job.join();
+        }
+
+        assertEquals(List.of("0@1", "1@2", "2@2", "3@2"), List.copyOf(executed));
+        assertEquals(3, commits.get());
+    }
+
+    @Test
+    public void failedCommitFailsItsBatchWithoutStoppingTheWorker() throws Exception {
+        var failCommit = new AtomicInteger(1);
+        var dsg = new DatasetGraphWrapper(DatasetGraphFactory.createTxnMem()) {
+            @Override
+            public void commit() {
+                if (failCommit.getAndDecrement() > 0) {
+                    throw new JenaTransactionException("Interrupted while waiting for the transaction log");
+                }
+                super.commit();
+            }
+        };
+        txn = new BulkTransactions(DatasetFactory.wrap(dsg));
+
+        try {
+            txn.executeWrite(m -> m.add(RESOURCE, RDFS.label, "failed"));
+            fail();
+        } catch (JenaTransactionException expected) {
+        }
+        txn.executeWrite(m -> m.add(RESOURCE, RDFS.label, "success"));
+
+        txn.executeRead(model -> assertTrue(model.contains(RESOURCE, RDFS.label, "success")));
+    }
+
+    @Test
+    public void fullQueueRejectsTasks() throws Exception {
+        txn = new BulkTransactions(createTxnMem(), 10, 1000, 1);
+
+        var blocked = block(false);
+        var waiting = submit(1, false, m -> null);
+        Thread.sleep(100);
+
+        try {
+            txn.executeWrite(m -> {});
+            fail();
+        } catch (ServiceBusyException e) {
+            assertEquals(1, e.getRetryAfterSeconds());
+        } finally {
+            blocked.countDown();
+        }
+        waiting.get(0).join();
+    }
+
+    @Test
+    public void interactiveTasksDontWaitForBulkTasks() throws Exception {
+        var order = new ConcurrentLinkedQueue<String>();
+
+        var blocked = block(true);
+        var bulk = submit(1, true, m -> order.add("bulk"));
+        Thread.sleep(100);
+        var interactive = submit(1, false, m -> order.add("interactive"));
+        Thread.sleep(100);
+        blocked.countDown();
+        bulk.get(0).join();
+        interactive.get(0).join();
+
+        assertEquals(List.of("interactive", "bulk"), List.copyOf(order));
+    }
+
+    // occupies the worker until the returned latch is released
+    private CountDownLatch block(boolean isBulk) throws InterruptedException {
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        submit(1, isBulk, m -> {
+            started.countDown();
+            release.await();
+            return null;
+        });
+        started.await();
+        return release;
+    }
+
+    private List<Thread> submit(int count, boolean isBulk, ThrowingFunction<Model, ?, ?> job) {
+        var threads = new ArrayList<Thread>();
+        for (var i = 0; i < count; i++) {
+            var thread = new Thread(() -> {
+                try {
+                    if (isBulk) {
+                        txn.calculateBulkWrite(job);
+                    } else {
+                        txn.calculateWrite(job);
+                    }
+                } catch (Exception ignore) {
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        return threads;
+    }
+
     // executes actions in one batch
     private void batch(ThrowingFunction<Model, ?, ?>... jobs) {
         try {
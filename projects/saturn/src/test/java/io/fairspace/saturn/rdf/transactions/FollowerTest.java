@@ -0,0 +1,108 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.system.Txn;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.fairspace.saturn.rdf.ReadOnlyDatasetGraph;
+import io.fairspace.saturn.services.NotAvailableException;
+
+import static org.apache.jena.graph.NodeFactory.createLiteral;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.apache.jena.sparql.core.DatasetGraphFactory.createTxnMem;
+import static org.junit.Assert.*;
+
+public class FollowerTest {
+    private static final Node GRAPH = createURI("http://example.com/graph");
+    private static final Node SUBJECT = createURI("http://example.com/subject");
+    private static final Node PREDICATE = createURI("http://example.com/predicate");
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private File logDir;
+    private File positionFile;
+    private LocalTransactionLog leaderLog;
+    private DatasetGraph dsg;
+
+    @Before
+    public void before() throws IOException {
+        logDir = testFolder.newFolder();
+        positionFile = new File(testFolder.getRoot(), "position");
+        leaderLog = new LocalTransactionLog(logDir, new BinaryTransactionCodec());
+        dsg = createTxnMem();
+    }
+
+    @Test
+    public void followerAppliesNewTransactions() throws IOException {
+        addValue("1");
+        var follower = newFollower();
+        assertEquals(1L, follower.getLag());
+
+        follower.poll();
+        assertTrue(contains("1"));
+        assertEquals(0L, follower.getLag());
+        assertEquals(0L, follower.getLagMillis());
+
+        addValue("2");
+        follower.poll();
+        assertTrue(contains("2"));
+        assertEquals(2L, follower.getAppliedTransactions());
+    }
+
+    @Test
+    public void followerContinuesAfterRestart() throws IOException {
+        addValue("1");
+        newFollower().poll();
+        addValue("2");
+
+        // Not applied again
+        Txn.executeWrite(dsg, () -> dsg.delete(GRAPH, SUBJECT, PREDICATE, createLiteral("1")));
+
+        var follower = newFollower();
+        assertEquals(1L, follower.getAppliedTransactions());
+        follower.poll();
+        assertFalse(contains("1"));
+        assertTrue(contains("2"));
+    }
+
+    @Test
+    public void readOnlyLogCannotBeWritten() {
+        var txnLog = LocalTransactionLog.openReadOnly(logDir, new BinaryTransactionCodec());
+
+        assertThrows(IllegalStateException.class, txnLog::onBegin);
+    }
+
+    @Test
+    public void readOnlyDatasetRejectsWrites() {
+        var readOnly = new ReadOnlyDatasetGraph(dsg);
+
+        assertThrows(
+                NotAvailableException.class,
+                () -> Txn.executeWrite(readOnly, () -> readOnly.add(GRAPH, SUBJECT, PREDICATE, createLiteral("1"))));
+        Txn.executeRead(readOnly, () -> assertTrue(readOnly.isEmpty()));
+    }
+
+    private Follower newFollower() {
+        return new Follower(
+                dsg, LocalTransactionLog.openReadOnly(logDir, new BinaryTransactionCodec()), positionFile, 2, 10);
+    }
+
+    private boolean contains(String value) {
+        return Txn.calculateRead(dsg, () -> dsg.contains(GRAPH, SUBJECT, PREDICATE, createLiteral(value)));
+    }
+
+    private void addValue(String value) throws IOException {
+        leaderLog.onBegin();
+        leaderLog.onMetadata("userId", "userName", System.currentTimeMillis());
+        leaderLog.onAdd(GRAPH, SUBJECT, PREDICATE, createLiteral(value));
+        leaderLog.onCommit();
+    }
+}
@@ -0,0 +1,86 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GroupCommitTest {
+    @Test
+    public void concurrentCommitsShareOneFlush() throws Exception {
+        var flushes = new AtomicInteger();
+        var groupCommit = new GroupCommit(flushes::incrementAndGet, 60_000, 10);
+
+        var executor = Executors.newFixedThreadPool(10);
+        try {
+            var futures = new ArrayList<Future<?>>();
+            for (var i = 0; i < 10; i++) {
+                futures.add(executor.submit(() -> {
+                    groupCommit.await();
+                    return null;
+                }));
+            }
+            for (var future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, flushes.get());
+        assertEquals(1, groupCommit.getFlushCount());
+        assertEquals(10, groupCommit.getCommitCount());
+        assertEquals(10.0, groupCommit.getCommitsPerFlush(), 0.0);
+    }
+
+    @Test
+    public void eachCommitIsFlushedWithoutDelay() throws Exception {
+        var flushes = new AtomicInteger();
+        var groupCommit = new GroupCommit(flushes::incrementAndGet, 0, 10);
+
+        groupCommit.await();
+        groupCommit.await();
+
+        assertEquals(2, flushes.get());
+        assertEquals(2, groupCommit.getCommitCount());
+    }
+
+    @Test
+    public void failedFlushIsReportedAndRetried() throws Exception {
+        var attempts = new AtomicInteger();
+        var groupCommit = new GroupCommit(
+                () -> {
+                    if (attempts.incrementAndGet() == 1) {
+                        throw new IOException("Disk failure");
+                    }
+                },
+                0,
+                10);
+
+        assertThrows(IOException.class, groupCommit::await);
+        groupCommit.await();
+
+        assertEquals(2, attempts.get());
+        assertEquals(1, groupCommit.getFlushCount());
+    }
+
+    @Test
+    public void interruptedLeaderLetsTheNextCommitFlush() throws Exception {
+        var flushes = new AtomicInteger();
+        var groupCommit = new GroupCommit(flushes::incrementAndGet, 60_000, 2);
+
+        Thread.currentThread().interrupt();
+        assertThrows(InterruptedException.class, groupCommit::await);
+        assertEquals(0, flushes.get());
+
+        // Doesn't wait for the interrupted leader, and completes the batch
+        groupCommit.await();
+        assertEquals(1, flushes.get());
+        assertEquals(2, groupCommit.getCommitCount());
+    }
+}
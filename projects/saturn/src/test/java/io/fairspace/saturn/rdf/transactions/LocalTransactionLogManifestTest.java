@@ -0,0 +1,131 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.apache.jena.graph.Node;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.apache.jena.graph.NodeFactory.createLiteral;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class LocalTransactionLogManifestTest {
+    private static final Node GRAPH = createURI("http://example.com/graph");
+    private static final Node SUBJECT = createURI("http://example.com/subject");
+    private static final Node PREDICATE = createURI("http://example.com/predicate");
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private File logDir;
+    private File chapter;
+
+    @Before
+    public void before() throws IOException {
+        logDir = testFolder.newFolder();
+        chapter = new File(new File(logDir, "volume-1"), "chapter-1");
+        var log = new LocalTransactionLog(logDir, new SparqlTransactionCodec());
+        for (var i = 0; i < 3; i++) {
+            addValue(log, "value " + i);
+        }
+    }
+
+    @Test
+    public void manifestIsUpdatedPeriodically() throws IOException {
+        var manifest = new File(logDir, "manifest").toPath();
+
+        var log = new LocalTransactionLog(logDir, new SparqlTransactionCodec());
+        assertEquals(3L, log.size());
+        assertTrue(Files.readString(manifest).contains("count=3"));
+
+        for (var i = 3; i < LocalTransactionLog.MANIFEST_INTERVAL; i++) {
+            addValue(log, "value " + i);
+        }
+        assertTrue(Files.readString(manifest).contains("count=" + LocalTransactionLog.MANIFEST_INTERVAL));
+    }
+
+    @Test
+    public void manifestIsReconciledInTheBackground() throws Exception {
+        var manifest = new File(logDir, "manifest").toPath();
+        var log = new LocalTransactionLog(logDir, new SparqlTransactionCodec());
+        Files.writeString(manifest, "count=0\nchecksum=0\n");
+
+        addValue(log, "value 3");
+
+        for (var i = 0; i < 100 && !Files.readString(manifest).contains("count=4"); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(Files.readString(manifest).contains("count=4"));
+    }
+
+    @Test
+    public void recordsCommittedAfterTheManifestAreFound() throws IOException {
+        var manifest = new File(logDir, "manifest");
+        var copy = new File(logDir, "manifest.copy");
+        Files.copy(manifest.toPath(), copy.toPath());
+
+        addValue(new LocalTransactionLog(logDir, new SparqlTransactionCodec()), "value 3");
+        Files.copy(copy.toPath(), manifest.toPath(), REPLACE_EXISTING);
+
+        var log = new LocalTransactionLog(logDir, new SparqlTransactionCodec());
+        assertEquals(4L, log.size());
+        verifyValue(log, 3, "value 3");
+    }
+
+    @Test
+    public void directoriesAreListedWithoutManifest() throws IOException {
+        new File(logDir, "manifest").delete();
+
+        var log = new LocalTransactionLog(logDir, new SparqlTransactionCodec());
+
+        assertEquals(3L, log.size());
+        assertTrue(new File(logDir, "manifest").exists());
+    }
+
+    @Test
+    public void incompleteTrailingRecordsAreMovedAside() throws IOException {
+        new File(logDir, "manifest").delete();
+        try (var file = new RandomAccessFile(new File(chapter, "tx-3"), "rw")) {
+            file.setLength(file.length() / 2);
+        }
+
+        var log = new LocalTransactionLog(logDir, new SparqlTransactionCodec());
+
+        assertEquals(2L, log.size());
+        assertFalse(new File(chapter, "tx-3").exists());
+        assertTrue(new File(new File(logDir, "damaged"), "tx-3").exists());
+
+        addValue(log, "value 3");
+        verifyValue(log, 2, "value 3");
+    }
+
+    @Test
+    public void mismatchingManifestIsIgnored() throws IOException {
+        Files.writeString(new File(logDir, "manifest").toPath(), "count=10\nchecksum=1\n");
+
+        assertEquals(3L, new LocalTransactionLog(logDir, new SparqlTransactionCodec()).size());
+    }
+
+    private static void addValue(TransactionLog log, String value) throws IOException {
+        log.onBegin();
+        log.onMetadata("userId", "userName", 123L);
+        log.onAdd(GRAPH, SUBJECT, PREDICATE, createLiteral(value));
+        log.onCommit();
+    }
+
+    private static void verifyValue(TransactionLog log, long index, String value) throws IOException {
+        var listener = mock(TransactionListener.class);
+        log.read(index, listener);
+        verify(listener).onAdd(GRAPH, SUBJECT, PREDICATE, createLiteral(value));
+        verify(listener).onCommit();
+    }
+}
@@ -15,6 +15,8 @@ import static org.apache.commons.io.FileUtils.deleteDirectory;
 import static org.apache.commons.io.FileUtils.getTempDirectory;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -66,6 +68,30 @@ public class LocalTransactionLogTest {
         assertTrue(new File(new File(new File(logDir, "volume-1"), "chapter-2"), "tx-1001").exists());
     }
 
+    @Test
+    public void completedChaptersAreCompressed() throws Exception {
+        log = new LocalTransactionLog(logDir, codec, true);
+        for (int i = 0; i < 1001; i++) {
+            log.onBegin();
+            log.onMetadata(null, null, 0);
+            log.onCommit();
+        }
+
+        var volume = new File(logDir, "volume-1");
+        var archive = new File(volume, "chapter-1.zip");
+        for (var i = 0; i < 100 && (!archive.exists() || new File(volume, "chapter-1").exists()); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(archive.exists());
+        assertFalse(new File(volume, "chapter-1").exists());
+        assertTrue(new File(new File(volume, "chapter-2"), "tx-1001").exists());
+
+        var newLog = new LocalTransactionLog(logDir, codec, true);
+        assertEquals(1001L, newLog.size());
+        newLog.read(5, listener);
+        verify(codec).read(any(), eq(listener));
+    }
+
     @Test
     public void doesNotLogAbortedTransactions() throws IOException {
         log.onBegin();
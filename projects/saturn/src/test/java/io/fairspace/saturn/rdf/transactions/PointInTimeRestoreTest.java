@@ -0,0 +1,56 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.IOException;
+
+import org.apache.jena.graph.Node;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.fairspace.saturn.config.Config;
+
+import static org.apache.jena.graph.NodeFactory.createLiteral;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.*;
+
+public class PointInTimeRestoreTest {
+    private static final Node GRAPH = createURI("http://example.com/graph");
+    private static final Node SUBJECT = createURI("http://example.com/subject");
+    private static final Node PREDICATE = createURI("http://example.com/predicate");
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private SegmentedTransactionLog txnLog;
+
+    @Before
+    public void before() throws IOException {
+        txnLog = new SegmentedTransactionLog(testFolder.newFolder(), new BinaryTransactionCodec(), 1 << 20);
+        for (var i = 0; i < 100; i++) {
+            txnLog.onBegin();
+            txnLog.onMetadata("userId", "userName", 10L * i);
+            txnLog.onAdd(GRAPH, SUBJECT, PREDICATE, createLiteral("value " + i));
+            txnLog.onCommit();
+        }
+    }
+
+    @After
+    public void after() throws IOException {
+        txnLog.close();
+    }
+
+    @Test
+    public void refusesToOverwriteLiveDataset() {
+        var config = new Config.Jena();
+        config.datasetPath = testFolder.getRoot();
+
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> PointInTimeRestore.restore(txnLog, 10, testFolder.getRoot(), config));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> PointInTimeRestore.restore(txnLog, 3000, testFolder.newFolder(), config));
+    }
+}
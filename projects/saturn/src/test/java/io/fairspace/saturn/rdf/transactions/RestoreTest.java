@@ -2,8 +2,11 @@ package io.fairspace.saturn.rdf.transactions;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
+import org.apache.jena.graph.Node;
 import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.system.Txn;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -11,10 +14,16 @@ import org.junit.Test;
 import io.fairspace.saturn.config.Config;
 import io.fairspace.saturn.rdf.SaturnDatasetFactory;
 
+import static io.fairspace.saturn.rdf.transactions.AsyncViewIndexer.OUTBOX;
+import static io.fairspace.saturn.rdf.transactions.AsyncViewIndexer.PENDING;
+
 import static java.util.UUID.randomUUID;
 import static org.apache.commons.io.FileUtils.deleteDirectory;
 import static org.apache.commons.io.FileUtils.getTempDirectory;
+import static org.apache.jena.graph.NodeFactory.createLiteral;
 import static org.apache.jena.rdf.model.ResourceFactory.*;
+import static org.apache.jena.sparql.core.DatasetGraphFactory.createTxnMem;
+import static org.apache.jena.sparql.core.Quad.defaultGraphIRI;
 import static org.junit.Assert.*;
 
 public class RestoreTest {
@@ -34,12 +43,14 @@ public class RestoreTest {
         config = new Config.Jena();
         config.datasetPath = new File(getTempDirectory(), randomUUID().toString());
         config.transactionLogPath = new File(getTempDirectory(), randomUUID().toString());
+        config.snapshotPath = new File(getTempDirectory(), randomUUID().toString());
     }
 
     @After
     public void after() {
         config.transactionLogPath.delete();
         config.datasetPath.delete();
+        config.snapshotPath.delete();
     }
 
     @Test
@@ -84,6 +95,139 @@ public class RestoreTest {
         }
     }
 
+    @Test
+    public void pipelinedRestoreAppliesTransactionsInOrder() throws Exception {
+        var txnLog = new LocalTransactionLog(config.transactionLogPath, new BinaryTransactionCodec());
+        var subject = stmt1.getSubject().asNode();
+        var predicate = stmt1.getPredicate().asNode();
+        for (var i = 0; i < 50; i++) {
+            txnLog.onBegin();
+            if (i > 0) {
+                txnLog.onDelete(defaultGraphIRI, subject, predicate, createLiteral("value " + (i - 1)));
+            }
+            txnLog.onAdd(defaultGraphIRI, subject, predicate, createLiteral("value " + i));
+            txnLog.onCommit();
+        }
+        var progressFile = new File(getTempDirectory(), randomUUID().toString());
+
+        var dsg = createTxnMem();
+        Restore.restore(dsg, txnLog, progressFile, 4, 7, null);
+
+        Txn.executeRead(dsg, () -> {
+            assertEquals(1, dsg.stream(defaultGraphIRI, subject, predicate, Node.ANY).count());
+            assertTrue(dsg.contains(defaultGraphIRI, subject, predicate, createLiteral("value 49")));
+        });
+        assertFalse(progressFile.exists());
+    }
+
+    @Test
+    public void restoreResumesAfterSavedProgress() throws Exception {
+        var txnLog = new LocalTransactionLog(config.transactionLogPath, new SparqlTransactionCodec());
+        for (var stmt : new Statement[] {stmt1, stmt2}) {
+            txnLog.onBegin();
+            txnLog.onAdd(
+                    defaultGraphIRI,
+                    stmt.getSubject().asNode(),
+                    stmt.getPredicate().asNode(),
+                    stmt.getObject().asNode());
+            txnLog.onCommit();
+        }
+        var progressFile = new File(getTempDirectory(), randomUUID().toString());
+        Files.writeString(progressFile.toPath(), "1");
+
+        var dsg = createTxnMem();
+        Restore.restore(dsg, txnLog, progressFile, 2, 1, null);
+
+        Txn.executeRead(dsg, () -> {
+            assertFalse(dsg.getDefaultGraph().contains(stmt1.asTriple()));
+            assertTrue(dsg.getDefaultGraph().contains(stmt2.asTriple()));
+        });
+        assertFalse(progressFile.exists());
+    }
+
+    @Test
+    public void restoreReplaysOnlyTransactionsAfterSnapshot() throws Exception {
+        var txnLog = new LocalTransactionLog(config.transactionLogPath, new BinaryTransactionCodec());
+        var subject = stmt1.getSubject().asNode();
+        var predicate = stmt1.getPredicate().asNode();
+        for (var value : new String[] {"A", "B", "C"}) {
+            txnLog.onBegin();
+            txnLog.onAdd(defaultGraphIRI, subject, predicate, createLiteral(value));
+            txnLog.onCommit();
+        }
+
+        // The dataset as of the second transaction, with a marker which is not in the log
+        var source = createTxnMem();
+        Txn.executeWrite(source, () -> {
+            source.add(defaultGraphIRI, subject, predicate, createLiteral("A"));
+            source.add(defaultGraphIRI, subject, predicate, createLiteral("B"));
+            source.add(defaultGraphIRI, subject, predicate, createLiteral("X"));
+        });
+        var snapshot = new Snapshots(config.snapshotPath, 2, source, new TransactionLog() {
+            @Override
+            public long size() {
+                return 2;
+            }
+
+            @Override
+            public void read(long index, TransactionListener listener) {
+                throw new UnsupportedOperationException();
+            }
+        }).create();
+        assertEquals(1L, Snapshots.covered(snapshot));
+
+        var dsg = createTxnMem();
+        Restore.restore(dsg, txnLog, null, 2, 10, config.snapshotPath);
+
+        Txn.executeRead(dsg, () -> {
+            assertTrue(dsg.contains(defaultGraphIRI, subject, predicate, createLiteral("X")));
+            assertTrue(dsg.contains(defaultGraphIRI, subject, predicate, createLiteral("A")));
+            assertTrue(dsg.contains(defaultGraphIRI, subject, predicate, createLiteral("B")));
+            assertTrue(dsg.contains(defaultGraphIRI, subject, predicate, createLiteral("C")));
+        });
+    }
+
+    @Test
+    public void snapshotsLeaveOutTheViewIndexerOutbox() throws Exception {
+        var txnLog = new LocalTransactionLog(config.transactionLogPath, new BinaryTransactionCodec());
+        var subject = stmt1.getSubject().asNode();
+        var predicate = stmt1.getPredicate().asNode();
+        var source = createTxnMem();
+        Txn.executeWrite(source, () -> {
+            source.add(defaultGraphIRI, subject, predicate, createLiteral("A"));
+            source.add(OUTBOX, subject, PENDING, createLiteral("1"));
+        });
+        var snapshot = new Snapshots(config.snapshotPath, 2, source, txnLog).create();
+
+        var dsg = createTxnMem();
+        Snapshots.load(snapshot, dsg);
+
+        Txn.executeRead(dsg, () -> {
+            assertTrue(dsg.contains(defaultGraphIRI, subject, predicate, createLiteral("A")));
+            assertFalse(dsg.contains(OUTBOX, Node.ANY, Node.ANY, Node.ANY));
+        });
+    }
+
+    @Test
+    public void oldSnapshotsAreRemoved() throws Exception {
+        var txnLog = new LocalTransactionLog(config.transactionLogPath, new BinaryTransactionCodec());
+        var snapshots = new Snapshots(config.snapshotPath, 2, createTxnMem(), txnLog);
+        for (var i = 0; i < 4; i++) {
+            txnLog.onBegin();
+            txnLog.onAdd(
+                    defaultGraphIRI,
+                    stmt1.getSubject().asNode(),
+                    stmt1.getPredicate().asNode(),
+                    createLiteral("value " + i));
+            txnLog.onCommit();
+            snapshots.create();
+        }
+
+        assertEquals(2, config.snapshotPath.list().length);
+        assertEquals(3L, Snapshots.covered(Snapshots.latest(config.snapshotPath, 10).orElseThrow()));
+        assertEquals(2L, Snapshots.covered(Snapshots.latest(config.snapshotPath, 2).orElseThrow()));
+    }
+
     private Transactions newDataset() throws IOException {
         return new BulkTransactions(SaturnDatasetFactory.connect(config, null));
     }
@@ -0,0 +1,129 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.apache.jena.graph.Node;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.apache.jena.graph.NodeFactory.createLiteral;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class SegmentedTransactionLogTest {
+    private static final Node GRAPH = createURI("http://example.com/graph");
+    private static final Node SUBJECT = createURI("http://example.com/subject");
+    private static final Node PREDICATE = createURI("http://example.com/predicate");
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private File logDir;
+    private SegmentedTransactionLog log;
+
+    @Before
+    public void before() throws IOException {
+        logDir = testFolder.newFolder();
+        log = new SegmentedTransactionLog(logDir, new BinaryTransactionCodec(), 1024);
+    }
+
+    @After
+    public void after() throws IOException {
+        log.close();
+    }
+
+    @Test
+    public void logContinuesNumbering() throws IOException {
+        addValue(log, "1");
+        log.close();
+
+        log = new SegmentedTransactionLog(logDir, new BinaryTransactionCodec(), 1024);
+        addValue(log, "2");
+
+        assertEquals(2L, log.size());
+        verifyValue(0, "1");
+        verifyValue(1, "2");
+    }
+
+    @Test
+    public void startsNewSegmentsWhenFull() throws IOException {
+        for (var i = 0; i < 100; i++) {
+            addValue(log, "value " + i);
+        }
+
+        assertEquals(100L, log.size());
+        assertTrue(new File(logDir, "segment-2").exists());
+        verifyValue(0, "value 0");
+        verifyValue(99, "value 99");
+    }
+
+    @Test
+    public void doesNotLogAbortedTransactions() throws IOException {
+        log.onBegin();
+        log.onAdd(GRAPH, SUBJECT, PREDICATE, createLiteral("aborted"));
+        log.onAbort();
+        addValue(log, "committed");
+
+        assertEquals(1L, log.size());
+        verifyValue(0, "committed");
+    }
+
+    @Test
+    public void detectsCorruptedRecords() throws IOException {
+        addValue(log, "value");
+
+        try (var segment = new RandomAccessFile(new File(logDir, "segment-1"), "rw")) {
+            segment.seek(10);
+            segment.write(0xFF);
+        }
+
+        assertThrows(IOException.class, () -> log.read(0, mock(TransactionListener.class)));
+    }
+
+    @Test
+    public void migratesLocalTransactionLog() throws IOException {
+        var source = new LocalTransactionLog(testFolder.newFolder(), new SparqlTransactionCodec());
+        for (var i = 0; i < 3; i++) {
+            addValue(source, "value " + i);
+        }
+
+        TransactionLogMigration.migrate(source, log);
+        addValue(source, "value 3");
+        TransactionLogMigration.migrate(source, log);
+
+        assertEquals(4L, log.size());
+        for (var i = 0; i < 4; i++) {
+            verifyValue(i, "value " + i);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesToOpenLogWithOneFilePerTransaction() throws IOException {
+        var dir = testFolder.newFolder();
+        addValue(new LocalTransactionLog(dir, new SparqlTransactionCodec()), "value");
+
+        new SegmentedTransactionLog(dir, new SparqlTransactionCodec(), 1024);
+    }
+
+    private static void addValue(TransactionLog log, String value) throws IOException {
+        log.onBegin();
+        log.onMetadata("userId", "userName", 123L);
+        log.onAdd(GRAPH, SUBJECT, PREDICATE, createLiteral(value));
+        log.onCommit();
+    }
+
+    private void verifyValue(long index, String value) throws IOException {
+        var listener = mock(TransactionListener.class);
+        log.read(index, listener);
+        verify(listener).onMetadata("userId", "userName", 123L);
+        verify(listener).onAdd(GRAPH, SUBJECT, PREDICATE, createLiteral(value));
+        verify(listener).onCommit();
+    }
+}
@@ -0,0 +1,77 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.jena.graph.Node;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.apache.jena.graph.NodeFactory.createLiteral;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.*;
+
+public class TimestampIndexTest {
+    private static final Node GRAPH = createURI("http://example.com/graph");
+    private static final Node SUBJECT = createURI("http://example.com/subject");
+    private static final Node PREDICATE = createURI("http://example.com/predicate");
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private SegmentedTransactionLog txnLog;
+    private File indexFile;
+
+    @Before
+    public void before() throws IOException {
+        txnLog = new SegmentedTransactionLog(testFolder.newFolder(), new BinaryTransactionCodec(), 1 << 20);
+        indexFile = new File(testFolder.getRoot(), TimestampIndex.FILE_NAME);
+
+        // Transaction i happens at 10 * i, transactions 1500 and 1501 have no metadata
+        for (var i = 0; i < 2500; i++) {
+            txnLog.onBegin();
+            if (i != 1500 && i != 1501) {
+                txnLog.onMetadata("userId", "userName", 10L * i);
+            }
+            txnLog.onAdd(GRAPH, SUBJECT, PREDICATE, createLiteral("value " + i));
+            txnLog.onCommit();
+        }
+    }
+
+    @After
+    public void after() throws IOException {
+        txnLog.close();
+    }
+
+    @Test
+    public void findsTransactionsUpToTimestamp() throws IOException {
+        var index = new TimestampIndex(indexFile, txnLog);
+
+        assertEquals(0L, index.countUpTo(-1));
+        assertEquals(1L, index.countUpTo(0));
+        assertEquals(1L, index.countUpTo(9));
+        assertEquals(1000L, index.countUpTo(9_990));
+        assertEquals(1001L, index.countUpTo(10_000));
+        assertEquals(1502L, index.countUpTo(15_015));
+        assertEquals(2500L, index.countUpTo(Long.MAX_VALUE));
+        assertEquals(3 * Long.BYTES, indexFile.length());
+    }
+
+    @Test
+    public void indexIsExtendedWithNewChapters() throws IOException {
+        new TimestampIndex(indexFile, txnLog).update();
+
+        for (var i = 2500; i < 3500; i++) {
+            txnLog.onBegin();
+            txnLog.onMetadata("userId", "userName", 10L * i);
+            txnLog.onCommit();
+        }
+
+        var index = new TimestampIndex(indexFile, txnLog);
+        assertEquals(3001L, index.countUpTo(30_000));
+        assertEquals(4 * Long.BYTES, indexFile.length());
+    }
+}
@@ -0,0 +1,136 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Test;
+
+import static org.apache.jena.graph.NodeFactory.createLiteral;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the time it takes to encode and to decode the same transactions with the SPARQL and the binary codec.
+ * Run with 'gradle benchmark', not part of the tests.
+ */
+public class TransactionCodecBenchmark {
+    private static final int TRANSACTIONS = 2000;
+    private static final int QUADS_PER_TRANSACTION = 100;
+    private static final int RUNS = 3;
+    private static final Node GRAPH = createURI("http://example.com/graph");
+    private static final Node LABEL = RDFS.label.asNode();
+
+    @Test
+    public void encodeAndDecode() throws IOException {
+        var sparql = measure("SPARQL", new SparqlTransactionCodec());
+        var binary = measure("binary", new BinaryTransactionCodec());
+
+        assertEquals(sparql, binary);
+    }
+
+    /**
+     * Encodes and decodes the transactions a few times, and prints the fastest times and the size of the records.
+     *
+     * @return The number of decoded quads
+     */
+    private static long measure(String name, TransactionCodec codec) throws IOException {
+        var bestEncoding = Long.MAX_VALUE;
+        var bestDecoding = Long.MAX_VALUE;
+        var records = new ArrayList<byte[]>();
+        var quads = 0L;
+        // Created beforehand, so only the encoding is timed
+        var transactions = new ArrayList<List<List<Node>>>();
+        for (var i = 0; i < TRANSACTIONS; i++) {
+            transactions.add(quads(i));
+        }
+        for (var run = 0; run < RUNS; run++) {
+            records.clear();
+            var start = System.nanoTime();
+            for (var i = 0; i < TRANSACTIONS; i++) {
+                records.add(encode(codec, i, transactions.get(i)));
+            }
+            bestEncoding = Math.min(bestEncoding, (System.nanoTime() - start) / 1_000_000);
+
+            var counter = new QuadCounter();
+            start = System.nanoTime();
+            for (var record : records) {
+                codec.read(new ByteArrayInputStream(record), counter);
+            }
+            bestDecoding = Math.min(bestDecoding, (System.nanoTime() - start) / 1_000_000);
+            quads = counter.quads;
+        }
+        var bytes = records.stream().mapToLong(record -> record.length).sum();
+        System.out.printf(
+                "%s codec: encoding %d transactions took %dms, decoding %dms, %d bytes%n",
+                name,
+                TRANSACTIONS,
+                bestEncoding,
+                bestDecoding,
+                bytes);
+        return quads;
+    }
+
+    private static byte[] encode(TransactionCodec codec, int transaction, List<List<Node>> quads)
+            throws IOException {
+        var out = new ByteArrayOutputStream();
+        var listener = codec.write(out);
+        listener.onBegin();
+        listener.onMetadata("http://example.com/users#user", "User", 1_700_000_000_000L + transaction);
+        for (var quad : quads) {
+            listener.onAdd(GRAPH, quad.get(0), quad.get(1), quad.get(2));
+        }
+        listener.onDelete(GRAPH, createURI("http://example.com/subjects#s" + transaction), LABEL, label(0));
+        listener.onCommit();
+        return out.toByteArray();
+    }
+
+    /**
+     * @return Triples like those of metadata entities: labels, numbers, dates and links
+     */
+    private static List<List<Node>> quads(int transaction) {
+        var quads = new ArrayList<List<Node>>();
+        for (var i = 0; i < QUADS_PER_TRANSACTION; i++) {
+            var subject = createURI("http://example.com/subjects#s" + transaction + "-" + i / 4);
+            quads.add(switch (i % 4) {
+                case 0 -> List.of(subject, LABEL, label(i));
+                case 1 -> List.of(
+                        subject,
+                        createURI("http://example.com/ontology#tumorCellularity"),
+                        createLiteral(Double.toString(i / 10.0), XSDDatatype.XSDdouble));
+                case 2 -> List.of(
+                        subject,
+                        createURI("http://example.com/ontology#dateCreated"),
+                        createLiteral("2024-01-31T12:00:00Z", XSDDatatype.XSDdateTime));
+                default -> List.of(
+                        subject,
+                        createURI("http://example.com/ontology#subject"),
+                        createURI("http://example.com/subjects#s" + transaction));
+            });
+        }
+        return quads;
+    }
+
+    private static Node label(int i) {
+        return createLiteral("Sample " + i + " with a \"quoted\" label");
+    }
+
+    private static class QuadCounter implements TransactionListener {
+        long quads;
+
+        @Override
+        public void onAdd(Node graph, Node subject, Node predicate, Node object) {
+            quads++;
+        }
+
+        @Override
+        public void onDelete(Node graph, Node subject, Node predicate, Node object) {
+            quads++;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.apache.jena.graph.Node;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.apache.jena.graph.NodeFactory.createLiteral;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class TransactionLogVerifierTest {
+    private static final Node GRAPH = createURI("http://example.com/graph");
+    private static final Node SUBJECT = createURI("http://example.com/subject");
+    private static final Node PREDICATE = createURI("http://example.com/predicate");
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private LocalTransactionLog txnLog;
+    private File chapter;
+
+    @Before
+    public void before() throws IOException {
+        var logDir = testFolder.newFolder();
+        chapter = new File(new File(logDir, "volume-1"), "chapter-1");
+        txnLog = new LocalTransactionLog(logDir, new SparqlTransactionCodec());
+        for (var i = 0; i < 3; i++) {
+            txnLog.onBegin();
+            txnLog.onMetadata("userId", "userName", 123L);
+            txnLog.onAdd(GRAPH, SUBJECT, PREDICATE, createLiteral("value " + i));
+            txnLog.onCommit();
+        }
+    }
+
+    @Test
+    public void intactLogPassesVerification() throws Exception {
+        var verifier = new TransactionLogVerifier(txnLog, 2);
+        assertNull(verifier.getLastVerification());
+
+        var verification = verifier.verify();
+
+        assertTrue(verification.isIntact());
+        assertEquals(3, verification.getCheckedTransactions());
+        assertSame(verification, verifier.getLastVerification());
+    }
+
+    @Test
+    public void corruptedRecordsAreReported() throws Exception {
+        try (var file = new RandomAccessFile(new File(chapter, "tx-2"), "rw")) {
+            file.seek(5);
+            var b = file.read();
+            file.seek(5);
+            file.write(b ^ 1);
+        }
+
+        var verification = new TransactionLogVerifier(txnLog, 2).verify();
+
+        assertFalse(verification.isIntact());
+        assertEquals(1, verification.getFailedTransactions());
+        assertTrue(verification.getFailures().get(0).startsWith("Transaction #2:"));
+        assertThrows(IOException.class, () -> txnLog.read(1, mock(TransactionListener.class)));
+    }
+
+    @Test
+    public void truncatedRecordsAreReported() throws Exception {
+        try (var file = new RandomAccessFile(new File(chapter, "tx-3"), "rw")) {
+            file.setLength(file.length() / 2);
+        }
+
+        var verification = new TransactionLogVerifier(txnLog, 2).verify();
+
+        assertEquals(1, verification.getFailedTransactions());
+        assertTrue(verification.getFailures().get(0).startsWith("Transaction #3:"));
+    }
+
+    @Test
+    public void recordsWithoutChecksumAreAccepted() throws Exception {
+        try (var file = new RandomAccessFile(new File(chapter, "tx-1"), "rw")) {
+            file.setLength(file.length() - RecordChecksum.TRAILER_SIZE);
+        }
+
+        assertTrue(new TransactionLogVerifier(txnLog, 2).verify().isIntact());
+
+        var listener = mock(TransactionListener.class);
+        txnLog.read(0, listener);
+        verify(listener).onAdd(GRAPH, SUBJECT, PREDICATE, createLiteral("value 0"));
+    }
+}
@@ -0,0 +1,75 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import java.sql.SQLException;
+
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.query.TxnType;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.Txn;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.fairspace.saturn.services.views.ViewStoreClientFactory;
+
+import static io.fairspace.saturn.services.users.UserService.currentUserAsSymbol;
+
+import static org.apache.jena.graph.NodeFactory.createLiteral;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TxnIndexDatasetGraphTest {
+    private static final Quad QUAD = new Quad(
+            Quad.defaultGraphIRI,
+            createURI("http://example.com/subject"),
+            createURI("http://example.com/predicate"),
+            createLiteral("value"));
+
+    private ViewStoreClientFactory viewStoreClientFactory;
+    private TxnIndexDatasetGraph dsg;
+
+    @Before
+    public void before() throws SQLException {
+        viewStoreClientFactory = mock(ViewStoreClientFactory.class);
+        // Makes an attempt to update the views observable
+        when(viewStoreClientFactory.build()).thenThrow(new SQLException("No view database"));
+        dsg = new TxnIndexDatasetGraph(DatasetGraphFactory.createTxnMem(), viewStoreClientFactory);
+        dsg.getContext().set(currentUserAsSymbol(), true);
+    }
+
+    @Test
+    public void changesOfPromotedTransactionsUpdateTheViews() throws SQLException {
+        dsg.begin(TxnType.READ_PROMOTE);
+        dsg.promote();
+        dsg.add(QUAD);
+
+        assertThrows(SQLException.class, dsg::commit);
+        dsg.abort();
+        dsg.end();
+
+        verify(viewStoreClientFactory).build();
+    }
+
+    @Test
+    public void transactionsWithoutChangesDontUpdateTheViews() throws SQLException {
+        Txn.executeWrite(dsg, () -> {});
+
+        verify(viewStoreClientFactory, never()).build();
+    }
+
+    @Test
+    public void changesOfAbortedTransactionsAreForgotten() throws SQLException {
+        dsg.begin(ReadWrite.WRITE);
+        dsg.add(QUAD);
+        dsg.abort();
+        dsg.end();
+
+        Txn.executeWrite(dsg, () -> {});
+
+        verify(viewStoreClientFactory, never()).build();
+    }
+}
@@ -4,7 +4,10 @@ import java.io.IOException;
 
 import org.apache.jena.query.Dataset;
 import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.ReadWrite;
 import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.sparql.JenaTransactionException;
+import org.apache.jena.system.Txn;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -16,6 +19,9 @@ import static io.fairspace.saturn.TestUtils.setupRequestContext;
 import static org.apache.jena.rdf.model.ResourceFactory.*;
 import static org.apache.jena.sparql.core.DatasetGraphFactory.createTxnMem;
 import static org.apache.jena.sparql.core.Quad.defaultGraphNodeGenerated;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -39,10 +45,11 @@ public class TxnLogDatasetGraphTest {
 
     @Test
     public void shouldLogWriteTransactions() throws IOException {
-        txn.calculateWrite(m -> m.add(statement).remove(statement));
+        txn.calculateWrite(m -> m.add(statement));
+        txn.calculateWrite(m -> m.remove(statement));
 
-        verify(log).onBegin();
-        verify(log).onMetadata(eq("userid"), eq("fullname"), anyLong());
+        verify(log, times(2)).onBegin();
+        verify(log, times(2)).onMetadata(eq("userid"), eq("fullname"), anyLong());
         verify(log)
                 .onAdd(
                         defaultGraphNodeGenerated,
@@ -55,35 +62,128 @@ public class TxnLogDatasetGraphTest {
                         statement.getSubject().asNode(),
                         statement.getPredicate().asNode(),
                         statement.getObject().asNode());
-        verify(log).onCommit();
+        verify(log, times(2)).onCommit();
         verifyNoMoreInteractions(log);
     }
 
     @Test
-    public void shouldHandleAbortedTransactions() throws IOException {
+    public void shouldCompactChanges() throws IOException {
+        var other = createStatement(statement.getSubject(), statement.getPredicate(), createPlainLiteral("other"));
+        txn.calculateWrite(m -> m.add(other));
+
+        // other is deleted and added again, statement is added, deleted and added again
+        txn.calculateWrite(m -> m.remove(other).add(statement).remove(statement).add(other).add(statement));
+
+        var order = inOrder(log);
+        order.verify(log).onAdd(
+                defaultGraphNodeGenerated,
+                other.getSubject().asNode(),
+                other.getPredicate().asNode(),
+                other.getObject().asNode());
+        order.verify(log).onCommit();
+        order.verify(log).onBegin();
+        order.verify(log).onAdd(
+                defaultGraphNodeGenerated,
+                statement.getSubject().asNode(),
+                statement.getPredicate().asNode(),
+                statement.getObject().asNode());
+        order.verify(log).onCommit();
+        verify(log, never()).onDelete(any(), any(), any(), any());
+
+        var dsg = (TxnLogDatasetGraph) ds.asDatasetGraph();
+        assertEquals(2, dsg.getLoggedQuads());
+        assertEquals(4, dsg.getEliminatedQuads());
+    }
+
+    @Test
+    public void shouldNotLogTransactionsWithoutNetChanges() throws IOException {
+        txn.calculateWrite(m -> m.add(statement).remove(statement));
+
+        verifyNoMoreInteractions(log);
+    }
+
+    @Test
+    public void shouldNotLogAbortedTransactions() throws IOException {
         txn.executeWrite(m -> {
             m.add(statement).remove(statement);
             ds.abort();
         });
 
-        verify(log).onBegin();
-        verify(log).onMetadata(eq("userid"), eq("fullname"), anyLong());
-        verify(log)
-                .onAdd(
-                        defaultGraphNodeGenerated,
-                        statement.getSubject().asNode(),
-                        statement.getPredicate().asNode(),
-                        statement.getObject().asNode());
-        verify(log)
-                .onDelete(
-                        defaultGraphNodeGenerated,
-                        statement.getSubject().asNode(),
-                        statement.getPredicate().asNode(),
-                        statement.getObject().asNode());
-        verify(log).onAbort();
         verifyNoMoreInteractions(log);
     }
 
+    @Test
+    public void shouldNotLogEmptyTransactions() throws IOException {
+        txn.executeWrite(m -> {});
+
+        verifyNoMoreInteractions(log);
+    }
+
+    @Test
+    public void shouldWriteLargeTransactionsInChunks() throws IOException {
+        txn.executeWrite(m -> {
+            for (var i = 0; i < TxnLogDatasetGraph.CHUNK_SIZE * 3 / 2; i++) {
+                m.add(createResource("http://example.com/s" + i), statement.getPredicate(), statement.getObject());
+            }
+            // The first chunk has been written already
+            verify(log, timeout(1000)).onBegin();
+            verify(log, timeout(1000).times(TxnLogDatasetGraph.CHUNK_SIZE)).onAdd(any(), any(), any(), any());
+        });
+
+        var order = inOrder(log);
+        order.verify(log).onBegin();
+        order.verify(log).onMetadata(eq("userid"), eq("fullname"), anyLong());
+        order.verify(log, times(TxnLogDatasetGraph.CHUNK_SIZE * 3 / 2)).onAdd(any(), any(), any(), any());
+        order.verify(log).onCommit();
+        verifyNoMoreInteractions(log);
+    }
+
+    @Test
+    public void shouldAbortLargeTransactions() throws IOException {
+        txn.executeWrite(m -> {
+            for (var i = 0; i <= TxnLogDatasetGraph.CHUNK_SIZE; i++) {
+                m.add(createResource("http://example.com/s" + i), statement.getPredicate(), statement.getObject());
+            }
+            ds.abort();
+        });
+
+        var order = inOrder(log);
+        order.verify(log).onBegin();
+        order.verify(log).onMetadata(eq("userid"), eq("fullname"), anyLong());
+        order.verify(log, times(TxnLogDatasetGraph.CHUNK_SIZE)).onAdd(any(), any(), any(), any());
+        order.verify(log).onAbort();
+        verify(log, never()).onCommit();
+    }
+
+    @Test
+    public void interruptedWaitForDurabilityFailsTheCommit() throws Exception {
+        // The flush waits for a second transaction which never comes
+        var dsg = new TxnLogDatasetGraph(createTxnMem(), log, new GroupCommit(() -> {}, 60_000, 2));
+        var committer = Thread.currentThread();
+        var interrupter = new Thread(() -> {
+            try {
+                verify(log, timeout(1000)).onCommit();
+                Thread.sleep(100);
+            } catch (InterruptedException ignore) {
+            }
+            committer.interrupt();
+        });
+        interrupter.start();
+
+        dsg.begin(ReadWrite.WRITE);
+        try {
+            dsg.getDefaultGraph().add(statement.asTriple());
+            assertThrows(JenaTransactionException.class, dsg::commit);
+            assertTrue(Thread.interrupted());
+        } finally {
+            dsg.end();
+            interrupter.join();
+        }
+
+        // Committed, just not known to be durable
+        assertTrue(Txn.calculateRead(dsg, () -> dsg.getDefaultGraph().contains(statement.asTriple())));
+    }
+
     @Test
     public void shouldNotLogReadTransactions() throws IOException {
         txn.executeRead(m -> m.listStatements().toList());
@@ -100,20 +200,6 @@ public class TxnLogDatasetGraphTest {
             });
         } catch (Exception ignore) {
         }
-        verify(log).onBegin();
-        verify(log).onMetadata(eq("userid"), eq("fullname"), anyLong());
-        verify(log)
-                .onAdd(
-                        defaultGraphNodeGenerated,
-                        statement.getSubject().asNode(),
-                        statement.getPredicate().asNode(),
-                        statement.getObject().asNode());
-        verify(log)
-                .onDelete(
-                        defaultGraphNodeGenerated,
-                        statement.getSubject().asNode(),
-                        statement.getPredicate().asNode(),
-                        statement.getObject().asNode());
-        verify(log).onAbort();
+        verifyNoMoreInteractions(log);
     }
 }
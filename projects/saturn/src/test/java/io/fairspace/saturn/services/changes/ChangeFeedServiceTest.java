@@ -0,0 +1,151 @@
+package io.fairspace.saturn.services.changes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.apache.jena.graph.Node;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.fairspace.saturn.rdf.transactions.LocalTransactionLog;
+import io.fairspace.saturn.rdf.transactions.SparqlTransactionCodec;
+import io.fairspace.saturn.rdf.transactions.TailableTransactionLog;
+import io.fairspace.saturn.rdf.transactions.TransactionLog;
+import io.fairspace.saturn.services.AccessDeniedException;
+import io.fairspace.saturn.services.users.User;
+import io.fairspace.saturn.services.users.UserService;
+
+import static org.apache.jena.graph.NodeFactory.createLiteral;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ChangeFeedServiceTest {
+    private static final Node GRAPH = createURI("http://example.com/graph");
+    private static final Node SUBJECT = createURI("http://example.com/subject");
+    private static final Node PREDICATE = createURI("http://example.com/predicate");
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private final UserService userService = mock(UserService.class);
+    private final User user = new User();
+    private TailableTransactionLog txnLog;
+    private ChangeFeedService service;
+
+    @Before
+    public void before() throws IOException {
+        user.setAdmin(true);
+        when(userService.currentUser()).thenReturn(user);
+        txnLog = new TailableTransactionLog(
+                new LocalTransactionLog(testFolder.newFolder(), new SparqlTransactionCodec()));
+        service = new ChangeFeedService(userService, txnLog);
+
+        addValue(txnLog, "1");
+        txnLog.onBegin();
+        txnLog.onMetadata("user2", "User 2", 456L);
+        txnLog.onAdd(GRAPH, SUBJECT, PREDICATE, createLiteral("temporary"));
+        txnLog.onDelete(GRAPH, SUBJECT, PREDICATE, createLiteral("1"));
+        txnLog.onDelete(GRAPH, SUBJECT, PREDICATE, createLiteral("temporary"));
+        txnLog.onCommit();
+    }
+
+    @Test
+    public void streamsCommittedTransactions() throws Exception {
+        var changes = new ArrayList<Change>();
+        service.stream(0, false, sink(changes));
+
+        assertEquals(2, changes.size());
+        var first = changes.get(0);
+        assertEquals(0, first.getIndex());
+        assertEquals(Long.valueOf(123L), first.getTimestamp());
+        assertEquals("userId", first.getUserId());
+        assertEquals(
+                List.of(List.of(
+                        "<http://example.com/graph>",
+                        "<http://example.com/subject>",
+                        "<http://example.com/predicate>",
+                        "\"1\"")),
+                first.getAdded());
+
+        var second = changes.get(1);
+        assertEquals("User 2", second.getUserName());
+        assertTrue(second.getAdded().isEmpty());
+        assertEquals(2, second.getDeleted().size());
+    }
+
+    @Test
+    public void streamStartsFromGivenTransaction() throws Exception {
+        var changes = new ArrayList<Change>();
+        service.stream(1, false, sink(changes));
+
+        assertEquals(1, changes.size());
+        assertEquals(1, changes.get(0).getIndex());
+    }
+
+    @Test
+    public void followsNewTransactions() throws Exception {
+        var changes = new ArrayList<Change>();
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var future = executor.submit(() -> {
+                service.stream(2, true, new ChangeFeedService.Sink() {
+                    @Override
+                    public void accept(Change change) throws IOException {
+                        changes.add(change);
+                        throw new IOException("Disconnected");
+                    }
+
+                    @Override
+                    public void idle() {}
+                });
+                return null;
+            });
+
+            addValue(txnLog, "2");
+
+            var e = assertThrows(Exception.class, () -> future.get());
+            assertTrue(e.getCause() instanceof IOException);
+            assertEquals(1, changes.size());
+            assertEquals(2, changes.get(0).getIndex());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void changeFeedIsAvailableToAdminsOnly() {
+        user.setAdmin(false);
+
+        assertThrows(AccessDeniedException.class, () -> service.validate(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void transactionIndexIsValidated() {
+        service.validate(3);
+    }
+
+    private static ChangeFeedService.Sink sink(List<Change> changes) {
+        return new ChangeFeedService.Sink() {
+            @Override
+            public void accept(Change change) {
+                changes.add(change);
+            }
+
+            @Override
+            public void idle() {}
+        };
+    }
+
+    private static void addValue(TransactionLog log, String value) throws IOException {
+        log.onBegin();
+        log.onMetadata("userId", "userName", 123L);
+        log.onAdd(GRAPH, SUBJECT, PREDICATE, createLiteral(value));
+        log.onCommit();
+    }
+}
@@ -0,0 +1,238 @@
+package io.fairspace.saturn.services.views;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.system.Txn;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.fairspace.saturn.PostgresAwareTest;
+import io.fairspace.saturn.vocabulary.FS;
+
+import static io.fairspace.saturn.config.ConfigLoader.VIEWS_CONFIG;
+import static io.fairspace.saturn.services.views.ViewUpdaterTest.clear;
+import static io.fairspace.saturn.services.views.ViewUpdaterTest.createViewStoreClientFactory;
+
+import static org.apache.jena.graph.NodeFactory.createLiteral;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Checks that the materialized views updated for the changes of a single subject are the same as rebuilt ones.
+ */
+public class MaterializedViewServiceTest extends PostgresAwareTest {
+    private static final String CURIE = "https://institut-curie.org/ontology#";
+    private static final int SUBJECTS = 3;
+    private static final int SAMPLES_PER_SUBJECT = 2;
+
+    private static final Node SUBJECT = createURI(CURIE + "subject");
+    private static final Node EVENT_SUBJECT = createURI(CURIE + "eventSubject");
+    private static final Node DIAGNOSIS = createURI(CURIE + "diagnosis");
+    private static final Node TOPOGRAPHY = createURI(CURIE + "topography");
+    private static final Node BREAST = createURI(CURIE + "terms#breast");
+    private static final Node LUNG = createURI(CURIE + "terms#lung");
+
+    private final DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+    private final Graph graph = dsg.getDefaultGraph();
+    private final List<Node> all = new ArrayList<>();
+    private ViewStoreClientFactory viewStoreClientFactory;
+
+    @Before
+    public void before() throws SQLException {
+        viewStoreClientFactory = createViewStoreClientFactory();
+        clear(viewStoreClientFactory);
+
+        Txn.executeWrite(dsg, () -> {
+            var genders = List.of(term("male"), term("female"));
+            var natures = List.of(term("blood"), term("rna"));
+            add(BREAST, RDFS.label.asNode(), createLiteral("breast"));
+            add(LUNG, RDFS.label.asNode(), createLiteral("lung"));
+            for (var i = 0; i < SUBJECTS; i++) {
+                var subject = subject(i);
+                add(subject, RDF.type.asNode(), createURI(CURIE + "Subject"));
+                add(subject, RDFS.label.asNode(), createLiteral("Subject " + i));
+                add(subject, createURI(CURIE + "isOfGender"), genders.get(i % genders.size()));
+                all.add(subject);
+                var event = event(i);
+                add(event, RDF.type.asNode(), createURI(CURIE + "TumorPathologyEvent"));
+                add(event, RDFS.label.asNode(), createLiteral("Event " + i));
+                add(event, EVENT_SUBJECT, subject);
+                add(event, TOPOGRAPHY, BREAST);
+                all.add(event);
+                for (var j = 0; j < SAMPLES_PER_SUBJECT; j++) {
+                    var sample = sample(i, j);
+                    add(sample, RDF.type.asNode(), createURI(CURIE + "BiologicalSample"));
+                    add(sample, RDFS.label.asNode(), createLiteral("Sample " + j + " for subject " + i));
+                    add(sample, createURI(CURIE + "isOfNature"), natures.get(j % natures.size()));
+                    add(sample, createURI(CURIE + "parentIsOfNature"), natures.get(i % natures.size()));
+                    add(sample, SUBJECT, subject);
+                    add(sample, DIAGNOSIS, event);
+                    all.add(sample);
+                }
+            }
+        });
+        update(all);
+    }
+
+    @Test
+    public void changingTheLabelOfAJoinedRowUpdatesTheRowsJoiningIt() throws SQLException {
+        var before = materializedViews();
+
+        change(subject(0), () -> {
+            graph.delete(Triple.create(subject(0), RDFS.label.asNode(), createLiteral("Subject 0")));
+            add(subject(0), RDFS.label.asNode(), createLiteral("Renamed subject"));
+        });
+
+        assertNotEquals(before, materializedViews());
+        assertEquals(rebuiltMaterializedViews(), materializedViews());
+    }
+
+    @Test
+    public void changingTheValueSetOfAJoinedRowUpdatesTheRowsJoiningIt() throws SQLException {
+        var before = materializedViews();
+
+        change(event(0), () -> {
+            graph.delete(Triple.create(event(0), TOPOGRAPHY, BREAST));
+            add(event(0), TOPOGRAPHY, LUNG);
+        });
+
+        assertNotEquals(before, materializedViews());
+        assertEquals(rebuiltMaterializedViews(), materializedViews());
+    }
+
+    @Test
+    public void deletingARowRemovesItFromTheRowsJoiningIt() throws SQLException {
+        var before = materializedViews();
+
+        change(sample(0, 0), () -> add(sample(0, 0), FS.dateDeleted.asNode(), createLiteral("2024-01-01")));
+
+        assertNotEquals(before, materializedViews());
+        assertEquals(rebuiltMaterializedViews(), materializedViews());
+    }
+
+    @Test
+    public void unlinkingARowRemovesItFromTheRowsItWasJoinedTo() throws SQLException {
+        var before = materializedViews();
+
+        change(sample(0, 1), () -> graph.delete(Triple.create(sample(0, 1), SUBJECT, subject(0))));
+
+        assertNotEquals(before, materializedViews());
+        assertEquals(rebuiltMaterializedViews(), materializedViews());
+    }
+
+    @Test
+    public void relinkingARowMovesItToTheRowItIsJoinedTo() throws SQLException {
+        var before = materializedViews();
+
+        change(sample(0, 1), () -> {
+            graph.delete(Triple.create(sample(0, 1), SUBJECT, subject(0)));
+            add(sample(0, 1), SUBJECT, subject(1));
+        });
+
+        assertNotEquals(before, materializedViews());
+        assertEquals(rebuiltMaterializedViews(), materializedViews());
+    }
+
+    private static Node subject(int i) {
+        return createURI("http://example.com/subjects#s" + i);
+    }
+
+    private static Node event(int i) {
+        return createURI("http://example.com/events#e" + i);
+    }
+
+    private static Node sample(int i, int j) {
+        return createURI("http://example.com/samples#s" + i + "-" + j);
+    }
+
+    private Node term(String name) {
+        var term = createURI(CURIE + "terms#" + name);
+        add(term, RDFS.label.asNode(), createLiteral(name));
+        return term;
+    }
+
+    private void add(Node subject, Node predicate, Node object) {
+        graph.add(Triple.create(subject, predicate, object));
+    }
+
+    /**
+     * Changes the triples of a subject, and updates the views of that subject only, as a commit would.
+     */
+    private void change(Node subject, Runnable change) throws SQLException {
+        Txn.executeWrite(dsg, change);
+        update(List.of(subject));
+    }
+
+    private void update(List<Node> subjects) throws SQLException {
+        dsg.begin(ReadWrite.READ);
+        try (var viewStoreClient = viewStoreClientFactory.build();
+                var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
+            viewUpdater.updateSubjects(subjects);
+            viewUpdater.commit();
+        } finally {
+            dsg.end();
+        }
+    }
+
+    /**
+     * Indexes all subjects again into the truncated view tables, in one transaction, which rebuilds the
+     * materialized views from scratch.
+     *
+     * @return The contents of the rebuilt materialized views
+     */
+    private Map<String, List<String>> rebuiltMaterializedViews() throws SQLException {
+        dsg.begin(ReadWrite.READ);
+        try (var viewStoreClient = viewStoreClientFactory.build();
+                var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
+            for (var view : VIEWS_CONFIG.views) {
+                viewStoreClient.truncateViewTables(view.name);
+            }
+            viewUpdater.updateSubjects(all);
+            viewUpdater.commit();
+        } finally {
+            dsg.end();
+        }
+        return materializedViews();
+    }
+
+    /**
+     * @return The rows by materialized view, as text in a stable order
+     */
+    private Map<String, List<String>> materializedViews() throws SQLException {
+        var contents = new TreeMap<String, List<String>>();
+        try (var connection = viewStoreClientFactory.getConnection()) {
+            var tables = new ArrayList<String>();
+            var sql = "select tablename from pg_tables where schemaname = current_schema() and tablename like 'mv\\_%'";
+            try (var query = connection.prepareStatement(sql)) {
+                var result = query.executeQuery();
+                while (result.next()) {
+                    tables.add(result.getString(1));
+                }
+            }
+            for (var table : tables) {
+                var rows = new ArrayList<String>();
+                try (var query = connection.prepareStatement("select t::text from " + table + " t order by 1")) {
+                    var result = query.executeQuery();
+                    while (result.next()) {
+                        rows.add(result.getString(1));
+                    }
+                }
+                contents.put(table, rows);
+            }
+        }
+        return contents;
+    }
+}
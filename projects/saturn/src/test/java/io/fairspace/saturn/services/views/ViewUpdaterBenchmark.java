@@ -0,0 +1,192 @@
+package io.fairspace.saturn.services.views;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.pivovarit.function.ThrowingRunnable;
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.fairspace.saturn.PostgresAwareTest;
+
+import static io.fairspace.saturn.services.views.ViewUpdaterTest.clear;
+import static io.fairspace.saturn.services.views.ViewUpdaterTest.createSubjects;
+import static io.fairspace.saturn.services.views.ViewUpdaterTest.createViewStoreClientFactory;
+import static io.fairspace.saturn.services.views.ViewUpdaterTest.tableContents;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the time it takes to index the views of a few thousand subjects:
+ * subject by subject with a few statements per row, batched, and with a bulk reindex.
+ * Run with 'gradle benchmark', not part of the tests.
+ */
+public class ViewUpdaterBenchmark extends PostgresAwareTest {
+    private static final int SUBJECTS = 2000;
+    private static final int RUNS = 3;
+
+    private final DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+    private List<Node> subjects;
+    private ViewStoreClientFactory viewStoreClientFactory;
+
+    @Before
+    public void before() throws SQLException {
+        viewStoreClientFactory = createViewStoreClientFactory();
+        subjects = createSubjects(dsg, SUBJECTS);
+    }
+
+    @After
+    public void after() {
+        if (dsg.isInTransaction()) {
+            dsg.end();
+        }
+    }
+
+    @Test
+    public void indexSubjects() throws SQLException {
+        var expected = measure("subject by subject", () -> {
+            try (var viewStoreClient = new SubjectBySubjectViewStoreClient(viewStoreClientFactory);
+                    var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
+                for (var subject : subjects) {
+                    viewUpdater.updateSubjects(List.of(subject));
+                }
+                viewUpdater.commit();
+            }
+        });
+
+        var batched = measure("batched", () -> {
+            try (var viewStoreClient = viewStoreClientFactory.build();
+                    var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
+                viewUpdater.updateSubjects(subjects);
+                viewUpdater.commit();
+            }
+        });
+        assertEquals(expected, batched);
+
+        var reindexed = measure("with a bulk reindex", () -> {
+            // The reindex takes the transactions it needs itself
+            dsg.end();
+            try {
+                new BulkReindexer(viewStoreClientFactory, dsg, 4).reindex();
+            } finally {
+                dsg.begin(ReadWrite.READ);
+            }
+        });
+        assertEquals(expected, reindexed);
+    }
+
+    /**
+     * Runs an indexing of the cleared views a few times, and prints the fastest time.
+     *
+     * @return The contents of the tables after the last run
+     */
+    private Map<String, List<String>> measure(String name, ThrowingRunnable<SQLException> indexing)
+            throws SQLException {
+        var best = Long.MAX_VALUE;
+        for (var i = 0; i < RUNS; i++) {
+            clear(viewStoreClientFactory);
+            dsg.begin(ReadWrite.READ);
+            try {
+                var start = System.nanoTime();
+                indexing.run();
+                best = Math.min(best, (System.nanoTime() - start) / 1_000_000);
+            } finally {
+                dsg.end();
+            }
+        }
+        System.out.printf("Indexing %d subjects %s took %dms%n", subjects.size(), name, best);
+        return tableContents(viewStoreClientFactory);
+    }
+
+    /**
+     * Writes the changes of the view updater with the statements the view updater used before it batched them:
+     * per row an existence check and an insert or update, per set column and per join of a row a select
+     * of the existing values, a delete and an insert, and per term an existence check and an insert of its label.
+     */
+    private static class SubjectBySubjectViewStoreClient extends ViewStoreClient {
+        private final Connection connection;
+
+        SubjectBySubjectViewStoreClient(ViewStoreClientFactory viewStoreClientFactory) throws SQLException {
+            this(viewStoreClientFactory.getConnection(), viewStoreClientFactory);
+        }
+
+        private SubjectBySubjectViewStoreClient(Connection connection, ViewStoreClientFactory viewStoreClientFactory) {
+            super(
+                    connection,
+                    viewStoreClientFactory.configuration,
+                    viewStoreClientFactory.materializedViewService,
+                    viewStoreClientFactory.labelCache,
+                    viewStoreClientFactory.reindexChanges);
+            this.connection = connection;
+        }
+
+        @Override
+        public void deleteRows(String view, Collection<String> ids) throws SQLException {
+            for (var id : ids) {
+                super.deleteRows(view, List.of(id));
+            }
+        }
+
+        @Override
+        public int updateRows(String view, List<Map<String, Object>> rows, boolean bulkInsert) throws SQLException {
+            var count = 0;
+            for (var row : rows) {
+                exists(getConfiguration().viewTables.get(view).name, (String) row.get("id"));
+                count += super.updateRows(view, List.of(row), bulkInsert);
+            }
+            return count;
+        }
+
+        @Override
+        public void updateValues(String view, String property, Map<String, Set<String>> valuesById)
+                throws SQLException {
+            for (var values : valuesById.entrySet()) {
+                super.updateValues(view, property, Map.of(values.getKey(), values.getValue()));
+            }
+        }
+
+        @Override
+        public void updateLinks(String view, String joinView, Map<String, Set<String>> linksById)
+                throws SQLException {
+            for (var links : linksById.entrySet()) {
+                super.updateLinks(view, joinView, Map.of(links.getKey(), links.getValue()));
+            }
+        }
+
+        @Override
+        public void addLabel(String id, String type, String label) {
+            ThrowingRunnable.sneaky(() -> insertLabel(id, type, label)).run();
+        }
+
+        private void insertLabel(String id, String type, String label) throws SQLException {
+            if (exists("label", id)) {
+                return;
+            }
+            try (var insert = connection.prepareStatement("insert into label (id, type, label) values (?, ?, ?)")) {
+                insert.setString(1, id);
+                insert.setString(2, type);
+                insert.setString(3, label);
+                insert.executeUpdate();
+            }
+        }
+
+        private boolean exists(String table, String id) throws SQLException {
+            try (var query =
+                    connection.prepareStatement("select exists ( select 1 from " + table + " where id = ? )")) {
+                query.setString(1, id);
+                var result = query.executeQuery();
+                result.next();
+                return result.getBoolean(1);
+            }
+        }
+    }
+}
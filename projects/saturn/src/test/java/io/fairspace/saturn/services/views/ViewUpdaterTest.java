@@ -0,0 +1,216 @@
+package io.fairspace.saturn.services.views;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.system.Txn;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.fairspace.saturn.PostgresAwareTest;
+import io.fairspace.saturn.config.Config;
+
+import static io.fairspace.saturn.config.ConfigLoader.VIEWS_CONFIG;
+
+import static org.apache.jena.graph.NodeFactory.createLiteral;
+import static org.apache.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ViewUpdaterTest extends PostgresAwareTest {
+    private static final String CURIE = "https://institut-curie.org/ontology#";
+    private static final int SUBJECTS = 500;
+    private static final int SAMPLES_PER_SUBJECT = 4;
+
+    private final DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+    private List<Node> subjects;
+    private ViewStoreClientFactory viewStoreClientFactory;
+
+    @Before
+    public void before() throws SQLException {
+        viewStoreClientFactory = createViewStoreClientFactory();
+        subjects = createSubjects(dsg, SUBJECTS);
+        dsg.begin(ReadWrite.READ);
+    }
+
+    @After
+    public void after() {
+        dsg.end();
+    }
+
+    @Test
+    public void batchedUpdatesMatchSubjectBySubjectUpdates() throws SQLException {
+        clear(viewStoreClientFactory);
+        try (var viewStoreClient = viewStoreClientFactory.build();
+                var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
+            for (var subject : subjects) {
+                viewUpdater.updateSubjects(List.of(subject));
+            }
+            viewUpdater.commit();
+        }
+        var expected = tableContents(viewStoreClientFactory);
+
+        clear(viewStoreClientFactory);
+        try (var viewStoreClient = viewStoreClientFactory.build();
+                var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
+            viewUpdater.updateSubjects(subjects);
+            viewUpdater.commit();
+        }
+
+        assertEquals(expected, tableContents(viewStoreClientFactory));
+        assertFalse(expected.values().stream().allMatch(List::isEmpty));
+    }
+
+    @Test
+    public void bulkReindexMatchesIncrementalUpdates() throws SQLException {
+        clear(viewStoreClientFactory);
+        try (var viewStoreClient = viewStoreClientFactory.build();
+                var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
+            viewUpdater.updateSubjects(subjects);
+            viewUpdater.commit();
+        }
+        var expected = tableContents(viewStoreClientFactory);
+
+        clear(viewStoreClientFactory);
+        // The reindex holds a write transaction to swap the tables
+        dsg.end();
+        try {
+            new BulkReindexer(viewStoreClientFactory, dsg, 4).reindex();
+        } finally {
+            dsg.begin(ReadWrite.READ);
+        }
+
+        assertEquals(expected, tableContents(viewStoreClientFactory));
+    }
+
+    @Test
+    public void committedLabelsAreCached() throws SQLException {
+        var term = CURIE + "terms#male";
+        var labelCache = viewStoreClientFactory.labelCache;
+        try (var viewStoreClient = viewStoreClientFactory.build();
+                var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
+            viewUpdater.updateSubjects(subjects.subList(0, 1));
+            assertFalse(labelCache.contains(term));
+            viewUpdater.commit();
+        }
+
+        assertEquals("male", labelCache.get(term).orElseThrow().getValue());
+        assertEquals(term, labelCache.getId(CURIE + "Gender", "male").orElseThrow());
+    }
+
+    /**
+     * @return A factory of clients of the view database of the test container, with an empty label table
+     */
+    static ViewStoreClientFactory createViewStoreClientFactory() throws SQLException {
+        var viewDatabase = new Config.ViewDatabase();
+        viewDatabase.url = postgres.getJdbcUrl();
+        viewDatabase.username = postgres.getUsername();
+        viewDatabase.password = postgres.getPassword();
+        viewDatabase.maxPoolSize = 5;
+        var viewStoreClientFactory = new ViewStoreClientFactory(VIEWS_CONFIG, viewDatabase, new Config.Search());
+        try (var connection = viewStoreClientFactory.getConnection();
+                var truncate = connection.prepareStatement("truncate table label")) {
+            truncate.executeUpdate();
+            connection.commit();
+        }
+        return viewStoreClientFactory;
+    }
+
+    /**
+     * Adds subjects with their gender and a few biological samples each to the default graph.
+     *
+     * @return The subjects and the samples
+     */
+    static List<Node> createSubjects(DatasetGraph dsg, int count) {
+        var subjects = new ArrayList<Node>();
+        var graph = dsg.getDefaultGraph();
+        Txn.executeWrite(dsg, () -> {
+            var genders = List.of(term(graph, "male"), term(graph, "female"));
+            var natures = List.of(term(graph, "blood"), term(graph, "rna"), term(graph, "dna"));
+            for (var i = 0; i < count; i++) {
+                var subject = createURI("http://example.com/subjects#s" + i);
+                add(graph, subject, RDF.type.asNode(), createURI(CURIE + "Subject"));
+                add(graph, subject, RDFS.label.asNode(), createLiteral("Subject " + i));
+                add(graph, subject, createURI(CURIE + "isOfGender"), genders.get(i % genders.size()));
+                subjects.add(subject);
+                for (var j = 0; j < SAMPLES_PER_SUBJECT; j++) {
+                    var sample = createURI("http://example.com/samples#s" + i + "-" + j);
+                    add(graph, sample, RDF.type.asNode(), createURI(CURIE + "BiologicalSample"));
+                    add(graph, sample, RDFS.label.asNode(), createLiteral("Sample " + j + " for subject " + i));
+                    add(graph, sample, createURI(CURIE + "isOfNature"), natures.get(j % natures.size()));
+                    add(graph, sample, createURI(CURIE + "parentIsOfNature"), natures.get(i % natures.size()));
+                    add(graph, sample, createURI(CURIE + "subject"), subject);
+                    add(
+                            graph,
+                            sample,
+                            createURI(CURIE + "tumorCellularity"),
+                            createLiteral("12.5", XSDDatatype.XSDdouble));
+                    subjects.add(sample);
+                }
+            }
+        });
+        return subjects;
+    }
+
+    private static Node term(Graph graph, String name) {
+        var term = createURI(CURIE + "terms#" + name);
+        add(graph, term, RDFS.label.asNode(), createLiteral(name));
+        return term;
+    }
+
+    private static void add(Graph graph, Node subject, Node predicate, Node object) {
+        graph.add(Triple.create(subject, predicate, object));
+    }
+
+    static void clear(ViewStoreClientFactory viewStoreClientFactory) throws SQLException {
+        try (var viewStoreClient = viewStoreClientFactory.build()) {
+            for (var view : VIEWS_CONFIG.views) {
+                viewStoreClient.truncateViewTables(view.name);
+            }
+            viewStoreClient.commit();
+        }
+    }
+
+    /**
+     * @return The rows by table, including the materialized views, as text in a stable order
+     */
+    static Map<String, List<String>> tableContents(ViewStoreClientFactory viewStoreClientFactory)
+            throws SQLException {
+        var configuration = viewStoreClientFactory.configuration;
+        var tables = new ArrayList<String>();
+        tables.add("label");
+        configuration.viewTables.values().forEach(table -> tables.add(table.name));
+        configuration.propertyTables.values().forEach(t -> t.values().forEach(table -> tables.add(table.name)));
+        configuration.joinTables.values().forEach(t -> t.values().forEach(table -> tables.add(table.name)));
+        tables.add("mv_sample");
+        tables.add("mv_sample_join_subject");
+
+        var contents = new TreeMap<String, List<String>>();
+        try (var connection = viewStoreClientFactory.getConnection()) {
+            for (var table : tables) {
+                var rows = new ArrayList<String>();
+                try (var query = connection.prepareStatement("select t::text from " + table + " t order by 1")) {
+                    var result = query.executeQuery();
+                    while (result.next()) {
+                        rows.add(result.getString(1));
+                    }
+                }
+                contents.put(table, rows);
+            }
+        }
+        return contents;
+    }
+}